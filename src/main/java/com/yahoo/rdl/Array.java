@@ -5,20 +5,49 @@
 
 package com.yahoo.rdl;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
  * A Simple Array object for generic data. More convenient for JSON arrays, which can
  * easily be heterogeneous.
+ * <p>
+ * Subclasses may use a different storage, see IntArray, LongArray, and DoubleArray. They must
+ * override the primitive operations size, get, set, add, add(int, Object), addAll(int, Collection),
+ * remove(int), clear, and iterator; everything else is expressed in terms of those.
+ * <p>
+ * Slices (and copies) are views that share storage with the original until either one is
+ * modified, at which point the modified one makes a private copy of its items. Use compact()
+ * to force that copy, for example to release a large parent array that is no longer needed.
  */
-public final class Array implements Iterable<Object>, List<Object> {
+@JsonSerialize(using = Array.ArrayJsonSerializer.class)
+@JsonDeserialize(using = Array.ArrayJsonDeserializer.class)
+public class Array implements Iterable<Object>, List<Object> {
 
     private static final int MIN_CAP = 16;
-    private static final int MAX_GROWTH = 128;
+    private static final int MAX_CAP = Integer.MAX_VALUE - 8;
+
+    //above this capacity, a single Object[] would be a humongous allocation for G1 with its
+    //smallest region size, so withCapacity returns a SegmentedArray instead
+    static final int SEGMENT_THRESHOLD = 1 << 16;
 
     private Object[] values;
     private int count;
+    private int offset; //non-zero only for slices
+    private boolean shared; //values is shared with a slice or parent, copy before modifying
 
     public Array(int cap) {
         int n = (cap < MIN_CAP) ? MIN_CAP : cap;
@@ -35,6 +64,37 @@ public final class Array implements Iterable<Object>, List<Object> {
         addAll(lst);
     }
 
+    //for slices, and for subclasses that provide their own storage
+    Array(Object[] values, int count) {
+        this.values = values;
+        this.count = count;
+    }
+
+    /**
+     * Create an empty Array sized for the given number of items, as when a decoder knows the
+     * count up front. Very large capacities produce a SegmentedArray, whose storage is chunked.
+     * @param cap the expected number of items
+     * @return an empty Array
+     */
+    public static Array withCapacity(int cap) {
+        if (cap > SEGMENT_THRESHOLD) {
+            return new SegmentedArray(cap);
+        }
+        return new Array(cap);
+    }
+
+    //Grow by half the current capacity, so that appends are amortized O(1) at any size.
+    static int newCapacity(int oldCap, int needed) {
+        if (needed < 0 || needed > MAX_CAP) {
+            throw new OutOfMemoryError("Array size limit exceeded");
+        }
+        int newCap = (oldCap > MAX_CAP - (oldCap >> 1)) ? MAX_CAP : oldCap + (oldCap >> 1);
+        if (newCap < MIN_CAP) {
+            newCap = MIN_CAP;
+        }
+        return (newCap < needed) ? needed : newCap;
+    }
+
     public static Array empty() {
         return new Array();
     }
@@ -50,11 +110,21 @@ public final class Array implements Iterable<Object>, List<Object> {
         return a;
     }
 
+    //take a private copy of the items before modifying them
+    private void unshare(int cap) {
+        Object[] newValues = new Object[(cap < MIN_CAP) ? MIN_CAP : cap];
+        System.arraycopy(values, offset, newValues, 0, count);
+        values = newValues;
+        offset = 0;
+        shared = false;
+    }
+
     public boolean add(Object o) {
+        if (shared) {
+            unshare(newCapacity(count, count + 1));
+        }
         if (count == values.length) {
-            int oldCap = values.length;
-            int newCap = (oldCap < MAX_GROWTH) ? oldCap * 2 : oldCap + MAX_GROWTH;
-            Object[] newValues = new Object[newCap];
+            Object[] newValues = new Object[newCapacity(values.length, count + 1)];
             System.arraycopy(values, 0, newValues, 0, count);
             values = newValues;
         }
@@ -82,8 +152,14 @@ public final class Array implements Iterable<Object>, List<Object> {
         return this;
     }
 
+    /**
+     * Return the items from start up to (not including) end, as a new Array. This is O(1): the
+     * result shares storage with this array until either of them is modified.
+     * @param start the index of the first item. Negative values are treated as 0.
+     * @param end the index after the last item. Negative or out of range values are treated as the size.
+     * @return the slice
+     */
     public Array slice(int start, int end) {
-        int count = size();
         if (start < 0) {
             start = 0;
         }
@@ -94,10 +170,10 @@ public final class Array implements Iterable<Object>, List<Object> {
             end = start;
         }
         if (end > start) {
-            Array a = new Array(end - start);
-            for (int i = start; i < end; i++) {
-                a.add(get(i));
-            }
+            Array a = new Array(values, end - start);
+            a.offset = offset + start;
+            a.shared = true;
+            shared = true;
             return a;
         } else {
             return empty();
@@ -108,12 +184,40 @@ public final class Array implements Iterable<Object>, List<Object> {
         return slice(0, -1);
     }
 
+    /**
+     * Give this array private, exactly sized storage, copying the items if they are shared with
+     * another array. Afterwards a slice no longer keeps its (possibly much larger) parent alive.
+     * @return this array
+     */
+    public Array compact() {
+        if (shared || values.length != count) {
+            Object[] newValues = new Object[count];
+            System.arraycopy(values, offset, newValues, 0, count);
+            values = newValues;
+            offset = 0;
+            shared = false;
+        }
+        return this;
+    }
+
+    /**
+     * Return an immutable copy of this array. Nested Structs and Arrays are frozen as well, so
+     * the result can be shared across threads without defensive copies.
+     * @return the frozen array
+     */
+    public ImmutableArray freeze() {
+        return ImmutableArray.copyOf(this);
+    }
+
     public int size() {
         return count;
     }
 
     public Object get(int idx) {
-        return values[idx];
+        if (idx < 0 || idx >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+        return values[offset + idx];
     }
 
     public String getString(int idx) {
@@ -220,11 +324,11 @@ public final class Array implements Iterable<Object>, List<Object> {
 
         TypedArrayIterator(T[] a) {
             array = a;
-            i = 0;
+            i = offset;
         }
 
         public boolean hasNext() {
-            return i < count;
+            return i < offset + count;
         }
 
         public T next() {
@@ -240,6 +344,67 @@ public final class Array implements Iterable<Object>, List<Object> {
         return new TypedArrayIterator<Object>(values);
     }
 
+    /**
+     * The spliterator is SIZED, SUBSIZED, and ORDERED, and splits exactly in half, so
+     * parallelStream() divides the work evenly. The stream sees the items as of its creation:
+     * modifying the array afterwards makes the array copy its items first.
+     */
+    @Override
+    public Spliterator<Object> spliterator() {
+        shared = true;
+        return Spliterators.spliterator(values, offset, offset + count, Spliterator.ORDERED);
+    }
+
+    /**
+     * A spliterator over a range of indices of an Array, for subclasses with other storage.
+     */
+    static final class IndexSpliterator implements Spliterator<Object> {
+        private final Array array;
+        private int index;
+        private final int fence;
+        private final int characteristics;
+
+        IndexSpliterator(Array array, int from, int to, int characteristics) {
+            this.array = array;
+            this.index = from;
+            this.fence = to;
+            this.characteristics = characteristics | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED;
+        }
+
+        public boolean tryAdvance(Consumer<? super Object> action) {
+            if (index < fence) {
+                action.accept(array.get(index++));
+                return true;
+            }
+            return false;
+        }
+
+        public void forEachRemaining(Consumer<? super Object> action) {
+            for (int i = index; i < fence; i++) {
+                action.accept(array.get(i));
+            }
+            index = fence;
+        }
+
+        public Spliterator<Object> trySplit() {
+            int lo = index;
+            int mid = (lo + fence) >>> 1;
+            if (lo >= mid) {
+                return null;
+            }
+            index = mid;
+            return new IndexSpliterator(array, lo, mid, characteristics);
+        }
+
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        public int characteristics() {
+            return characteristics;
+        }
+    }
+
     public Iterable<Struct> asStructs() {
         return new Value.TypedIterable<Struct>(this);
     }
@@ -255,9 +420,10 @@ public final class Array implements Iterable<Object>, List<Object> {
         }
         if (another instanceof Array) {
             Array other = (Array) another;
-            if (count == other.count) {
+            int count = size();
+            if (count == other.size()) {
                 for (int i = 0; i < count; i++) {
-                    if (!Value.equals(values[i], other.values[i])) {
+                    if (!Value.equals(get(i), other.get(i))) {
                         return false;
                     }
                 }
@@ -269,31 +435,28 @@ public final class Array implements Iterable<Object>, List<Object> {
 
     // --- List methods
 
+    /**
+     * Unlike most Lists, the result is not a write-through view: it is a slice, which shares
+     * storage with this array only until either of them is modified.
+     */
     public List<Object> subList(int fromIndex, int toIndex) {
-        if (toIndex >= count) {
+        if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
             throw new IndexOutOfBoundsException();
         }
-        int size = toIndex - fromIndex;
-        if (size <= 0) {
-            return Array.empty();
-        }
-        Array a = new Array(size);
-        for (int i = fromIndex; i < toIndex; i++) {
-            a.add(values[i]);
-        }
-        return a;
+        return slice(fromIndex, toIndex);
     }
 
     public int indexOf(Object o) {
+        int count = size();
         if (o == null) {
             for (int i = 0; i < count; i++) {
-                if (values[i] == null) {
+                if (get(i) == null) {
                     return i;
                 }
             }
         } else {
             for (int i = 0; i < count; i++) {
-                if (o.equals(values[i])) {
+                if (o.equals(get(i))) {
                     return i;
                 }
             }
@@ -303,14 +466,14 @@ public final class Array implements Iterable<Object>, List<Object> {
 
     public int lastIndexOf(Object o) {
         if (o == null) {
-            for (int i = count - 1; i >= 0; i--) {
-                if (values[i] == null) {
+            for (int i = size() - 1; i >= 0; i--) {
+                if (get(i) == null) {
                     return i;
                 }
             }
         } else {
-            for (int i = count - 1; i >= 0; i--) {
-                if (o.equals(values[i])) {
+            for (int i = size() - 1; i >= 0; i--) {
+                if (o.equals(get(i))) {
                     return i;
                 }
             }
@@ -319,11 +482,20 @@ public final class Array implements Iterable<Object>, List<Object> {
     }
 
     public void clear() {
+        if (shared) {
+            values = new Object[MIN_CAP];
+            offset = 0;
+            shared = false;
+        } else {
+            for (int i = 0; i < count; i++) {
+                values[i] = null;
+            }
+        }
         count = 0;
     }
 
     public boolean isEmpty() {
-        return count == 0;
+        return size() == 0;
     }
 
     public boolean remove(Object o) {
@@ -339,6 +511,9 @@ public final class Array implements Iterable<Object>, List<Object> {
         if (index < 0 || index >= count) {
             throw new IndexOutOfBoundsException();
         }
+        if (shared) {
+            unshare(count);
+        }
         Object result = values[index];
         count--;
         int tail = count - index;
@@ -359,42 +534,39 @@ public final class Array implements Iterable<Object>, List<Object> {
     }
 
     public boolean removeAll(java.util.Collection<?> c) {
-        boolean changed = false;
-        Object[] newValues = new Object[values.length];
-        int n = 0;
-        for (int i = 0; i < count; i++) {
-            if (!c.contains(values[i])) {
-                newValues[n++] = values[i];
-            } else {
-                changed = true;
-            }
-        }
-        values = newValues;
-        count = n;
-        return changed;
-
+        return filter(c, false);
     }
 
     public boolean retainAll(java.util.Collection<?> c) {
-        boolean changed = false;
-        Object[] newValues = new Object[values.length];
+        return filter(c, true);
+    }
+
+    //keep the elements whose membership in c equals the retain flag, preserving order
+    boolean filter(java.util.Collection<?> c, boolean retain) {
+        int count = size();
         int n = 0;
         for (int i = 0; i < count; i++) {
-            if (c.contains(values[i])) {
-                newValues[n++] = values[i];
-            } else {
-                changed = true;
+            Object o = get(i);
+            if (c.contains(o) == retain) {
+                if (n != i) {
+                    set(n, o);
+                }
+                n++;
             }
         }
-        values = newValues;
-        count = n;
-        return changed;
+        for (int i = count - 1; i >= n; i--) {
+            remove(i);
+        }
+        return n != count;
     }
 
     public Object set(int index, Object element) {
         if (index >= count || index < 0) {
             throw new IndexOutOfBoundsException();
         }
+        if (shared) {
+            unshare(count);
+        }
         Object result = values[index];
         values[index] = element;
         return result;
@@ -407,10 +579,11 @@ public final class Array implements Iterable<Object>, List<Object> {
         if (index == count) {
             add(element);
         } else {
+            if (shared) {
+                unshare(newCapacity(count, count + 1));
+            }
             if (count == values.length) {
-                int oldCap = values.length;
-                int newCap = (oldCap < MAX_GROWTH) ? oldCap * 2 : oldCap + MAX_GROWTH;
-                Object[] newValues = new Object[newCap];
+                Object[] newValues = new Object[newCapacity(values.length, count + 1)];
                 System.arraycopy(values, 0, newValues, 0, index);
                 System.arraycopy(values, index, newValues, index + 1, count - index);
                 values = newValues;
@@ -430,12 +603,14 @@ public final class Array implements Iterable<Object>, List<Object> {
         if (index == count) {
             addAll(c);
         } else {
+            if (shared) {
+                unshare(count + c.size());
+            }
             int oldCap = values.length;
             int cSize = c.size();
             int newSize = count + cSize;
             if (newSize >= oldCap) {
-                int newCap = oldCap + cSize;
-                Object[] newValues = new Object[newCap];
+                Object[] newValues = new Object[newCapacity(oldCap, newSize)];
                 System.arraycopy(values, 0, newValues, 0, index);
                 System.arraycopy(values, index, newValues, index + cSize, count - index);
                 values = newValues;
@@ -457,7 +632,7 @@ public final class Array implements Iterable<Object>, List<Object> {
         }
 
         public boolean hasNext() {
-            return i < count;
+            return i < size();
         }
 
         public boolean hasPrevious() {
@@ -465,7 +640,7 @@ public final class Array implements Iterable<Object>, List<Object> {
         }
 
         public Object next() {
-            return values[i++];
+            return get(i++);
         }
 
         public int nextIndex() {
@@ -477,7 +652,7 @@ public final class Array implements Iterable<Object>, List<Object> {
         }
 
         public Object previous() {
-            return values[--i];
+            return get(--i);
         }
 
         public void add(Object o) {
@@ -502,8 +677,11 @@ public final class Array implements Iterable<Object>, List<Object> {
     }
 
     public Object[] toArray() {
+        int count = size();
         Object[] result = new Object[count];
-        System.arraycopy(values, 0, result, 0, count);
+        for (int i = 0; i < count; i++) {
+            result[i] = get(i);
+        }
         return result;
     }
 
@@ -514,4 +692,118 @@ public final class Array implements Iterable<Object>, List<Object> {
     public <T> T[] toArray(T[] a) {
         throw new UnsupportedOperationException();
     }
+
+    //writes the primitive arrays without boxing their items
+    public static class ArrayJsonSerializer extends JsonSerializer<Array> {
+        @Override
+        public void serialize(Array value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            int n = value.size();
+            jgen.writeStartArray(value, n);
+            if (value instanceof PrimitiveArray && ((PrimitiveArray) value).isBoxed()) {
+                value = ((PrimitiveArray) value).boxed;
+            }
+            if (value instanceof IntArray) {
+                for (int i = 0; i < n; i++) {
+                    jgen.writeNumber(value.getInt(i));
+                }
+            } else if (value instanceof LongArray) {
+                for (int i = 0; i < n; i++) {
+                    jgen.writeNumber(value.getLong(i));
+                }
+            } else if (value instanceof DoubleArray) {
+                for (int i = 0; i < n; i++) {
+                    jgen.writeNumber(value.getDouble(i));
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    provider.defaultSerializeValue(value.get(i), jgen);
+                }
+            }
+            jgen.writeEndArray();
+        }
+
+        @Override
+        public boolean isEmpty(SerializerProvider provider, Array value) {
+            return value.isEmpty();
+        }
+    }
+
+    /**
+     * Deserializes JSON arrays into Arrays. Arrays of only ints, only longs, or only floating
+     * point numbers produce the primitive-backed IntArray, LongArray, or DoubleArray, without
+     * boxing. Anything else produces a generic Array, with items deserialized as usual.
+     */
+    public static class ArrayJsonDeserializer extends JsonDeserializer<Array> {
+        @Override
+        public Array deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+            if (!jp.isExpectedStartArrayToken()) {
+                return (Array) ctxt.handleUnexpectedToken(Array.class, jp);
+            }
+            JsonToken tok = jp.nextToken();
+            if (tok == JsonToken.END_ARRAY) {
+                return new Array();
+            }
+            Array result = null;
+            if (tok == JsonToken.VALUE_NUMBER_INT) {
+                JsonParser.NumberType ntype = jp.getNumberType();
+                if (ntype == JsonParser.NumberType.INT) {
+                    IntArray ia = new IntArray();
+                    do {
+                        ia.addInt(jp.getIntValue());
+                        tok = jp.nextToken();
+                    } while (tok == JsonToken.VALUE_NUMBER_INT && jp.getNumberType() == JsonParser.NumberType.INT);
+                    result = ia;
+                } else if (ntype == JsonParser.NumberType.LONG) {
+                    LongArray la = new LongArray();
+                    do {
+                        la.addLong(jp.getLongValue());
+                        tok = jp.nextToken();
+                    } while (tok == JsonToken.VALUE_NUMBER_INT && jp.getNumberType() == JsonParser.NumberType.LONG);
+                    result = la;
+                }
+            } else if (tok == JsonToken.VALUE_NUMBER_FLOAT && jp.getNumberType() == JsonParser.NumberType.DOUBLE) {
+                DoubleArray da = new DoubleArray();
+                do {
+                    da.addDouble(jp.getDoubleValue());
+                    tok = jp.nextToken();
+                } while (tok == JsonToken.VALUE_NUMBER_FLOAT && jp.getNumberType() == JsonParser.NumberType.DOUBLE);
+                result = da;
+            }
+            if (tok == JsonToken.END_ARRAY) {
+                return result;
+            }
+            //heterogeneous: continue generically with whatever was read so far
+            Array ary = (result == null) ? new Array() : new Array(result);
+            while (tok != JsonToken.END_ARRAY) {
+                if (ary.size() == SEGMENT_THRESHOLD && !(ary instanceof SegmentedArray)) {
+                    ary = new SegmentedArray(ary);
+                }
+                ary.add(Struct.StructJsonDeserializer.readValue(jp, ctxt));
+                tok = jp.nextToken();
+            }
+            return ary;
+        }
+
+        //refill an existing Array, keeping its kind
+        @Override
+        public Array deserialize(JsonParser jp, DeserializationContext ctxt, Array into) throws IOException {
+            if (!jp.isExpectedStartArrayToken()) {
+                return (Array) ctxt.handleUnexpectedToken(Array.class, jp);
+            }
+            into.clear();
+            JsonToken tok;
+            while ((tok = jp.nextToken()) != JsonToken.END_ARRAY) {
+                if (tok == JsonToken.VALUE_NUMBER_INT && into instanceof IntArray && jp.getNumberType() == JsonParser.NumberType.INT) {
+                    ((IntArray) into).addInt(jp.getIntValue());
+                } else if (tok == JsonToken.VALUE_NUMBER_INT && into instanceof LongArray) {
+                    ((LongArray) into).addLong(jp.getLongValue());
+                } else if (tok == JsonToken.VALUE_NUMBER_FLOAT && into instanceof DoubleArray) {
+                    ((DoubleArray) into).addDouble(jp.getDoubleValue());
+                } else {
+                    into.add(Struct.StructJsonDeserializer.readValue(jp, ctxt));
+                }
+            }
+            return into;
+        }
+    }
 }
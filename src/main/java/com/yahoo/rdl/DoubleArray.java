@@ -0,0 +1,136 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+import java.util.Arrays;
+
+/**
+ * An Array of Float64 values stored in a double[], avoiding a boxed Double per item. Floats and
+ * Int32 or smaller integers are also accepted, and widened. Use getDouble and addDouble to avoid
+ * boxing altogether.
+ */
+public class DoubleArray extends PrimitiveArray {
+
+    private double[] values;
+
+    public DoubleArray(int cap) {
+        values = new double[(cap < MIN_CAP) ? MIN_CAP : cap];
+    }
+
+    public DoubleArray() {
+        this(MIN_CAP);
+    }
+
+    //a slice, sharing the parent's backing array
+    private DoubleArray(DoubleArray parent) {
+        values = parent.values;
+    }
+
+    public DoubleArray(double[] items) {
+        this(items.length);
+        System.arraycopy(items, 0, values, 0, items.length);
+        count = items.length;
+    }
+
+    public static DoubleArray of(double... items) {
+        return new DoubleArray(items);
+    }
+
+    public void addDouble(double n) {
+        if (boxed != null) {
+            boxed.add(n);
+            return;
+        }
+        if (shared || count == values.length) {
+            beforeWrite(1);
+        }
+        values[count++] = n;
+    }
+
+    public void setDouble(int idx, double n) {
+        if (boxed != null) {
+            boxed.set(idx, n);
+            return;
+        }
+        checkIndex(idx);
+        beforeWrite(0);
+        values[idx] = n;
+    }
+
+    @Override
+    public double getDouble(int idx) {
+        if (boxed != null) {
+            return boxed.getDouble(idx);
+        }
+        checkIndex(idx);
+        return values[offset + idx];
+    }
+
+    @Override
+    public float getFloat(int idx) {
+        return (float) getDouble(idx);
+    }
+
+    @Override
+    public int getInt(int idx) {
+        return (int) getDouble(idx);
+    }
+
+    @Override
+    public long getLong(int idx) {
+        return (long) getDouble(idx);
+    }
+
+    /**
+     * @return a copy of the items as an double[]
+     */
+    public double[] toDoubleArray() {
+        if (boxed != null) {
+            return doubleStream().toArray();
+        }
+        return Arrays.copyOfRange(values, offset, offset + count);
+    }
+
+    /**
+     * @return a stream of the items, without boxing. Like the generic stream, it sees the items
+     * as of its creation.
+     */
+    public java.util.stream.DoubleStream doubleStream() {
+        if (boxed != null) {
+            return boxed.stream().mapToDouble(Value::asDouble);
+        }
+        shared = true;
+        return Arrays.stream(values, offset, offset + count);
+    }
+
+    int capacity() {
+        return values.length;
+    }
+
+    void reallocate(int from, int newCap) {
+        values = Arrays.copyOfRange(values, from, from + newCap);
+    }
+
+    Object storage() {
+        return values;
+    }
+
+    PrimitiveArray share() {
+        return new DoubleArray(this);
+    }
+
+    boolean accepts(Object o) {
+        return o instanceof Double || o instanceof Float || o instanceof Integer || o instanceof Short || o instanceof Byte;
+    }
+
+    Object box(int idx) {
+        return values[offset + idx];
+    }
+
+    void store(int idx, Object o) {
+        values[idx] = ((java.lang.Number) o).doubleValue();
+    }
+}
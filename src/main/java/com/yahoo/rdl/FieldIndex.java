@@ -0,0 +1,72 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+/**
+ * An open addressed hash index from field names to their positions in a names array.
+ * The index does not hold the names itself, it is always probed against the array it was
+ * built for, so it stays valid as long as that array is only appended to.
+ */
+final class FieldIndex {
+    private int [] table; //slot+1, 0 means empty
+    private int mask;
+    private int size;
+
+    FieldIndex(String [] names, int count) {
+        int cap = 4;
+        while (cap < count * 2) {
+            cap <<= 1;
+        }
+        table = new int[cap];
+        mask = cap - 1;
+        for (int i = 0; i < count; i++) {
+            insert(names[i], i);
+        }
+    }
+
+    static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private void insert(String name, int slot) {
+        int h = hash(name) & mask;
+        while (table[h] != 0) {
+            h = (h + 1) & mask;
+        }
+        table[h] = slot + 1;
+        size++;
+    }
+
+    /**
+     * Add a name that was just appended to the names array at the given slot.
+     */
+    void add(String [] names, int slot) {
+        if ((size + 1) * 2 > table.length) {
+            int [] old = table;
+            table = new int[old.length * 2];
+            mask = table.length - 1;
+            size = 0;
+            for (int i = 0; i < slot; i++) {
+                insert(names[i], i);
+            }
+        }
+        insert(names[slot], slot);
+    }
+
+    int find(String [] names, String name) {
+        int h = hash(name) & mask;
+        int i;
+        while ((i = table[h]) != 0) {
+            String n = names[i - 1];
+            if (n == name || n.equals(name)) {
+                return i - 1;
+            }
+            h = (h + 1) & mask;
+        }
+        return -1;
+    }
+}
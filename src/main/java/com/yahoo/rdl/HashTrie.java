@@ -0,0 +1,218 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+import java.util.Arrays;
+
+/**
+ * An immutable hash array mapped trie from field names to slot numbers. Each level consumes
+ * 5 bits of the name's hash, and nodes store only the branches present, indexed by a bitmap.
+ * Updates copy only the path to the affected node, O(log32 n).
+ */
+final class HashTrie {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    static final HashTrie EMPTY = new HashTrie(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private HashTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot for the name, or -1 if it is not present
+     */
+    int get(String name) {
+        return (root == null) ? -1 : root.find(0, name.hashCode(), name);
+    }
+
+    HashTrie put(String name, int slot) {
+        int hash = name.hashCode();
+        int added = (get(name) < 0) ? 1 : 0;
+        Node r = (root == null) ? BitmapNode.EMPTY : root;
+        return new HashTrie(r.put(0, hash, name, slot), size + added);
+    }
+
+    HashTrie remove(String name) {
+        if (get(name) < 0) {
+            return this;
+        }
+        return new HashTrie(root.remove(0, name.hashCode(), name), size - 1);
+    }
+
+    abstract static class Node {
+        abstract int find(int shift, int hash, String name);
+        abstract Node put(int shift, int hash, String name, int slot);
+        abstract Node remove(int shift, int hash, String name); //null if the node becomes empty
+    }
+
+    //entries are pairs in the array: a name and its Integer slot, or null and a child Node
+    static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1)) * 2;
+        }
+
+        int find(int shift, int hash, String name) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return -1;
+            }
+            int idx = index(bit);
+            Object key = array[idx];
+            if (key == null) {
+                return ((Node) array[idx + 1]).find(shift + BITS, hash, name);
+            }
+            return name.equals(key) ? (Integer) array[idx + 1] : -1;
+        }
+
+        Node put(int shift, int hash, String name, int slot) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int idx = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, idx);
+                newArray[idx] = name;
+                newArray[idx + 1] = slot;
+                System.arraycopy(array, idx, newArray, idx + 2, array.length - idx);
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            Object key = array[idx];
+            Object[] newArray = array.clone();
+            if (key == null) {
+                newArray[idx + 1] = ((Node) array[idx + 1]).put(shift + BITS, hash, name, slot);
+            } else if (name.equals(key)) {
+                newArray[idx + 1] = slot;
+            } else {
+                newArray[idx] = null;
+                newArray[idx + 1] = split(shift + BITS, (String) key, (Integer) array[idx + 1], hash, name, slot);
+            }
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        Node remove(int shift, int hash, String name) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int idx = index(bit);
+            Object key = array[idx];
+            if (key == null) {
+                Node child = (Node) array[idx + 1];
+                Node newChild = child.remove(shift + BITS, hash, name);
+                if (newChild == child) {
+                    return this;
+                }
+                if (newChild != null) {
+                    Object[] newArray = array.clone();
+                    newArray[idx + 1] = newChild;
+                    return new BitmapNode(bitmap, newArray);
+                }
+            } else if (!name.equals(key)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            System.arraycopy(array, idx + 2, newArray, idx, array.length - idx - 2);
+            return new BitmapNode(bitmap & ~bit, newArray);
+        }
+
+        private static Node split(int shift, String name1, int slot1, int hash2, String name2, int slot2) {
+            int hash1 = name1.hashCode();
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new String[] {name1, name2}, new int[] {slot1, slot2});
+            }
+            return EMPTY.put(shift, hash1, name1, slot1).put(shift, hash2, name2, slot2);
+        }
+    }
+
+    //names whose hashes are identical
+    static final class CollisionNode extends Node {
+        private final int hash;
+        private final String[] names;
+        private final int[] slots;
+
+        CollisionNode(int hash, String[] names, int[] slots) {
+            this.hash = hash;
+            this.names = names;
+            this.slots = slots;
+        }
+
+        private int indexOf(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (name.equals(names[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int find(int shift, int hash, String name) {
+            if (hash != this.hash) {
+                return -1;
+            }
+            int i = indexOf(name);
+            return (i < 0) ? -1 : slots[i];
+        }
+
+        Node put(int shift, int hash, String name, int slot) {
+            if (hash != this.hash) {
+                Node branch = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[] {null, this});
+                return branch.put(shift, hash, name, slot);
+            }
+            int i = indexOf(name);
+            if (i >= 0) {
+                int[] newSlots = slots.clone();
+                newSlots[i] = slot;
+                return new CollisionNode(hash, names, newSlots);
+            }
+            int n = names.length;
+            String[] newNames = Arrays.copyOf(names, n + 1);
+            int[] newSlots = Arrays.copyOf(slots, n + 1);
+            newNames[n] = name;
+            newSlots[n] = slot;
+            return new CollisionNode(hash, newNames, newSlots);
+        }
+
+        Node remove(int shift, int hash, String name) {
+            int i = (hash == this.hash) ? indexOf(name) : -1;
+            if (i < 0) {
+                return this;
+            }
+            int n = names.length - 1;
+            if (n == 0) {
+                return null;
+            }
+            String[] newNames = new String[n];
+            int[] newSlots = new int[n];
+            System.arraycopy(names, 0, newNames, 0, i);
+            System.arraycopy(names, i + 1, newNames, i, n - i);
+            System.arraycopy(slots, 0, newSlots, 0, i);
+            System.arraycopy(slots, i + 1, newSlots, i, n - i);
+            return new CollisionNode(hash, newNames, newSlots);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+import java.util.List;
+
+/**
+ * An immutable Array backed by a persistent vector. The List mutators throw
+ * UnsupportedOperationException; instead, with() returns a new Array in O(log n) that shares
+ * almost all of its storage with this one. Slices share the storage of the original, and
+ * copy() returns the array itself. Create one with Array.freeze().
+ */
+public final class ImmutableArray extends Array {
+
+    static final ImmutableArray EMPTY = new ImmutableArray(PersistentVector.EMPTY, 0, 0);
+
+    private final PersistentVector items;
+    private final int offset; //slices are windows onto a shared vector
+    private final int count;
+    private int hash; //computed on first use, like String's
+
+    ImmutableArray(PersistentVector items, int offset, int count) {
+        super(null, 0);
+        this.items = items;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    /**
+     * @param items the items, which are not themselves frozen
+     * @return an ImmutableArray of the given items
+     */
+    public static ImmutableArray of(Object... items) {
+        return new ImmutableArray(PersistentVector.of(items, items.length), 0, items.length);
+    }
+
+    static ImmutableArray copyOf(Array a) {
+        int n = a.size();
+        Object[] items = new Object[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = Value.freeze(a.get(i));
+        }
+        return new ImmutableArray(PersistentVector.of(items, n), 0, n);
+    }
+
+    private static UnsupportedOperationException immutable() {
+        return new UnsupportedOperationException("ImmutableArray cannot be modified, use with() to derive a new one");
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Object get(int idx) {
+        if (idx < 0 || idx >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+        return items.get(offset + idx);
+    }
+
+    /**
+     * @param o the item to append. A Struct or Array is frozen, as by freeze().
+     * @return a new array with the item appended
+     */
+    @Override
+    public ImmutableArray with(Object o) {
+        o = Value.freeze(o);
+        int end = offset + count;
+        if (end == items.count) {
+            return new ImmutableArray(items.append(o), offset, count + 1);
+        }
+        //a slice: the slot after it is not visible through this array, so it can be reused
+        return new ImmutableArray(items.set(end, o), offset, count + 1);
+    }
+
+    /**
+     * @param idx the index of the item to replace
+     * @param o the new item. A Struct or Array is frozen, as by freeze().
+     * @return a new array with the item at idx replaced
+     */
+    public ImmutableArray with(int idx, Object o) {
+        if (idx < 0 || idx >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new ImmutableArray(items.set(offset + idx, Value.freeze(o)), offset, count);
+    }
+
+    /**
+     * Removing the first or last item is O(1); removing from the middle rebuilds the array.
+     * @param o the item to remove
+     * @return a new array without the first occurrence of the item
+     */
+    @Override
+    public ImmutableArray without(Object o) {
+        int idx = indexOf(o);
+        if (idx < 0) {
+            return this;
+        }
+        if (idx == 0) {
+            return new ImmutableArray(items, offset + 1, count - 1);
+        }
+        if (idx == count - 1) {
+            return new ImmutableArray(items, offset, count - 1);
+        }
+        Object[] remaining = new Object[count - 1];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (i != idx) {
+                remaining[j++] = get(i);
+            }
+        }
+        return new ImmutableArray(PersistentVector.of(remaining, count - 1), 0, count - 1);
+    }
+
+    @Override
+    public ImmutableArray slice(int start, int end) {
+        if (start < 0) {
+            start = 0;
+        }
+        if (end > count || end < 0) {
+            end = count;
+        }
+        if (end < start) {
+            end = start;
+        }
+        return new ImmutableArray(items, offset + start, end - start);
+    }
+
+    @Override
+    public List<Object> subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > count || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException();
+        }
+        return slice(fromIndex, toIndex);
+    }
+
+    /**
+     * An ImmutableArray cannot be changed in place, so this returns an equal array that no longer
+     * shares storage with the array it was sliced from, or this array if it is not a slice.
+     */
+    @Override
+    public ImmutableArray compact() {
+        if (offset == 0 && count == items.count) {
+            return this;
+        }
+        return new ImmutableArray(PersistentVector.of(toArray(), count), 0, count);
+    }
+
+    @Override
+    public ImmutableArray copy() {
+        return this;
+    }
+
+    @Override
+    public ImmutableArray freeze() {
+        return this;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Value.hashCode(this);
+            hash = h;
+        }
+        return h;
+    }
+
+    public java.util.Spliterator<Object> spliterator() {
+        return new IndexSpliterator(this, 0, count, java.util.Spliterator.IMMUTABLE);
+    }
+
+    public java.util.Iterator<Object> iterator() {
+        return listIterator();
+    }
+
+    public boolean add(Object o) {
+        throw immutable();
+    }
+
+    public void add(int index, Object o) {
+        throw immutable();
+    }
+
+    public boolean addAll(java.util.Collection<? extends Object> c) {
+        throw immutable();
+    }
+
+    public boolean addAll(int index, java.util.Collection<? extends Object> c) {
+        throw immutable();
+    }
+
+    public Object set(int index, Object o) {
+        throw immutable();
+    }
+
+    public Object remove(int index) {
+        throw immutable();
+    }
+
+    public boolean remove(Object o) {
+        throw immutable();
+    }
+
+    public boolean removeAll(java.util.Collection<?> c) {
+        throw immutable();
+    }
+
+    public boolean retainAll(java.util.Collection<?> c) {
+        throw immutable();
+    }
+
+    public void clear() {
+        throw immutable();
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable Struct backed by persistent data structures: the fields are kept in insertion
+ * order in a pair of persistent vectors, and a hash trie maps names to their positions. The Map
+ * mutators throw UnsupportedOperationException; instead, with() and without() return a new
+ * Struct in O(log n) that shares almost all of its storage with this one. Removed fields leave
+ * a gap in the vectors, which are compacted once the gaps outnumber the fields.
+ * Create one with Struct.freeze().
+ */
+public final class ImmutableStruct extends Struct {
+
+    static final ImmutableStruct EMPTY = new ImmutableStruct(PersistentVector.EMPTY, PersistentVector.EMPTY, HashTrie.EMPTY);
+
+    private final PersistentVector names; //null where a field has been removed
+    private final PersistentVector values;
+    private final HashTrie slots;
+    private int hash; //computed on first use, like String's
+
+    private ImmutableStruct(PersistentVector names, PersistentVector values, HashTrie slots) {
+        super(null, null, 0);
+        this.names = names;
+        this.values = values;
+        this.slots = slots;
+    }
+
+    static ImmutableStruct copyOf(Struct s) {
+        int n = s.size();
+        Object[] names = new Object[n];
+        Object[] values = new Object[n];
+        HashTrie slots = HashTrie.EMPTY;
+        int i = 0;
+        for (Struct.Field f : s) {
+            names[i] = f.name();
+            values[i] = Value.freeze(f.value());
+            slots = slots.put(f.name(), i);
+            i++;
+        }
+        return new ImmutableStruct(PersistentVector.of(names, n), PersistentVector.of(values, n), slots);
+    }
+
+    private static UnsupportedOperationException immutable() {
+        return new UnsupportedOperationException("ImmutableStruct cannot be modified, use with() to derive a new one");
+    }
+
+    @Override
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    public Object get(String name) {
+        int slot = slots.get(name);
+        return (slot < 0) ? null : values.get(slot);
+    }
+
+    @Override
+    public boolean has(String name) {
+        return slots.get(name) >= 0;
+    }
+
+    /**
+     * @param key the field name
+     * @param val the field value. A Struct or Array is frozen, as by freeze().
+     * @return a new struct with the field set. A new field is added at the end.
+     */
+    @Override
+    public ImmutableStruct with(String key, Object val) {
+        val = Value.freeze(val);
+        int slot = slots.get(key);
+        if (slot >= 0) {
+            return new ImmutableStruct(names, values.set(slot, val), slots);
+        }
+        return new ImmutableStruct(names.append(key), values.append(val), slots.put(key, names.count));
+    }
+
+    @Override
+    public ImmutableStruct withNonNull(String key, Object val) {
+        return (val == null) ? this : with(key, val);
+    }
+
+    @Override
+    public ImmutableStruct with(Struct another) {
+        ImmutableStruct result = this;
+        for (Struct.Field f : another) {
+            result = result.with(f.name(), f.value());
+        }
+        return result;
+    }
+
+    /**
+     * @param key the field name
+     * @return a new struct without the named field
+     */
+    @Override
+    public ImmutableStruct without(String key) {
+        int slot = slots.get(key);
+        if (slot < 0) {
+            return this;
+        }
+        ImmutableStruct result = new ImmutableStruct(names.set(slot, null), values.set(slot, null), slots.remove(key));
+        int gaps = result.names.count - result.size();
+        return (gaps > result.size()) ? result.compact() : result;
+    }
+
+    private ImmutableStruct compact() {
+        ImmutableStruct result = EMPTY;
+        for (Struct.Field f : this) {
+            result = result.with(f.name(), f.value());
+        }
+        return result;
+    }
+
+    @Override
+    public ImmutableStruct freeze() {
+        return this;
+    }
+
+    @Override
+    public Shape shape() {
+        return null;
+    }
+
+    //the vector position of the field at the given position in field order
+    private int position(int slot) {
+        if (slot < 0 || slot >= size()) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (names.count == size()) {
+            return slot;
+        }
+        for (int i = 0; i < names.count; i++) {
+            if (names.get(i) != null && slot-- == 0) {
+                return i;
+            }
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public Object valueAt(int slot) {
+        return values.get(position(slot));
+    }
+
+    @Override
+    public String nameAt(int slot) {
+        return (String) names.get(position(slot));
+    }
+
+    @Override
+    public Iterable<String> names() {
+        return new Iterable<String>() {
+            public Iterator<String> iterator() {
+                final Iterator<Struct.Field> it = ImmutableStruct.this.iterator();
+                return new Iterator<String>() {
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+                    public String next() {
+                        return it.next().name();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Struct.Field> iterator() {
+        return new Iterator<Struct.Field>() {
+            int pos = skipGaps(0);
+
+            private int skipGaps(int i) {
+                while (i < names.count && names.get(i) == null) {
+                    i++;
+                }
+                return i;
+            }
+
+            public boolean hasNext() {
+                return pos < names.count;
+            }
+
+            public Struct.Field next() {
+                if (pos >= names.count) {
+                    throw new NoSuchElementException();
+                }
+                Struct.Field f = new Field((String) names.get(pos), values.get(pos));
+                pos = skipGaps(pos + 1);
+                return f;
+            }
+        };
+    }
+
+    @Override
+    public java.util.Spliterator<Struct.Field> spliterator() {
+        int characteristics = java.util.Spliterator.ORDERED | java.util.Spliterator.NONNULL | java.util.Spliterator.IMMUTABLE;
+        return java.util.Spliterators.spliterator(iterator(), size(), characteristics);
+    }
+
+    @Override
+    public boolean equals(Object another) {
+        if (another == this) {
+            return true;
+        }
+        if (another instanceof Struct) {
+            Struct other = (Struct) another;
+            if (size() == other.size()) {
+                for (Struct.Field f : this) {
+                    Object v = f.value();
+                    Object o = other.get(f.name());
+                    if (o != v && (o == null || !Value.equals(v, o))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Value.hashCode(this);
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public void setValueAt(int slot, Object val) {
+        throw immutable();
+    }
+
+    @Override
+    public void append(String name, Object val) {
+        throw immutable();
+    }
+
+    @Override
+    public Object put(String name, Object val) {
+        throw immutable();
+    }
+
+    @Override
+    public Object remove(String name) {
+        throw immutable();
+    }
+
+    @Override
+    public void putAll(java.util.Map<? extends String, ? extends Object> m) {
+        throw immutable();
+    }
+
+    @Override
+    public void clear() {
+        throw immutable();
+    }
+}
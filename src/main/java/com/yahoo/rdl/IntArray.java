@@ -0,0 +1,135 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+import java.util.Arrays;
+
+/**
+ * An Array of Int32 values stored in an int[], avoiding a boxed Integer per item. Bytes and
+ * Shorts are also accepted, and widened. Use getInt and addInt to avoid boxing altogether.
+ */
+public class IntArray extends PrimitiveArray {
+
+    private int[] values;
+
+    public IntArray(int cap) {
+        values = new int[(cap < MIN_CAP) ? MIN_CAP : cap];
+    }
+
+    public IntArray() {
+        this(MIN_CAP);
+    }
+
+    //a slice, sharing the parent's backing array
+    private IntArray(IntArray parent) {
+        values = parent.values;
+    }
+
+    public IntArray(int[] items) {
+        this(items.length);
+        System.arraycopy(items, 0, values, 0, items.length);
+        count = items.length;
+    }
+
+    public static IntArray of(int... items) {
+        return new IntArray(items);
+    }
+
+    public void addInt(int n) {
+        if (boxed != null) {
+            boxed.add(n);
+            return;
+        }
+        if (shared || count == values.length) {
+            beforeWrite(1);
+        }
+        values[count++] = n;
+    }
+
+    public void setInt(int idx, int n) {
+        if (boxed != null) {
+            boxed.set(idx, n);
+            return;
+        }
+        checkIndex(idx);
+        beforeWrite(0);
+        values[idx] = n;
+    }
+
+    @Override
+    public int getInt(int idx) {
+        if (boxed != null) {
+            return boxed.getInt(idx);
+        }
+        checkIndex(idx);
+        return values[offset + idx];
+    }
+
+    @Override
+    public long getLong(int idx) {
+        return getInt(idx);
+    }
+
+    @Override
+    public double getDouble(int idx) {
+        return getInt(idx);
+    }
+
+    @Override
+    public float getFloat(int idx) {
+        return getInt(idx);
+    }
+
+    /**
+     * @return a copy of the items as an int[]
+     */
+    public int[] toIntArray() {
+        if (boxed != null) {
+            return intStream().toArray();
+        }
+        return Arrays.copyOfRange(values, offset, offset + count);
+    }
+
+    /**
+     * @return a stream of the items, without boxing. Like the generic stream, it sees the items
+     * as of its creation.
+     */
+    public java.util.stream.IntStream intStream() {
+        if (boxed != null) {
+            return boxed.stream().mapToInt(Value::asInt);
+        }
+        shared = true;
+        return Arrays.stream(values, offset, offset + count);
+    }
+
+    int capacity() {
+        return values.length;
+    }
+
+    void reallocate(int from, int newCap) {
+        values = Arrays.copyOfRange(values, from, from + newCap);
+    }
+
+    Object storage() {
+        return values;
+    }
+
+    PrimitiveArray share() {
+        return new IntArray(this);
+    }
+
+    boolean accepts(Object o) {
+        return o instanceof Integer || o instanceof Short || o instanceof Byte;
+    }
+
+    Object box(int idx) {
+        return values[offset + idx];
+    }
+
+    void store(int idx, Object o) {
+        values[idx] = ((java.lang.Number) o).intValue();
+    }
+}
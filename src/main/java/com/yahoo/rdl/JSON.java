@@ -4,28 +4,84 @@
  */
 
 package com.yahoo.rdl;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 
 /**
- * Simple wrappers for JSON handling
+ * Simple wrappers for JSON handling.
+ * <p>
+ * The readers and writers for each class are built once and cached, so repeated calls do not
+ * pay for looking up serializers. The byte array and String methods return null on failure,
+ * printing the exception; the stream methods throw it instead. Data read as Object.class has
+ * its JSON objects and arrays decoded as Struct and Array.
  */
 public class JSON {
 
     static final ObjectMapper mapper = init();
 
+    //reads untyped data as Struct and Array, so that records share their field layouts
+    static final ObjectMapper untypedMapper = mapper.copy().registerModule(new SimpleModule("RdlUntyped").addDeserializer(Object.class, new Struct.UntypedJsonDeserializer()));
+
     static ObjectMapper init() {
         ObjectMapper om = new ObjectMapper();
         om.disable(SerializationFeature.WRITE_NULL_MAP_VALUES);
         om.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        om.registerModule(new RdlModule());
         return om;
     }
 
+    //the prebuilt readers and writers for one class
+    static final class Codec {
+        final ObjectReader reader;
+        final ObjectWriter writer;
+        final ObjectReader streamReader; //leaves the stream open
+        final ObjectWriter streamWriter;
+        final ObjectWriter lineWriter; //for a shared generator, which is flushed by its owner
+        private ObjectWriter indentedWriter;
+
+        Codec(Class<?> type) {
+            reader = ((type == Object.class) ? untypedMapper : mapper).readerFor(type);
+            writer = mapper.writerWithView(type);
+            streamReader = reader.without(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            streamWriter = writer.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            lineWriter = writer.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        }
+
+        ObjectWriter indentedWriter() {
+            if (indentedWriter == null) {
+                indentedWriter = writer.with(SerializationFeature.INDENT_OUTPUT);
+            }
+            return indentedWriter;
+        }
+    }
+
+    private static final ClassValue<Codec> codecs = new ClassValue<Codec>() {
+        @Override
+        protected Codec computeValue(Class<?> type) {
+            return new Codec(type);
+        }
+    };
+
+    static Codec codec(Class<?> type) {
+        return codecs.get(type);
+    }
+
+    private static Codec codecFor(Object o) {
+        return codecs.get((o == null) ? Object.class : o.getClass());
+    }
+
     public static byte [] bytes(Object o) {
         try {
-            Class<?> cls = (o == null)? Object.class : o.getClass();
-            return mapper.writerWithView(cls).writeValueAsBytes(o);
+            return codecFor(o).writer.writeValueAsBytes(o);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -34,8 +90,7 @@ public class JSON {
 
     public static String string(Object o) {
         try {
-            Class<?> cls = (o == null)? Object.class : o.getClass();
-            return mapper.writerWithView(cls).writeValueAsString(o);
+            return codecFor(o).writer.writeValueAsString(o);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -44,7 +99,7 @@ public class JSON {
 
     public static String indented(Object o) {
         try {
-            return mapper.writerWithView(o.getClass()).with(SerializationFeature.INDENT_OUTPUT).writeValueAsString(o);
+            return codec(o.getClass()).indentedWriter().writeValueAsString(o);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -53,7 +108,7 @@ public class JSON {
 
     public static <T> T fromBytes(byte [] jsonData, Class<T> dataType) {
         try {
-            return mapper.reader(dataType).readValue(jsonData);
+            return codec(dataType).reader.readValue(jsonData);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -62,11 +117,71 @@ public class JSON {
 
     public static <T> T fromString(String jsonData, Class<T> dataType) {
         try {
-            return mapper.reader(dataType).readValue(jsonData);
+            return codec(dataType).reader.readValue(jsonData);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Write the object as JSON directly to the stream, without an intermediate byte array.
+     * The stream is flushed, but not closed.
+     * @param o the object to write
+     * @param out the stream to write to
+     * @throws IOException if the object cannot be serialized, or on any underlying I/O error
+     */
+    public static void write(Object o, OutputStream out) throws IOException {
+        codecFor(o).streamWriter.writeValue(out, o);
+    }
+
+    /**
+     * Read one JSON value from the stream. The stream is not closed.
+     * @param <T> the type of data expected
+     * @param in the stream to read from
+     * @param dataType the class to decode as
+     * @return the decoded object
+     * @throws IOException if the data cannot be decoded, or on any underlying I/O error
+     */
+    public static <T> T read(InputStream in, Class<T> dataType) throws IOException {
+        return codec(dataType).streamReader.readValue(in);
+    }
+
+    /**
+     * Decode the JSON bytes into an existing object. The properties present in the data are
+     * overwritten, others are left as they were. A Map, Struct, or List target is cleared first,
+     * so that it holds exactly the decoded data.
+     * @param <T> the type of the target
+     * @param jsonData the JSON data
+     * @param target the object to decode into
+     * @return the target, or null if the data could not be decoded into it
+     */
+    public static <T> T fromBytesInto(byte [] jsonData, T target) {
+        try {
+            return codecFor(target).reader.withValueToUpdate(clearContainer(target)).readValue(jsonData);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    public static <T> T fromStringInto(String jsonData, T target) {
+        try {
+            return codecFor(target).reader.withValueToUpdate(clearContainer(target)).readValue(jsonData);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    //updating a container would merge with its contents, rather than replace them
+    private static <T> T clearContainer(T target) {
+        if (target instanceof java.util.Map) {
+            ((java.util.Map<?, ?>) target).clear();
+        } else if (target instanceof java.util.Collection) {
+            ((java.util.Collection<?>) target).clear();
+        }
+        return target;
+    }
+
 }
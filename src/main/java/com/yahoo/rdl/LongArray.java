@@ -0,0 +1,135 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+import java.util.Arrays;
+
+/**
+ * An Array of Int64 values stored in a long[], avoiding a boxed Long per item. Integers, Shorts,
+ * and Bytes are also accepted, and widened. Use getLong and addLong to avoid boxing altogether.
+ */
+public class LongArray extends PrimitiveArray {
+
+    private long[] values;
+
+    public LongArray(int cap) {
+        values = new long[(cap < MIN_CAP) ? MIN_CAP : cap];
+    }
+
+    public LongArray() {
+        this(MIN_CAP);
+    }
+
+    //a slice, sharing the parent's backing array
+    private LongArray(LongArray parent) {
+        values = parent.values;
+    }
+
+    public LongArray(long[] items) {
+        this(items.length);
+        System.arraycopy(items, 0, values, 0, items.length);
+        count = items.length;
+    }
+
+    public static LongArray of(long... items) {
+        return new LongArray(items);
+    }
+
+    public void addLong(long n) {
+        if (boxed != null) {
+            boxed.add(n);
+            return;
+        }
+        if (shared || count == values.length) {
+            beforeWrite(1);
+        }
+        values[count++] = n;
+    }
+
+    public void setLong(int idx, long n) {
+        if (boxed != null) {
+            boxed.set(idx, n);
+            return;
+        }
+        checkIndex(idx);
+        beforeWrite(0);
+        values[idx] = n;
+    }
+
+    @Override
+    public long getLong(int idx) {
+        if (boxed != null) {
+            return boxed.getLong(idx);
+        }
+        checkIndex(idx);
+        return values[offset + idx];
+    }
+
+    @Override
+    public int getInt(int idx) {
+        return (int) getLong(idx);
+    }
+
+    @Override
+    public double getDouble(int idx) {
+        return getLong(idx);
+    }
+
+    @Override
+    public float getFloat(int idx) {
+        return getLong(idx);
+    }
+
+    /**
+     * @return a copy of the items as a long[]
+     */
+    public long[] toLongArray() {
+        if (boxed != null) {
+            return longStream().toArray();
+        }
+        return Arrays.copyOfRange(values, offset, offset + count);
+    }
+
+    /**
+     * @return a stream of the items, without boxing. Like the generic stream, it sees the items
+     * as of its creation.
+     */
+    public java.util.stream.LongStream longStream() {
+        if (boxed != null) {
+            return boxed.stream().mapToLong(Value::asLong);
+        }
+        shared = true;
+        return Arrays.stream(values, offset, offset + count);
+    }
+
+    int capacity() {
+        return values.length;
+    }
+
+    void reallocate(int from, int newCap) {
+        values = Arrays.copyOfRange(values, from, from + newCap);
+    }
+
+    Object storage() {
+        return values;
+    }
+
+    PrimitiveArray share() {
+        return new LongArray(this);
+    }
+
+    boolean accepts(Object o) {
+        return o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte;
+    }
+
+    Object box(int idx) {
+        return values[offset + idx];
+    }
+
+    void store(int idx, Object o) {
+        values[idx] = ((java.lang.Number) o).longValue();
+    }
+}
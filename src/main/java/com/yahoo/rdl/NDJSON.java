@@ -0,0 +1,263 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Bulk reading and writing of newline delimited JSON (NDJSON, or JSON lines): one JSON value
+ * per line.
+ * <p>
+ * The input is split on newlines into batches of lines, which are parsed in parallel on an
+ * executor. The decoded values are passed to the consumer on the calling thread, so it need not
+ * be thread safe, either in input order or, if order is not needed, as batches complete. Blank
+ * lines are skipped. The number of batches in flight is bounded, so memory use does not grow
+ * with the size of the input.
+ */
+public class NDJSON {
+
+    public static final int DEFAULT_BATCH_SIZE = 512;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Read every line of the stream, in order, parsing on the common ForkJoinPool.
+     * @param <T> the type of data expected
+     * @param in the stream to read from. It is not closed.
+     * @param dataType the class to decode each line as
+     * @param action called with each decoded value
+     * @throws IOException if a line cannot be decoded, or on any underlying I/O error
+     */
+    public static <T> void read(InputStream in, Class<T> dataType, Consumer<? super T> action) throws IOException {
+        read(in, dataType, action, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE, true);
+    }
+
+    /**
+     * Read every line of the stream, parsing batches of lines on the executor.
+     * @param <T> the type of data expected
+     * @param in the stream to read from. It is not closed.
+     * @param dataType the class to decode each line as
+     * @param action called on the calling thread with each decoded value
+     * @param executor the executor to parse on
+     * @param batchSize the number of lines in each batch
+     * @param ordered if true, values are passed to the action in input order, otherwise in the
+     * order their batches complete
+     * @throws IOException if a line cannot be decoded, or on any underlying I/O error. The message
+     * includes the line number.
+     */
+    public static <T> void read(InputStream in, Class<T> dataType, Consumer<? super T> action, Executor executor, int batchSize, boolean ordered) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        ObjectReader reader = JSON.codec(dataType).reader;
+        int window = Runtime.getRuntime().availableProcessors() * 2;
+        ArrayDeque<CompletableFuture<List<T>>> pending = new ArrayDeque<CompletableFuture<List<T>>>();
+        BlockingQueue<CompletableFuture<List<T>>> done = ordered ? null : new LinkedBlockingQueue<CompletableFuture<List<T>>>();
+        byte [] chunk = new byte[CHUNK_SIZE];
+        byte [] batch = new byte[CHUNK_SIZE];
+        int batchLen = 0;
+        int batchLines = 0;
+        long firstLine = 1;
+        int n;
+        while ((n = in.read(chunk)) >= 0) {
+            int from = 0;
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] == '\n' && ++batchLines == batchSize) {
+                    batch = append(batch, batchLen, chunk, from, i + 1 - from);
+                    batchLen += i + 1 - from;
+                    from = i + 1;
+                    submit(pending, done, new BatchParser<T>(reader, batch, batchLen, firstLine), executor);
+                    drain(pending, done, window, action);
+                    batch = new byte[batch.length];
+                    batchLen = 0;
+                    firstLine += batchLines;
+                    batchLines = 0;
+                }
+            }
+            batch = append(batch, batchLen, chunk, from, n - from);
+            batchLen += n - from;
+        }
+        if (batchLen > 0) {
+            submit(pending, done, new BatchParser<T>(reader, batch, batchLen, firstLine), executor);
+        }
+        drain(pending, done, 0, action);
+    }
+
+    /**
+     * Read every line of the file, in order.
+     * @param <T> the type of data expected
+     * @param file the file to read
+     * @param dataType the class to decode each line as
+     * @return the decoded values
+     * @throws IOException if a line cannot be decoded, or on any underlying I/O error
+     */
+    public static <T> List<T> readAll(Path file, Class<T> dataType) throws IOException {
+        List<T> result = new ArrayList<T>();
+        try (InputStream in = Files.newInputStream(file)) {
+            read(in, dataType, result::add);
+        }
+        return result;
+    }
+
+    private static byte [] append(byte [] buf, int len, byte [] src, int off, int n) {
+        if (len + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+        System.arraycopy(src, off, buf, len, n);
+        return buf;
+    }
+
+    //parses one batch of lines
+    private static final class BatchParser<T> implements Supplier<List<T>> {
+        final ObjectReader reader;
+        final byte [] data;
+        final int len;
+        final long firstLine;
+
+        BatchParser(ObjectReader reader, byte [] data, int len, long firstLine) {
+            this.reader = reader;
+            this.data = data;
+            this.len = len;
+            this.firstLine = firstLine;
+        }
+
+        @Override
+        public List<T> get() {
+            List<T> values = new ArrayList<T>();
+            long line = firstLine;
+            int start = 0;
+            while (start < len) {
+                int end = start;
+                while (end < len && data[end] != '\n') {
+                    end++;
+                }
+                if (!blank(data, start, end)) {
+                    try {
+                        values.add(reader.<T>readValue(data, start, end - start));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(new IOException("NDJSON line " + line + ": " + e.getMessage(), e));
+                    }
+                }
+                line++;
+                start = end + 1;
+            }
+            return values;
+        }
+
+        private static boolean blank(byte [] data, int start, int end) {
+            for (int i = start; i < end; i++) {
+                byte b = data[i];
+                if (b != ' ' && b != '\t' && b != '\r') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static <T> void submit(ArrayDeque<CompletableFuture<List<T>>> pending, BlockingQueue<CompletableFuture<List<T>>> done, BatchParser<T> task, Executor executor) {
+        CompletableFuture<List<T>> f = CompletableFuture.supplyAsync(task, executor);
+        if (done != null) {
+            f.whenComplete((v, e) -> done.add(f));
+        }
+        pending.add(f);
+    }
+
+    //deliver completed batches until no more than max are in flight
+    private static <T> void drain(ArrayDeque<CompletableFuture<List<T>>> pending, BlockingQueue<CompletableFuture<List<T>>> done, int max, Consumer<? super T> action) throws IOException {
+        while (pending.size() > max) {
+            CompletableFuture<List<T>> f;
+            try {
+                if (done == null) {
+                    f = pending.remove();
+                } else {
+                    f = done.take();
+                    pending.remove(f);
+                }
+                for (T v : f.get()) {
+                    action.accept(v);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new java.io.InterruptedIOException("Interrupted while reading NDJSON");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException)cause).getCause();
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Write each item as a line of JSON.
+     * @param items the values to write
+     * @param out the stream to write to. It is flushed, but not closed.
+     * @throws IOException if a value cannot be serialized, or on any underlying I/O error
+     */
+    public static void write(Iterable<?> items, OutputStream out) throws IOException {
+        try (Writer w = new Writer(out)) {
+            for (Object o : items) {
+                w.write(o);
+            }
+        }
+    }
+
+    /**
+     * Writes values as lines of JSON, reusing one generator, and so its buffers, for all of
+     * them. Not thread safe.
+     */
+    public static class Writer implements Closeable {
+        private final JsonGenerator gen;
+
+        /**
+         * @param out the stream to write to. It is flushed by close, but not closed.
+         * @throws IOException on any underlying I/O error
+         */
+        public Writer(OutputStream out) throws IOException {
+            gen = JSON.mapper.getFactory().createGenerator(out);
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gen.setRootValueSeparator(null);
+        }
+
+        public Writer write(Object o) throws IOException {
+            JSON.codec((o == null) ? Object.class : o.getClass()).lineWriter.writeValue(gen, o);
+            gen.writeRaw('\n');
+            return this;
+        }
+
+        public void flush() throws IOException {
+            gen.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            gen.close();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Converts the raw string values of a resource's path, query, and header parameters to typed
+ * values, and validates them.
+ * <p>
+ * The types of the inputs are resolved, their constraints compiled, and their defaults
+ * converted once, when the binder is created. Binding a request then converts each value by
+ * its base type: Bool, the integer and float types, String, Symbol, Timestamp, UUID, and Bytes
+ * (as base64). Values of other types, enums included, are left as strings. A value is checked
+ * against the constraints of its type (such as string patterns, number ranges, and the
+ * elements of an enum) only if it has any. An absent value gets the input's default, if it
+ * has one. The body and context inputs of the resource are not bound, and are left null.
+ * <p>
+ * A binder is immutable, and may be shared between threads. Binding valid values allocates
+ * only the values themselves.
+ */
+public final class ParameterBinder {
+
+    private static final int BODY = 0; //not bound
+    private static final int PATH = 1;
+    private static final int QUERY = 2;
+    private static final int HEADER = 3;
+
+    private final Resource resource;
+    private final Validator validator;
+    private final int [] sources;
+    private final BaseType [] types; //the base type to convert to, null to leave the value a string
+    private final Validator.Node [] checks; //the constraints of the type, or null if it has none
+    private final Object [] defaults;
+    private final boolean [] required;
+    private final String [] contexts; //the context of validation errors, the name of the input
+
+    /**
+     * @param resource the resource whose inputs are to be bound
+     * @param registry the resolved types of its schema
+     * @throws IllegalArgumentException if the type of an input is not defined, or its default
+     * is not a valid value of its type
+     */
+    public ParameterBinder(Resource resource, TypeRegistry registry) {
+        this(resource, new Validator(registry));
+    }
+
+    /**
+     * @param resource the resource whose inputs are to be bound
+     * @param validator the validator for its schema, whose compiled types are shared
+     * @throws IllegalArgumentException if the type of an input is not defined, or its default
+     * is not a valid value of its type
+     */
+    public ParameterBinder(Resource resource, Validator validator) {
+        this.resource = resource;
+        this.validator = validator;
+        List<ResourceInput> inputs = resource.inputs;
+        int n = (inputs == null) ? 0 : inputs.size();
+        sources = new int[n];
+        types = new BaseType[n];
+        checks = new Validator.Node[n];
+        defaults = new Object[n];
+        required = new boolean[n];
+        contexts = new String[n];
+        for (int i = 0; i < n; i++) {
+            ResourceInput in = inputs.get(i);
+            contexts[i] = in.name;
+            if (in.context != null) {
+                sources[i] = BODY;
+            } else if (in.pathParam) {
+                sources[i] = PATH;
+            } else if (in.queryParam != null) {
+                sources[i] = QUERY;
+            } else if (in.header != null) {
+                sources[i] = HEADER;
+            } else {
+                sources[i] = BODY;
+            }
+            if (sources[i] == BODY) {
+                continue;
+            }
+            TypeRegistry.TypeInfo ti = validator.registry.info(in.type);
+            if (ti == null || ti.baseType() == null) {
+                throw new IllegalArgumentException("No such type for input '" + in.name + "': " + in.type);
+            }
+            types[i] = bindable(ti.baseType());
+            Validator.Node node = validator.node(in.type).resolve();
+            if (!(node instanceof Validator.BaseNode)) {
+                checks[i] = node;
+            }
+            required[i] = !in.optional;
+            if (in._default != null) {
+                //a default decoded from JSON may be a number or boolean, converted from its text
+                Object dflt = convert(i, String.valueOf(in._default));
+                Validator.Result r = (dflt == null) ? null : check(i, dflt);
+                if (r == null || !r.valid) {
+                    throw new IllegalArgumentException("Bad default for input '" + in.name + "' of " + resource.method + " " + resource.path + ": " + in._default);
+                }
+                defaults[i] = dflt;
+            }
+        }
+    }
+
+    public Resource resource() {
+        return resource;
+    }
+
+    /**
+     * @return the number of inputs of the resource, the size of the arrays bound
+     */
+    public int size() {
+        return sources.length;
+    }
+
+    /**
+     * @param name the name of an input of the resource
+     * @return the index of the input, or -1 if there is none
+     */
+    public int index(String name) {
+        for (int i = 0; i < contexts.length; i++) {
+            if (contexts[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a new array to bind values into, which may be reused from one request to the next
+     */
+    public Object [] newParams() {
+        return new Object[sources.length];
+    }
+
+    /**
+     * Bind the raw values of the inputs.
+     * @param raw the raw values, by input index. Absent values are null.
+     * @param params the array to store the typed values in, by input index
+     * @return the result of validation. If it is not valid, the values in params are incomplete.
+     */
+    public Validator.Result bind(String [] raw, Object [] params) {
+        for (int i = 0; i < sources.length; i++) {
+            Validator.Result r = bind(i, (sources[i] == BODY) ? null : raw[i], params);
+            if (!r.valid) {
+                return r;
+            }
+        }
+        return Validator.VALID;
+    }
+
+    /**
+     * Bind the path and query parameters of a routed request, and its headers.
+     * @param match the request, routed to this binder's resource
+     * @param headers a lookup of request headers by name, or null if there are none
+     * @param params the array to store the typed values in, by input index
+     * @return the result of validation. If it is not valid, the values in params are incomplete.
+     * @throws IllegalArgumentException if the request was routed to a different resource
+     */
+    public Validator.Result bind(ResourceRouter.Match match, Function<String,String> headers, Object [] params) {
+        if (match.route.resource != resource) {
+            throw new IllegalArgumentException("Match for " + match.route.resource.method + " " + match.route.resource.path + " bound to " + resource.method + " " + resource.path);
+        }
+        for (int i = 0; i < sources.length; i++) {
+            String raw;
+            switch (sources[i]) {
+            case BODY:
+                raw = null;
+                break;
+            case HEADER:
+                raw = (headers == null) ? null : headers.apply(resource.inputs.get(i).header);
+                break;
+            default:
+                raw = match.values[i];
+                break;
+            }
+            Validator.Result r = bind(i, raw, params);
+            if (!r.valid) {
+                return r;
+            }
+        }
+        return Validator.VALID;
+    }
+
+    private Validator.Result bind(int i, String raw, Object [] params) {
+        if (sources[i] == BODY) {
+            params[i] = null;
+            return Validator.VALID;
+        }
+        if (raw == null) {
+            params[i] = defaults[i];
+            if (defaults[i] == null && required[i]) {
+                return Validator.error(contexts[i], "Missing required parameter");
+            }
+            return Validator.VALID;
+        }
+        if (raw.isEmpty() && types[i] == BaseType.Bool && resource.inputs.get(i).flag) {
+            raw = "true"; //a flag present without a value
+        }
+        Object value = convert(i, raw);
+        if (value == null) {
+            return Validator.error(contexts[i], "Not a valid " + resource.inputs.get(i).type + ": " + raw);
+        }
+        params[i] = value;
+        return check(i, value);
+    }
+
+    private Validator.Result check(int i, Object value) {
+        return (checks[i] == null) ? Validator.VALID : validator.run(checks[i], value, contexts[i]);
+    }
+
+    //the base types a string converts to, others are left strings
+    private static BaseType bindable(BaseType bt) {
+        switch (bt) {
+        case Bool:
+        case Int8:
+        case Int16:
+        case Int32:
+        case Int64:
+        case Float32:
+        case Float64:
+        case Symbol:
+        case Timestamp:
+        case UUID:
+        case Bytes:
+            return bt;
+        default:
+            return null;
+        }
+    }
+
+    //the typed value of the string, or null if it is not valid
+    private Object convert(int i, String s) {
+        BaseType bt = types[i];
+        if (bt == null) {
+            return s;
+        }
+        try {
+            switch (bt) {
+            case Bool:
+                return "true".equals(s) ? Boolean.TRUE : "false".equals(s) ? Boolean.FALSE : null;
+            case Int8:
+                return Byte.valueOf(s);
+            case Int16:
+                return Short.valueOf(s);
+            case Int32:
+                return Integer.valueOf(s);
+            case Int64:
+                return Long.valueOf(s);
+            case Float32:
+                return Float.valueOf(s);
+            case Float64:
+                return Double.valueOf(s);
+            case Symbol:
+                return Symbol.intern(s);
+            case Timestamp:
+                return Timestamp.fromString(s);
+            case UUID:
+                return UUID.fromString(s);
+            default: //Bytes
+                return Base64.getDecoder().decode(s);
+            }
+        } catch (IllegalArgumentException e) { //including NumberFormatException
+            return null;
+        }
+    }
+}
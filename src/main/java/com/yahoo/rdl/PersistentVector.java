@@ -0,0 +1,134 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+import java.util.Arrays;
+
+/**
+ * An immutable vector stored as a trie of 32-way nodes, with the last (partial) leaf kept
+ * aside as the tail. Updates copy only the path to the affected leaf, O(log32 n), and share
+ * everything else with the original. Appends usually only copy the tail.
+ */
+final class PersistentVector {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+
+    static final PersistentVector EMPTY = new PersistentVector(0, BITS, EMPTY_NODE, new Object[0]);
+
+    final int count;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int count, int shift, Object[] root, Object[] tail) {
+        this.count = count;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Build a vector of the first n items, filling whole leaves directly.
+     */
+    static PersistentVector of(Object[] items, int n) {
+        if (n <= WIDTH) {
+            return new PersistentVector(n, BITS, EMPTY_NODE, Arrays.copyOf(items, n));
+        }
+        PersistentVector v = new PersistentVector(WIDTH, BITS, EMPTY_NODE, Arrays.copyOf(items, WIDTH));
+        for (int off = WIDTH; off < n; off += WIDTH) {
+            v = v.pushTail(Arrays.copyOfRange(items, off, Math.min(off + WIDTH, n)));
+        }
+        return v;
+    }
+
+    private int tailOffset() {
+        return (count < WIDTH) ? 0 : ((count - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int i) {
+        if (i >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(i >>> level) & MASK];
+        }
+        return node;
+    }
+
+    //the caller is responsible for bounds checking
+    Object get(int i) {
+        return leafFor(i)[i & MASK];
+    }
+
+    PersistentVector append(Object o) {
+        if (count - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = o;
+            return new PersistentVector(count + 1, shift, root, newTail);
+        }
+        return pushTail(new Object[] {o});
+    }
+
+    //move the full tail into the trie, and start over with the given one
+    private PersistentVector pushTail(Object[] newTail) {
+        Object[] newRoot;
+        int newShift = shift;
+        if ((count >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushLeaf(shift, root, tail);
+        }
+        return new PersistentVector(count + newTail.length, newShift, newRoot, newTail);
+    }
+
+    private Object[] pushLeaf(int level, Object[] parent, Object[] leaf) {
+        int sub = ((count - 1) >>> level) & MASK;
+        Object[] result = parent.clone();
+        if (level == BITS) {
+            result[sub] = leaf;
+        } else {
+            Object[] child = (Object[]) parent[sub];
+            result[sub] = (child != null) ? pushLeaf(level - BITS, child, leaf) : newPath(level - BITS, leaf);
+        }
+        return result;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0) {
+            return node;
+        }
+        Object[] result = new Object[WIDTH];
+        result[0] = newPath(level - BITS, node);
+        return result;
+    }
+
+    //the caller is responsible for bounds checking
+    PersistentVector set(int i, Object o) {
+        if (i >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[i & MASK] = o;
+            return new PersistentVector(count, shift, root, newTail);
+        }
+        return new PersistentVector(count, shift, setIn(shift, root, i, o), tail);
+    }
+
+    private static Object[] setIn(int level, Object[] node, int i, Object o) {
+        Object[] result = node.clone();
+        if (level == 0) {
+            result[i & MASK] = o;
+        } else {
+            int sub = (i >>> level) & MASK;
+            result[sub] = setIn(level - BITS, (Object[]) node[sub], i, o);
+        }
+        return result;
+    }
+}
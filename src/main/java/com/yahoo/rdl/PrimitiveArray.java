@@ -0,0 +1,243 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+/**
+ * The common storage management for Arrays backed by a primitive java array. Items are boxed
+ * only when accessed through the generic List interface. As with Array, slices share the
+ * backing array until either side is modified.
+ * <p>
+ * Storing a value that the primitive storage cannot represent, such as a String or null, moves
+ * all the items to generic boxed storage, so that the array still behaves as any List of
+ * Objects. The typed accessors then unbox, as Array's do. Clearing the array returns it to
+ * primitive storage.
+ */
+abstract class PrimitiveArray extends Array {
+
+    static final int MIN_CAP = 16;
+
+    int count;
+    int offset; //non-zero only for slices
+    boolean shared; //the backing array is shared with a slice or parent, copy before modifying
+    Array boxed; //once non-null, holds all the items instead of the backing array
+
+    PrimitiveArray() {
+        super(null, 0);
+    }
+
+    //the length of the backing array
+    abstract int capacity();
+
+    //replace the backing array with one of the given capacity, holding the items starting at from
+    abstract void reallocate(int from, int newCap);
+
+    //the backing array itself, for System.arraycopy. Only valid when not shared.
+    abstract Object storage();
+
+    //a new instance of the same class, sharing this one's backing array
+    abstract PrimitiveArray share();
+
+    abstract boolean accepts(Object o);
+
+    //get the item at the (logical) index
+    abstract Object box(int idx);
+
+    //set the item at the index. Only valid when not shared.
+    abstract void store(int idx, Object o);
+
+    //make the backing array private, with room for n more items
+    final void beforeWrite(int n) {
+        if (shared) {
+            reallocate(offset, (n == 0) ? count : newCapacity(count, count + n));
+            offset = 0;
+            shared = false;
+        } else if (count + n > capacity()) {
+            reallocate(0, newCapacity(capacity(), count + n));
+        }
+    }
+
+    final void checkIndex(int idx) {
+        if (idx < 0 || idx >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * @return true if the items are held boxed, because one of them cannot be stored in the
+     * primitive storage
+     */
+    public final boolean isBoxed() {
+        return boxed != null;
+    }
+
+    //move the items to generic storage, for an item the primitive storage cannot hold
+    final void toBoxed(int extra) {
+        Array a = withCapacity(count + extra);
+        for (int i = 0; i < count; i++) {
+            a.add(box(i));
+        }
+        boxed = a;
+        reallocate(offset, 0); //release the backing array, or stop sharing it
+        count = 0;
+        offset = 0;
+        shared = false;
+    }
+
+    public int size() {
+        return (boxed != null) ? boxed.size() : count;
+    }
+
+    public Object get(int idx) {
+        if (boxed != null) {
+            return boxed.get(idx);
+        }
+        checkIndex(idx);
+        return box(idx);
+    }
+
+    public Object set(int idx, Object o) {
+        if (boxed == null) {
+            checkIndex(idx);
+            if (accepts(o)) {
+                Object result = box(idx);
+                beforeWrite(0);
+                store(idx, o);
+                return result;
+            }
+            toBoxed(0);
+        }
+        return boxed.set(idx, o);
+    }
+
+    public boolean add(Object o) {
+        if (boxed == null) {
+            if (accepts(o)) {
+                beforeWrite(1);
+                store(count++, o);
+                return true;
+            }
+            toBoxed(1);
+        }
+        return boxed.add(o);
+    }
+
+    public void add(int index, Object o) {
+        if (boxed != null) {
+            boxed.add(index, o);
+            return;
+        }
+        if (index > count || index < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (!accepts(o)) {
+            toBoxed(1);
+            boxed.add(index, o);
+            return;
+        }
+        beforeWrite(1);
+        Object storage = storage();
+        System.arraycopy(storage, index, storage, index + 1, count - index);
+        store(index, o);
+        count++;
+    }
+
+    public boolean addAll(int index, java.util.Collection<? extends Object> c) {
+        if (boxed != null) {
+            return boxed.addAll(index, c);
+        }
+        if (index > count || index < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        for (Object o : c) {
+            if (!accepts(o)) {
+                toBoxed(c.size());
+                return boxed.addAll(index, c);
+            }
+        }
+        int n = c.size();
+        beforeWrite(n);
+        Object storage = storage();
+        System.arraycopy(storage, index, storage, index + n, count - index);
+        for (Object o : c) {
+            store(index++, o);
+        }
+        count += n;
+        return n > 0;
+    }
+
+    public Object remove(int index) {
+        if (boxed != null) {
+            return boxed.remove(index);
+        }
+        checkIndex(index);
+        Object result = box(index);
+        beforeWrite(0);
+        count--;
+        int tail = count - index;
+        if (tail > 0) {
+            Object storage = storage();
+            System.arraycopy(storage, index + 1, storage, index, tail);
+        }
+        return result;
+    }
+
+    public void clear() {
+        count = 0;
+        if (boxed != null) {
+            boxed = null;
+            reallocate(0, MIN_CAP);
+        } else if (shared) {
+            reallocate(offset, MIN_CAP);
+            offset = 0;
+            shared = false;
+        }
+    }
+
+    public java.util.Iterator<Object> iterator() {
+        return listIterator();
+    }
+
+    public Array slice(int start, int end) {
+        if (boxed != null) {
+            return boxed.slice(start, end);
+        }
+        if (start < 0) {
+            start = 0;
+        }
+        if (end > count || end < 0) {
+            end = count;
+        }
+        if (end < start) {
+            end = start;
+        }
+        PrimitiveArray a = share();
+        a.offset = offset + start;
+        a.count = end - start;
+        a.shared = true;
+        shared = true;
+        return a;
+    }
+
+    //the primitive items are never null. Modifying the array after this copies its items first.
+    public java.util.Spliterator<Object> spliterator() {
+        if (boxed != null) {
+            return boxed.spliterator();
+        }
+        shared = true;
+        return new IndexSpliterator(this, 0, count, java.util.Spliterator.NONNULL);
+    }
+
+    public Array compact() {
+        if (boxed != null) {
+            boxed.compact();
+        } else if (shared || capacity() != count) {
+            reallocate(offset, count);
+            offset = 0;
+            shared = false;
+        }
+        return this;
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+/**
+ * A Jackson module with the serializers and deserializers for the RDL value types: Struct, Array,
+ * Timestamp, UUID, and Symbol. The types carry the same ones in their annotations, the module is
+ * for ObjectMappers that do not use annotations, and is registered by the JSON helper.
+ */
+public class RdlModule extends SimpleModule {
+
+    private static final long serialVersionUID = 1L;
+
+    public RdlModule() {
+        super("RdlModule");
+        addSerializer(Struct.class, new Struct.StructJsonSerializer());
+        addDeserializer(Struct.class, new Struct.StructJsonDeserializer());
+        addSerializer(Array.class, new Array.ArrayJsonSerializer());
+        addDeserializer(Array.class, new Array.ArrayJsonDeserializer());
+        addSerializer(Timestamp.class, new Timestamp.TimestampJsonSerializer());
+        addDeserializer(Timestamp.class, new Timestamp.TimestampJsonDeserializer());
+        addSerializer(UUID.class, new UUID.UUIDJsonSerializer());
+        addDeserializer(UUID.class, new UUID.UUIDJsonDeserializer());
+        addSerializer(Symbol.class, new Symbol.SymbolJsonSerializer());
+        addDeserializer(Symbol.class, new Symbol.SymbolJsonDeserializer());
+    }
+}
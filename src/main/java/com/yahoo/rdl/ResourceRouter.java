@@ -0,0 +1,408 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches requests to the resources of a schema.
+ * <p>
+ * The resource paths are compiled into a trie of path segments for each method. Literal
+ * segments are preferred to parameters, and a path parameter with a pattern, as the last
+ * segment, matches the rest of the path. The query part of a path template is ignored: query
+ * parameters are bound by the names in ResourceInput.queryParam. Matching is a walk down the
+ * trie, with no regular expressions, and allocates only the matched parameter values. Values
+ * are percent-decoded, and '+' in query values decodes to a space.
+ * <p>
+ * A router is immutable, and may be shared between threads.
+ */
+public final class ResourceRouter {
+
+    private final Map<String,Node> roots = new HashMap<String,Node>(); //by method
+    private final int maxDepth; //the most path parameters of any route
+
+    /**
+     * @param schema the schema whose resources are routed to. The base path of the schema, if
+     * any, is prepended to the path of each resource.
+     * @throws IllegalArgumentException if two resources have the same method and path, or a
+     * path parameter is not an input of its resource
+     */
+    public ResourceRouter(Schema schema) {
+        int depth = 0;
+        if (schema.resources != null) {
+            String base = (schema.base == null) ? "" : schema.base;
+            if (base.endsWith("/")) {
+                base = base.substring(0, base.length() - 1);
+            }
+            for (Resource r : schema.resources) {
+                depth = Math.max(depth, add(r, base + r.path));
+            }
+        }
+        maxDepth = depth;
+    }
+
+    /**
+     * A request matched to a resource, with the values of its path and query parameters.
+     */
+    public static final class Match {
+        final Route route;
+        final String [] values; //by the index of the input in the resource
+
+        Match(Route route, String [] values) {
+            this.route = route;
+            this.values = values;
+        }
+
+        public Resource resource() {
+            return route.resource;
+        }
+
+        /**
+         * @param index the index of an input of the resource
+         * @return the value of the input, or null if it is not a path or query parameter, or
+         * the query parameter is absent
+         */
+        public String value(int index) {
+            return values[index];
+        }
+
+        /**
+         * @param name the name of an input of the resource
+         * @return the value of the input, or null if it is not a path or query parameter, or
+         * the query parameter is absent
+         */
+        public String param(String name) {
+            List<ResourceInput> inputs = route.resource.inputs;
+            for (int i = 0; i < values.length; i++) {
+                if (inputs.get(i).name.equals(name)) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the values of the parameters present, by input name
+         */
+        public Map<String,String> params() {
+            Map<String,String> params = new LinkedHashMap<String,String>();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    params.put(route.resource.inputs.get(i).name, values[i]);
+                }
+            }
+            return params;
+        }
+
+        public String toString() {
+            return route.resource.method + " " + route.resource.path + " " + params();
+        }
+    }
+
+    /**
+     * @param method the request method
+     * @param uri the request path, and optionally a query, after '?'
+     * @return the match, or null if no resource matches
+     */
+    public Match route(String method, String uri) {
+        int q = uri.indexOf('?');
+        if (q < 0) {
+            return route(method, uri, null);
+        }
+        return route(method, uri.substring(0, q), uri.substring(q + 1));
+    }
+
+    /**
+     * @param method the request method
+     * @param path the request path
+     * @param query the query, without the '?', or null
+     * @return the match, or null if no resource matches
+     */
+    public Match route(String method, String path, String query) {
+        Node root = roots.get(method);
+        if (root == null || !path.startsWith("/")) {
+            return null;
+        }
+        int [] bounds = new int[2 * maxDepth];
+        Route route = match(root, path, 1, bounds, 0);
+        if (route == null) {
+            return null;
+        }
+        String [] values = new String[route.inputCount];
+        for (int i = 0; i < route.pathSlots.length; i++) {
+            values[route.pathSlots[i]] = decode(path, bounds[2 * i], bounds[2 * i + 1], false);
+        }
+        if (query != null && route.queryNames.length > 0) {
+            bindQuery(route, query, values);
+        }
+        return new Match(route, values);
+    }
+
+    //a resource, compiled
+    static final class Route {
+        final Resource resource;
+        final int inputCount;
+        final int [] pathSlots; //the input index of each path parameter, in path order
+        final String [] queryNames;
+        final int [] querySlots;
+
+        Route(Resource resource, int [] pathSlots, String [] queryNames, int [] querySlots) {
+            this.resource = resource;
+            this.inputCount = (resource.inputs == null) ? 0 : resource.inputs.size();
+            this.pathSlots = pathSlots;
+            this.queryNames = queryNames;
+            this.querySlots = querySlots;
+        }
+    }
+
+    //a node of the trie, at the end of a path segment
+    static final class Node {
+        Literals literals; //null if there are none
+        Node param; //the child for a parameter segment
+        Route rest; //the route whose last parameter matches the rest of the path
+        Route route; //the route ending here
+
+        Node literal(String segment) {
+            if (literals == null) {
+                literals = new Literals();
+            }
+            Node n = literals.get(segment, 0, segment.length());
+            if (n == null) {
+                n = new Node();
+                literals.put(segment, n);
+            }
+            return n;
+        }
+    }
+
+    //an open addressed hash table of literal segments, which looks up a segment of the path
+    //in place, without making a substring of it
+    static final class Literals {
+        String [] keys = new String[4];
+        Node [] nodes = new Node[4];
+        int size;
+
+        Node get(String s, int from, int to) {
+            int mask = keys.length - 1;
+            for (int i = hash(s, from, to) & mask; keys[i] != null; i = (i + 1) & mask) {
+                String k = keys[i];
+                if (k.length() == to - from && s.regionMatches(from, k, 0, k.length())) {
+                    return nodes[i];
+                }
+            }
+            return null;
+        }
+
+        void put(String key, Node node) {
+            if (2 * (size + 1) > keys.length) {
+                String [] oldKeys = keys;
+                Node [] oldNodes = nodes;
+                keys = new String[oldKeys.length * 2];
+                nodes = new Node[oldKeys.length * 2];
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != null) {
+                        put(oldKeys[i], oldNodes[i]);
+                    }
+                }
+            }
+            int mask = keys.length - 1;
+            int i = hash(key, 0, key.length()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+            size++;
+        }
+
+        //String.hashCode of the substring, with the high bits folded in
+        static int hash(String s, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+
+    //returns the number of path parameters of the route
+    private int add(Resource r, String template) {
+        int q = template.indexOf('?');
+        if (q >= 0) {
+            template = template.substring(0, q);
+        }
+        if (!template.startsWith("/")) {
+            throw new IllegalArgumentException("Resource path must start with '/': " + r.method + " " + r.path);
+        }
+        Map<String,Integer> inputs = new HashMap<String,Integer>();
+        List<String> queryNames = new ArrayList<String>();
+        List<Integer> querySlots = new ArrayList<Integer>();
+        if (r.inputs != null) {
+            for (int i = 0; i < r.inputs.size(); i++) {
+                ResourceInput in = r.inputs.get(i);
+                inputs.put(in.name, i);
+                if (in.queryParam != null) {
+                    queryNames.add(in.queryParam);
+                    querySlots.add(i);
+                }
+            }
+        }
+        String [] segments = template.substring(1).split("/", -1);
+        int [] pathSlots = new int[segments.length];
+        int params = 0;
+        boolean rest = false;
+        Node n = roots.get(r.method);
+        if (n == null) {
+            n = new Node();
+            roots.put(r.method, n);
+        }
+        for (int i = 0; i < segments.length; i++) {
+            String seg = segments[i];
+            if (seg.length() > 1 && seg.charAt(0) == '{' && seg.charAt(seg.length() - 1) == '}') {
+                String name = seg.substring(1, seg.length() - 1);
+                boolean star = name.endsWith("*");
+                if (star) {
+                    name = name.substring(0, name.length() - 1);
+                }
+                Integer slot = inputs.get(name);
+                if (slot == null) {
+                    throw new IllegalArgumentException("No input for path parameter '" + name + "': " + r.method + " " + r.path);
+                }
+                pathSlots[params++] = slot;
+                if (i == segments.length - 1 && (star || r.inputs.get(slot).pattern != null)) {
+                    rest = true;
+                } else {
+                    if (n.param == null) {
+                        n.param = new Node();
+                    }
+                    n = n.param;
+                }
+            } else {
+                n = n.literal(seg);
+            }
+        }
+        Route route = new Route(r, Arrays.copyOf(pathSlots, params), queryNames.toArray(new String[queryNames.size()]), toArray(querySlots));
+        if (rest ? n.rest != null : n.route != null) {
+            throw new IllegalArgumentException("Duplicate resource: " + r.method + " " + r.path);
+        }
+        if (rest) {
+            n.rest = route;
+        } else {
+            n.route = route;
+        }
+        return params;
+    }
+
+    private static int [] toArray(List<Integer> lst) {
+        int [] a = new int[lst.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = lst.get(i);
+        }
+        return a;
+    }
+
+    //match the path from pos, the start of a segment. The bounds of the parameters captured
+    //are recorded from param. Literals are tried first, then a parameter, then the rest.
+    private static Route match(Node n, String path, int pos, int [] bounds, int param) {
+        int end = path.indexOf('/', pos);
+        boolean last = end < 0;
+        if (last) {
+            end = path.length();
+        }
+        if (n.literals != null) {
+            Node child = n.literals.get(path, pos, end);
+            if (child != null) {
+                Route r = last ? child.route : match(child, path, end + 1, bounds, param);
+                if (r != null) {
+                    return r;
+                }
+            }
+        }
+        if (n.param != null && end > pos) {
+            Route r = last ? n.param.route : match(n.param, path, end + 1, bounds, param + 1);
+            if (r != null) {
+                bounds[2 * param] = pos;
+                bounds[2 * param + 1] = end;
+                return r;
+            }
+        }
+        if (n.rest != null && path.length() > pos) {
+            bounds[2 * param] = pos;
+            bounds[2 * param + 1] = path.length();
+            return n.rest;
+        }
+        return null;
+    }
+
+    private static void bindQuery(Route route, String query, String [] values) {
+        int pos = 0;
+        int len = query.length();
+        while (pos < len) {
+            int amp = query.indexOf('&', pos);
+            if (amp < 0) {
+                amp = len;
+            }
+            int eq = query.indexOf('=', pos);
+            int nameEnd = (eq < 0 || eq > amp) ? amp : eq;
+            for (int i = 0; i < route.queryNames.length; i++) {
+                String name = route.queryNames[i];
+                int slot = route.querySlots[i];
+                if (values[slot] == null && name.length() == nameEnd - pos && query.regionMatches(pos, name, 0, name.length())) {
+                    values[slot] = (nameEnd == amp) ? "" : decode(query, nameEnd + 1, amp, true);
+                    break;
+                }
+            }
+            pos = amp + 1;
+        }
+    }
+
+    //the percent-decoded substring, which is only copied if it is encoded
+    static String decode(String s, int from, int to, boolean plusIsSpace) {
+        int i = from;
+        while (i < to) {
+            char c = s.charAt(i);
+            if (c == '%' || (c == '+' && plusIsSpace)) {
+                break;
+            }
+            i++;
+        }
+        if (i == to) {
+            return s.substring(from, to);
+        }
+        StringBuilder sb = new StringBuilder(to - from);
+        sb.append(s, from, i);
+        ByteArrayOutputStream bytes = null;
+        while (i < to) {
+            char c = s.charAt(i);
+            if (c == '%' && i + 2 < to && hex(s, i + 1) >= 0 && hex(s, i + 2) >= 0) {
+                if (bytes == null) {
+                    bytes = new ByteArrayOutputStream();
+                }
+                bytes.reset();
+                while (i + 2 < to && s.charAt(i) == '%' && hex(s, i + 1) >= 0 && hex(s, i + 2) >= 0) {
+                    bytes.write(hex(s, i + 1) * 16 + hex(s, i + 2));
+                    i += 3;
+                }
+                sb.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+            } else {
+                sb.append((c == '+' && plusIsSpace) ? ' ' : c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int hex(String s, int i) {
+        return Character.digit(s.charAt(i), 16);
+    }
+}
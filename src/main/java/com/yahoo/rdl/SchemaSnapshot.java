@@ -0,0 +1,939 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary snapshot of a Schema, for services that load large schemas at startup.
+ * <p>
+ * A snapshot is read by a reader specific to the schema classes, without reflection or JSON
+ * parsing, from a byte array or a memory mapped file. It carries the SHA-256 fingerprint of the
+ * source the schema was built from (usually its JSON), so that a snapshot that no longer matches
+ * its source can be detected, and rebuilt: see {@link #loadOrBuild(Path, Path)}.
+ * <p>
+ * The format is a header (the magic "RDLS", a format version, and the fingerprint) followed by
+ * the schema's fields in declaration order. Strings are written once, and referred to by index
+ * after that, so the type names that recur throughout a schema are stored, and loaded, once.
+ */
+public final class SchemaSnapshot {
+
+    public static final int FORMAT_VERSION = 1;
+
+    private static final byte [] MAGIC = {'R', 'D', 'L', 'S'};
+    private static final int FINGERPRINT_SIZE = 32;
+    private static final int HEADER_SIZE = MAGIC.length + 1 + FINGERPRINT_SIZE;
+
+    private final Schema schema;
+    private final byte [] fingerprint;
+    private volatile TypeRegistry registry;
+
+    private SchemaSnapshot(Schema schema, byte [] fingerprint) {
+        this.schema = schema;
+        this.fingerprint = fingerprint;
+    }
+
+    public Schema schema() {
+        return schema;
+    }
+
+    /**
+     * @return the SHA-256 fingerprint of the source of the schema
+     */
+    public byte [] fingerprint() {
+        return fingerprint.clone();
+    }
+
+    /**
+     * @return the resolved types of the schema, created when first needed
+     */
+    public TypeRegistry registry() {
+        TypeRegistry reg = registry;
+        if (reg == null) {
+            reg = new TypeRegistry(schema);
+            registry = reg;
+        }
+        return reg;
+    }
+
+    /**
+     * @param source the source of a schema, such as its JSON
+     * @return the SHA-256 fingerprint of the source
+     */
+    public static byte [] fingerprint(byte [] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException e) { //every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param schema the schema to snapshot
+     * @param fingerprint the fingerprint of the schema's source
+     * @return the snapshot
+     */
+    public static byte [] bytes(Schema schema, byte [] fingerprint) {
+        if (fingerprint.length != FINGERPRINT_SIZE) {
+            throw new IllegalArgumentException("Fingerprint must be " + FINGERPRINT_SIZE + " bytes: " + fingerprint.length);
+        }
+        Writer w = new Writer();
+        w.write(MAGIC);
+        w.writeByte(FORMAT_VERSION);
+        w.write(fingerprint);
+        w.writeSchema(schema);
+        return Arrays.copyOf(w.buf, w.len);
+    }
+
+    /**
+     * @param data a snapshot, as created by bytes
+     * @return the snapshot
+     * @throws IOException if the data is not a snapshot of this format version
+     */
+    public static SchemaSnapshot fromBytes(byte [] data) throws IOException {
+        return read(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * @param buf the buffer to read a snapshot from, from its position
+     * @return the snapshot
+     * @throws IOException if the data is not a snapshot of this format version
+     */
+    public static SchemaSnapshot read(ByteBuffer buf) throws IOException {
+        byte [] fp = readHeader(buf);
+        try {
+            return new SchemaSnapshot(new Reader(buf).readSchema(), fp);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Bad schema snapshot: " + e, e);
+        }
+    }
+
+    /**
+     * Load a snapshot from a file, which is memory mapped rather than read.
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file is not a snapshot of this format version, or cannot be read
+     */
+    public static SchemaSnapshot load(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    /**
+     * Write a snapshot to a file. The file is replaced atomically where the file system allows,
+     * so that a concurrent load sees either the old snapshot or the new one.
+     * @param schema the schema to snapshot
+     * @param fingerprint the fingerprint of the schema's source
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Schema schema, byte [] fingerprint, Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, bytes(schema, fingerprint));
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Load the snapshot of a JSON schema, if it is up to date, or else build the schema from
+     * the JSON and write a new snapshot of it. A snapshot is up to date if its fingerprint is
+     * that of the JSON, and it is of the current format version.
+     * @param jsonFile the JSON schema
+     * @param snapshotFile the snapshot of it, which need not exist
+     * @return the snapshot
+     * @throws IOException if the JSON is not a valid schema, or either file cannot be read or
+     * written
+     */
+    public static SchemaSnapshot loadOrBuild(Path jsonFile, Path snapshotFile) throws IOException {
+        byte [] json = Files.readAllBytes(jsonFile);
+        byte [] fp = fingerprint(json);
+        if (Files.exists(snapshotFile)) {
+            try (FileChannel ch = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+                ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                if (Arrays.equals(readHeader(buf.duplicate()), fp)) {
+                    return read(buf);
+                }
+            } catch (IOException e) {
+                //an unreadable snapshot is rebuilt
+            }
+        }
+        Schema schema = JSON.read(new ByteArrayInputStream(json), Schema.class);
+        if (schema == null) {
+            throw new IOException("Not a schema: " + jsonFile);
+        }
+        write(schema, fp, snapshotFile);
+        return new SchemaSnapshot(schema, fp);
+    }
+
+    //the fingerprint
+    private static byte [] readHeader(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < HEADER_SIZE) {
+            throw new IOException("Not a schema snapshot: too short");
+        }
+        for (byte b : MAGIC) {
+            if (buf.get() != b) {
+                throw new IOException("Not a schema snapshot: bad magic number");
+            }
+        }
+        int version = buf.get();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported schema snapshot version " + version + ", expected " + FORMAT_VERSION);
+        }
+        byte [] fp = new byte[FINGERPRINT_SIZE];
+        buf.get(fp);
+        return fp;
+    }
+
+    //------------- encoding
+
+    //the tags of default values, which may be any JSON value
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_FALSE = 1;
+    private static final int VALUE_TRUE = 2;
+    private static final int VALUE_INT = 3;
+    private static final int VALUE_LONG = 4;
+    private static final int VALUE_DOUBLE = 5;
+    private static final int VALUE_STRING = 6;
+    private static final int VALUE_LIST = 7;
+    private static final int VALUE_MAP = 8;
+    private static final int VALUE_JSON = 9; //anything else, as JSON text
+
+    private static final class Writer {
+        byte [] buf = new byte[4096];
+        int len;
+        final HashMap<String,Integer> strings = new HashMap<String,Integer>();
+
+        void ensure(int n) {
+            if (len + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[len++] = (byte)b;
+        }
+
+        void write(byte [] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+        }
+
+        void writeVarint(long n) {
+            ensure(10);
+            while ((n & ~0x7FL) != 0) {
+                buf[len++] = (byte)((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            buf[len++] = (byte)n;
+        }
+
+        void writeZigzag(long n) {
+            writeVarint((n << 1) ^ (n >> 63));
+        }
+
+        //0 for null, 1 for a new string, or 2 + the index of a string already written
+        void writeString(String s) {
+            if (s == null) {
+                writeVarint(0);
+                return;
+            }
+            Integer i = strings.get(s);
+            if (i != null) {
+                writeVarint(2 + i);
+                return;
+            }
+            strings.put(s, strings.size());
+            byte [] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(1);
+            writeVarint(utf8.length);
+            write(utf8);
+        }
+
+        void writeBool(boolean b) {
+            writeByte(b ? 1 : 0);
+        }
+
+        void writeOptBool(Boolean b) {
+            writeByte((b == null) ? 0 : (b ? 2 : 1));
+        }
+
+        void writeOptInt(Integer n) {
+            if (n == null) {
+                writeByte(0);
+            } else {
+                writeByte(1);
+                writeZigzag(n);
+            }
+        }
+
+        //0 for null, else 1 + the count
+        void writeCount(java.util.Collection<?> c) {
+            writeVarint((c == null) ? 0 : c.size() + 1);
+        }
+
+        void writeStrings(List<String> lst) {
+            writeCount(lst);
+            if (lst != null) {
+                for (String s : lst) {
+                    writeString(s);
+                }
+            }
+        }
+
+        void writeAnnotations(Map<String,String> map) {
+            writeVarint((map == null) ? 0 : map.size() + 1);
+            if (map != null) {
+                for (Map.Entry<String,String> e : map.entrySet()) {
+                    writeString(e.getKey());
+                    writeString(e.getValue());
+                }
+            }
+        }
+
+        void writeValue(Object o) {
+            if (o == null) {
+                writeByte(VALUE_NULL);
+            } else if (o instanceof Boolean) {
+                writeByte(((Boolean)o) ? VALUE_TRUE : VALUE_FALSE);
+            } else if (o instanceof Integer) {
+                writeByte(VALUE_INT);
+                writeZigzag((Integer)o);
+            } else if (o instanceof Long) {
+                writeByte(VALUE_LONG);
+                writeZigzag((Long)o);
+            } else if (o instanceof Double) {
+                writeByte(VALUE_DOUBLE);
+                writeVarint(Double.doubleToRawLongBits((Double)o));
+            } else if (o instanceof String) {
+                writeByte(VALUE_STRING);
+                writeString((String)o);
+            } else if (o.getClass() == ArrayList.class) {
+                List<?> lst = (List<?>)o;
+                writeByte(VALUE_LIST);
+                writeVarint(lst.size());
+                for (Object item : lst) {
+                    writeValue(item);
+                }
+            } else if (o.getClass() == LinkedHashMap.class) {
+                Map<?,?> map = (Map<?,?>)o;
+                writeByte(VALUE_MAP);
+                writeVarint(map.size());
+                for (Map.Entry<?,?> e : map.entrySet()) {
+                    writeString(String.valueOf(e.getKey()));
+                    writeValue(e.getValue());
+                }
+            } else {
+                writeByte(VALUE_JSON);
+                writeString(JSON.string(o));
+            }
+        }
+
+        void writeNumber(Number n) {
+            if (n == null) {
+                writeByte(0);
+                return;
+            }
+            writeByte(1 + n.variant.ordinal());
+            switch (n.variant) {
+            case Int8:
+                writeZigzag(n.Int8);
+                break;
+            case Int16:
+                writeZigzag(n.Int16);
+                break;
+            case Int32:
+                writeZigzag(n.Int32);
+                break;
+            case Int64:
+                writeZigzag(n.Int64);
+                break;
+            case Float32:
+                writeVarint(Float.floatToRawIntBits(n.Float32) & 0xFFFFFFFFL);
+                break;
+            default:
+                writeVarint(Double.doubleToRawLongBits(n.Float64));
+                break;
+            }
+        }
+
+        void writeSchema(Schema s) {
+            writeString(s.namespace);
+            writeString(s.name);
+            writeOptInt(s.version);
+            writeString(s.comment);
+            writeCount(s.types);
+            if (s.types != null) {
+                for (Type t : s.types) {
+                    writeType(t);
+                }
+            }
+            writeCount(s.resources);
+            if (s.resources != null) {
+                for (Resource r : s.resources) {
+                    writeResource(r);
+                }
+            }
+            writeString(s.base);
+            writeAnnotations(s.annotations);
+        }
+
+        void writeType(Type t) {
+            writeByte(t.variant.ordinal());
+            switch (t.variant) {
+            case BaseType:
+                writeByte(t.BaseType.ordinal());
+                break;
+            case StructTypeDef:
+                StructTypeDef st = t.StructTypeDef;
+                writeTypeHeader(st.type, st.name, st.comment, st.annotations);
+                writeCount(st.fields);
+                if (st.fields != null) {
+                    for (StructFieldDef f : st.fields) {
+                        writeString(f.name);
+                        writeString(f.type);
+                        writeBool(f.optional);
+                        writeValue(f._default);
+                        writeString(f.comment);
+                        writeString(f.items);
+                        writeString(f.keys);
+                        writeAnnotations(f.annotations);
+                    }
+                }
+                writeBool(st.closed);
+                break;
+            case MapTypeDef:
+                MapTypeDef mt = t.MapTypeDef;
+                writeTypeHeader(mt.type, mt.name, mt.comment, mt.annotations);
+                writeString(mt.keys);
+                writeString(mt.items);
+                writeOptInt(mt.size);
+                writeOptInt(mt.minSize);
+                writeOptInt(mt.maxSize);
+                break;
+            case ArrayTypeDef:
+                ArrayTypeDef at = t.ArrayTypeDef;
+                writeTypeHeader(at.type, at.name, at.comment, at.annotations);
+                writeString(at.items);
+                writeOptInt(at.size);
+                writeOptInt(at.minSize);
+                writeOptInt(at.maxSize);
+                break;
+            case EnumTypeDef:
+                EnumTypeDef et = t.EnumTypeDef;
+                writeTypeHeader(et.type, et.name, et.comment, et.annotations);
+                writeCount(et.elements);
+                if (et.elements != null) {
+                    for (EnumElementDef e : et.elements) {
+                        writeString(e.symbol);
+                        writeString(e.comment);
+                        writeAnnotations(e.annotations);
+                    }
+                }
+                break;
+            case UnionTypeDef:
+                UnionTypeDef ut = t.UnionTypeDef;
+                writeTypeHeader(ut.type, ut.name, ut.comment, ut.annotations);
+                writeStrings(ut.variants);
+                break;
+            case StringTypeDef:
+                StringTypeDef str = t.StringTypeDef;
+                writeTypeHeader(str.type, str.name, str.comment, str.annotations);
+                writeString(str.pattern);
+                writeStrings(str.values);
+                writeOptInt(str.minSize);
+                writeOptInt(str.maxSize);
+                break;
+            case BytesTypeDef:
+                BytesTypeDef bt = t.BytesTypeDef;
+                writeTypeHeader(bt.type, bt.name, bt.comment, bt.annotations);
+                writeOptInt(bt.size);
+                writeOptInt(bt.minSize);
+                writeOptInt(bt.maxSize);
+                break;
+            case NumberTypeDef:
+                NumberTypeDef nt = t.NumberTypeDef;
+                writeTypeHeader(nt.type, nt.name, nt.comment, nt.annotations);
+                writeNumber(nt.min);
+                writeNumber(nt.max);
+                break;
+            default:
+                AliasTypeDef alt = t.AliasTypeDef;
+                writeTypeHeader(alt.type, alt.name, alt.comment, alt.annotations);
+                break;
+            }
+        }
+
+        void writeTypeHeader(String type, String name, String comment, Map<String,String> annotations) {
+            writeString(type);
+            writeString(name);
+            writeString(comment);
+            writeAnnotations(annotations);
+        }
+
+        void writeResource(Resource r) {
+            writeString(r.type);
+            writeString(r.method);
+            writeString(r.path);
+            writeString(r.comment);
+            writeCount(r.inputs);
+            if (r.inputs != null) {
+                for (ResourceInput in : r.inputs) {
+                    writeString(in.name);
+                    writeString(in.type);
+                    writeString(in.comment);
+                    writeBool(in.pathParam);
+                    writeString(in.queryParam);
+                    writeString(in.header);
+                    writeString(in.pattern);
+                    writeValue(in._default);
+                    writeBool(in.optional);
+                    writeBool(in.flag);
+                    writeString(in.context);
+                    writeAnnotations(in.annotations);
+                }
+            }
+            writeCount(r.outputs);
+            if (r.outputs != null) {
+                for (ResourceOutput out : r.outputs) {
+                    writeString(out.name);
+                    writeString(out.type);
+                    writeString(out.header);
+                    writeString(out.comment);
+                    writeBool(out.optional);
+                    writeAnnotations(out.annotations);
+                }
+            }
+            writeBool(r.auth != null);
+            if (r.auth != null) {
+                writeBool(r.auth.authenticate);
+                writeString(r.auth.action);
+                writeString(r.auth.resource);
+                writeString(r.auth.domain);
+            }
+            writeString(r.expected);
+            writeStrings(r.alternatives);
+            writeVarint((r.exceptions == null) ? 0 : r.exceptions.size() + 1);
+            if (r.exceptions != null) {
+                for (Map.Entry<String,ExceptionDef> e : r.exceptions.entrySet()) {
+                    writeString(e.getKey());
+                    writeString(e.getValue().type);
+                    writeString(e.getValue().comment);
+                }
+            }
+            writeOptBool(r.async);
+            writeAnnotations(r.annotations);
+            writeStrings(r.consumes);
+            writeStrings(r.produces);
+            writeString(r.name);
+        }
+    }
+
+    //------------- decoding
+
+    private static final class Reader {
+        final ByteBuffer buf;
+        final ArrayList<String> strings = new ArrayList<String>();
+        byte [] scratch = new byte[256];
+
+        Reader(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        int readByte() {
+            return buf.get() & 0xFF;
+        }
+
+        long readVarint() {
+            long n = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = buf.get();
+                n |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return n;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+
+        long readZigzag() {
+            long n = readVarint();
+            return (n >>> 1) ^ -(n & 1);
+        }
+
+        int readCount() {
+            long n = readVarint();
+            if (n > buf.remaining() + 1L) { //every item takes at least a byte
+                throw new IllegalArgumentException("Bad count " + n);
+            }
+            return (int)n;
+        }
+
+        String readString() {
+            long tag = readVarint();
+            if (tag == 0) {
+                return null;
+            }
+            if (tag > 1) {
+                if (tag - 2 >= strings.size()) {
+                    throw new IllegalArgumentException("Bad string reference " + tag);
+                }
+                return strings.get((int)(tag - 2));
+            }
+            int n = readCount();
+            String s;
+            if (buf.hasArray()) {
+                s = new String(buf.array(), buf.arrayOffset() + buf.position(), n, StandardCharsets.UTF_8);
+                buf.position(buf.position() + n);
+            } else {
+                if (n > scratch.length) {
+                    scratch = new byte[Math.max(n, scratch.length * 2)];
+                }
+                buf.get(scratch, 0, n);
+                s = new String(scratch, 0, n, StandardCharsets.UTF_8);
+            }
+            strings.add(s);
+            return s;
+        }
+
+        boolean readBool() {
+            return readByte() != 0;
+        }
+
+        Boolean readOptBool() {
+            int b = readByte();
+            return (b == 0) ? null : Boolean.valueOf(b == 2);
+        }
+
+        Integer readOptInt() {
+            return (readByte() == 0) ? null : Integer.valueOf((int)readZigzag());
+        }
+
+        List<String> readStrings() {
+            int n = readCount();
+            if (n == 0) {
+                return null;
+            }
+            List<String> lst = new ArrayList<String>(n - 1);
+            for (int i = 1; i < n; i++) {
+                lst.add(readString());
+            }
+            return lst;
+        }
+
+        Map<String,String> readAnnotations() {
+            int n = readCount();
+            if (n == 0) {
+                return null;
+            }
+            Map<String,String> map = new LinkedHashMap<String,String>();
+            for (int i = 1; i < n; i++) {
+                String k = readString();
+                map.put(k, readString());
+            }
+            return map;
+        }
+
+        Object readValue() {
+            int tag = readByte();
+            switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_INT:
+                return Integer.valueOf((int)readZigzag());
+            case VALUE_LONG:
+                return Long.valueOf(readZigzag());
+            case VALUE_DOUBLE:
+                return Double.longBitsToDouble(readVarint());
+            case VALUE_STRING:
+                return readString();
+            case VALUE_LIST:
+                int n = readCount();
+                List<Object> lst = new ArrayList<Object>(n);
+                for (int i = 0; i < n; i++) {
+                    lst.add(readValue());
+                }
+                return lst;
+            case VALUE_MAP:
+                n = readCount();
+                Map<String,Object> map = new LinkedHashMap<String,Object>();
+                for (int i = 0; i < n; i++) {
+                    String k = readString();
+                    map.put(k, readValue());
+                }
+                return map;
+            case VALUE_JSON:
+                return JSON.fromString(readString(), Object.class);
+            default:
+                throw new IllegalArgumentException("Bad value tag " + tag);
+            }
+        }
+
+        Number readNumber() {
+            int v = readByte();
+            if (v == 0) {
+                return null;
+            }
+            switch (Number.NumberVariant.values()[v - 1]) {
+            case Int8:
+                return new Number(Byte.valueOf((byte)readZigzag()));
+            case Int16:
+                return new Number(Short.valueOf((short)readZigzag()));
+            case Int32:
+                return new Number(Integer.valueOf((int)readZigzag()));
+            case Int64:
+                return new Number(Long.valueOf(readZigzag()));
+            case Float32:
+                return new Number(Float.valueOf(Float.intBitsToFloat((int)readVarint())));
+            default:
+                return new Number(Double.valueOf(Double.longBitsToDouble(readVarint())));
+            }
+        }
+
+        Schema readSchema() {
+            Schema s = new Schema();
+            s.namespace = readString();
+            s.name = readString();
+            s.version = readOptInt();
+            s.comment = readString();
+            int n = readCount();
+            if (n > 0) {
+                s.types = new ArrayList<Type>(n - 1);
+                for (int i = 1; i < n; i++) {
+                    s.types.add(readType());
+                }
+            }
+            n = readCount();
+            if (n > 0) {
+                s.resources = new ArrayList<Resource>(n - 1);
+                for (int i = 1; i < n; i++) {
+                    s.resources.add(readResource());
+                }
+            }
+            s.base = readString();
+            s.annotations = readAnnotations();
+            return s;
+        }
+
+        Type readType() {
+            Type.TypeVariant variant = Type.TypeVariant.values()[readByte()];
+            switch (variant) {
+            case BaseType:
+                return new Type(BaseType.values()[readByte()]);
+            case StructTypeDef:
+                StructTypeDef st = new StructTypeDef();
+                st.type = readString();
+                st.name = readString();
+                st.comment = readString();
+                st.annotations = readAnnotations();
+                int n = readCount();
+                if (n > 0) {
+                    st.fields = new ArrayList<StructFieldDef>(n - 1);
+                    for (int i = 1; i < n; i++) {
+                        StructFieldDef f = new StructFieldDef();
+                        f.name = readString();
+                        f.type = readString();
+                        f.optional = readBool();
+                        f._default = readValue();
+                        f.comment = readString();
+                        f.items = readString();
+                        f.keys = readString();
+                        f.annotations = readAnnotations();
+                        st.fields.add(f);
+                    }
+                }
+                st.closed = readBool();
+                return new Type(st);
+            case MapTypeDef:
+                MapTypeDef mt = new MapTypeDef();
+                mt.type = readString();
+                mt.name = readString();
+                mt.comment = readString();
+                mt.annotations = readAnnotations();
+                mt.keys = readString();
+                mt.items = readString();
+                mt.size = readOptInt();
+                mt.minSize = readOptInt();
+                mt.maxSize = readOptInt();
+                return new Type(mt);
+            case ArrayTypeDef:
+                ArrayTypeDef at = new ArrayTypeDef();
+                at.type = readString();
+                at.name = readString();
+                at.comment = readString();
+                at.annotations = readAnnotations();
+                at.items = readString();
+                at.size = readOptInt();
+                at.minSize = readOptInt();
+                at.maxSize = readOptInt();
+                return new Type(at);
+            case EnumTypeDef:
+                EnumTypeDef et = new EnumTypeDef();
+                et.type = readString();
+                et.name = readString();
+                et.comment = readString();
+                et.annotations = readAnnotations();
+                n = readCount();
+                if (n > 0) {
+                    et.elements = new ArrayList<EnumElementDef>(n - 1);
+                    for (int i = 1; i < n; i++) {
+                        EnumElementDef e = new EnumElementDef();
+                        e.symbol = readString();
+                        e.comment = readString();
+                        e.annotations = readAnnotations();
+                        et.elements.add(e);
+                    }
+                }
+                return new Type(et);
+            case UnionTypeDef:
+                UnionTypeDef ut = new UnionTypeDef();
+                ut.type = readString();
+                ut.name = readString();
+                ut.comment = readString();
+                ut.annotations = readAnnotations();
+                ut.variants = readStrings();
+                return new Type(ut);
+            case StringTypeDef:
+                StringTypeDef str = new StringTypeDef();
+                str.type = readString();
+                str.name = readString();
+                str.comment = readString();
+                str.annotations = readAnnotations();
+                str.pattern = readString();
+                str.values = readStrings();
+                str.minSize = readOptInt();
+                str.maxSize = readOptInt();
+                return new Type(str);
+            case BytesTypeDef:
+                BytesTypeDef bt = new BytesTypeDef();
+                bt.type = readString();
+                bt.name = readString();
+                bt.comment = readString();
+                bt.annotations = readAnnotations();
+                bt.size = readOptInt();
+                bt.minSize = readOptInt();
+                bt.maxSize = readOptInt();
+                return new Type(bt);
+            case NumberTypeDef:
+                NumberTypeDef nt = new NumberTypeDef();
+                nt.type = readString();
+                nt.name = readString();
+                nt.comment = readString();
+                nt.annotations = readAnnotations();
+                nt.min = readNumber();
+                nt.max = readNumber();
+                return new Type(nt);
+            default:
+                AliasTypeDef alt = new AliasTypeDef();
+                alt.type = readString();
+                alt.name = readString();
+                alt.comment = readString();
+                alt.annotations = readAnnotations();
+                return new Type(alt);
+            }
+        }
+
+        Resource readResource() {
+            Resource r = new Resource();
+            r.type = readString();
+            r.method = readString();
+            r.path = readString();
+            r.comment = readString();
+            int n = readCount();
+            if (n > 0) {
+                r.inputs = new ArrayList<ResourceInput>(n - 1);
+                for (int i = 1; i < n; i++) {
+                    ResourceInput in = new ResourceInput();
+                    in.name = readString();
+                    in.type = readString();
+                    in.comment = readString();
+                    in.pathParam = readBool();
+                    in.queryParam = readString();
+                    in.header = readString();
+                    in.pattern = readString();
+                    in._default = readValue();
+                    in.optional = readBool();
+                    in.flag = readBool();
+                    in.context = readString();
+                    in.annotations = readAnnotations();
+                    r.inputs.add(in);
+                }
+            }
+            n = readCount();
+            if (n > 0) {
+                r.outputs = new ArrayList<ResourceOutput>(n - 1);
+                for (int i = 1; i < n; i++) {
+                    ResourceOutput out = new ResourceOutput();
+                    out.name = readString();
+                    out.type = readString();
+                    out.header = readString();
+                    out.comment = readString();
+                    out.optional = readBool();
+                    out.annotations = readAnnotations();
+                    r.outputs.add(out);
+                }
+            }
+            if (readBool()) {
+                ResourceAuth auth = new ResourceAuth();
+                auth.authenticate = readBool();
+                auth.action = readString();
+                auth.resource = readString();
+                auth.domain = readString();
+                r.auth = auth;
+            }
+            r.expected = readString();
+            r.alternatives = readStrings();
+            n = readCount();
+            if (n > 0) {
+                r.exceptions = new LinkedHashMap<String,ExceptionDef>();
+                for (int i = 1; i < n; i++) {
+                    String k = readString();
+                    ExceptionDef e = new ExceptionDef();
+                    e.type = readString();
+                    e.comment = readString();
+                    r.exceptions.put(k, e);
+                }
+            }
+            r.async = readOptBool();
+            r.annotations = readAnnotations();
+            r.consumes = readStrings();
+            r.produces = readStrings();
+            r.name = readString();
+            return r;
+        }
+    }
+}
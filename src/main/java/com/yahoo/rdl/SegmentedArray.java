@@ -0,0 +1,258 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An Array for very large numbers of items, stored in fixed-size segments rather than one
+ * contiguous Object[]. Growing never copies the items, only the (small) segment directory,
+ * and no single allocation is large enough to be treated as a humongous object by G1.
+ * Array.withCapacity returns one of these for large capacities.
+ * <p>
+ * As with Array, slices are views that share the segments with the original until either one
+ * is modified, so paging through a large array does not copy it.
+ */
+public class SegmentedArray extends Array {
+
+    static final int SEGMENT_BITS = 12;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private Object[][] segments;
+    private int count;
+    private int offset; //non-zero only for slices
+    private boolean shared; //the segments are shared with a slice or parent, copy before modifying
+
+    public SegmentedArray(int cap) {
+        super(null, 0);
+        int n = (cap >>> SEGMENT_BITS) + 1;
+        segments = new Object[n][];
+    }
+
+    public SegmentedArray() {
+        this(SEGMENT_SIZE);
+    }
+
+    public SegmentedArray(List<Object> lst) {
+        this(lst.size());
+        addAll(lst);
+    }
+
+    //a slice, sharing the parent's segments
+    private SegmentedArray(SegmentedArray parent, int offset, int count) {
+        super(null, 0);
+        this.segments = parent.segments;
+        this.offset = offset;
+        this.count = count;
+        this.shared = true;
+    }
+
+    //take a private copy of the items, starting at segment 0, before modifying them
+    private void unshare() {
+        Object[][] newSegments = new Object[(count >>> SEGMENT_BITS) + 1][];
+        for (int i = 0; i < count; i += SEGMENT_SIZE) {
+            Object[] seg = new Object[SEGMENT_SIZE];
+            int n = Math.min(SEGMENT_SIZE, count - i);
+            int done = 0;
+            while (done < n) {
+                int pos = offset + i + done;
+                int off = pos & SEGMENT_MASK;
+                int len = Math.min(SEGMENT_SIZE - off, n - done);
+                System.arraycopy(segments[pos >>> SEGMENT_BITS], off, seg, done, len);
+                done += len;
+            }
+            newSegments[i >>> SEGMENT_BITS] = seg;
+        }
+        segments = newSegments;
+        offset = 0;
+        shared = false;
+    }
+
+    private void checkIndex(int idx) {
+        if (idx < 0 || idx >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Object get(int idx) {
+        checkIndex(idx);
+        int pos = offset + idx;
+        return segments[pos >>> SEGMENT_BITS][pos & SEGMENT_MASK];
+    }
+
+    public Object set(int idx, Object o) {
+        checkIndex(idx);
+        if (shared) {
+            unshare();
+        }
+        Object[] seg = segments[idx >>> SEGMENT_BITS];
+        Object result = seg[idx & SEGMENT_MASK];
+        seg[idx & SEGMENT_MASK] = o;
+        return result;
+    }
+
+    public boolean add(Object o) {
+        if (shared) {
+            unshare();
+        }
+        int s = count >>> SEGMENT_BITS;
+        if (s == segments.length) {
+            segments = Arrays.copyOf(segments, newCapacity(segments.length, s + 1));
+        }
+        Object[] seg = segments[s];
+        if (seg == null) {
+            seg = new Object[SEGMENT_SIZE];
+            segments[s] = seg;
+        }
+        seg[count & SEGMENT_MASK] = o;
+        count++;
+        return true;
+    }
+
+    public void add(int index, Object o) {
+        if (index > count || index < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        add(null);
+        //shift [index, last) up by one, carrying the top item of each segment into the next
+        int last = count - 1;
+        int lastSeg = last >>> SEGMENT_BITS;
+        int firstSeg = index >>> SEGMENT_BITS;
+        for (int s = lastSeg; s > firstSeg; s--) {
+            Object[] seg = segments[s];
+            System.arraycopy(seg, 0, seg, 1, (s == lastSeg) ? (last & SEGMENT_MASK) : SEGMENT_MASK);
+            seg[0] = segments[s - 1][SEGMENT_MASK];
+        }
+        Object[] seg = segments[firstSeg];
+        int off = index & SEGMENT_MASK;
+        int end = (firstSeg == lastSeg) ? (last & SEGMENT_MASK) : SEGMENT_MASK;
+        System.arraycopy(seg, off, seg, off + 1, end - off);
+        seg[off] = o;
+    }
+
+    public boolean addAll(int index, java.util.Collection<? extends Object> c) {
+        if (index > count || index < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (index == count) {
+            return addAll(c);
+        }
+        Object[] items = c.toArray(); //a snapshot, c may be this array
+        int m = items.length;
+        if (m == 0) {
+            return false;
+        }
+        if (shared) {
+            unshare();
+        }
+        int lastSeg = (count + m - 1) >>> SEGMENT_BITS;
+        if (lastSeg >= segments.length) {
+            segments = Arrays.copyOf(segments, newCapacity(segments.length, lastSeg + 1));
+        }
+        for (int s = count >>> SEGMENT_BITS; s <= lastSeg; s++) {
+            if (segments[s] == null) {
+                segments[s] = new Object[SEGMENT_SIZE];
+            }
+        }
+        //shift [index, count) up by m once, from the top down, then copy the items into the gap
+        int len = count - index;
+        while (len > 0) {
+            int src = index + len;
+            int dst = src + m;
+            int n = Math.min(len, Math.min(((src - 1) & SEGMENT_MASK) + 1, ((dst - 1) & SEGMENT_MASK) + 1));
+            System.arraycopy(segments[(src - n) >>> SEGMENT_BITS], (src - n) & SEGMENT_MASK, segments[(dst - n) >>> SEGMENT_BITS], (dst - n) & SEGMENT_MASK, n);
+            len -= n;
+        }
+        for (int done = 0; done < m; ) {
+            int pos = index + done;
+            int n = Math.min(m - done, SEGMENT_SIZE - (pos & SEGMENT_MASK));
+            System.arraycopy(items, done, segments[pos >>> SEGMENT_BITS], pos & SEGMENT_MASK, n);
+            done += n;
+        }
+        count += m;
+        return true;
+    }
+
+    public Object remove(int index) {
+        checkIndex(index);
+        if (shared) {
+            unshare();
+        }
+        //shift (index, last] down by one, carrying the bottom item of each segment into the previous
+        int last = count - 1;
+        int lastSeg = last >>> SEGMENT_BITS;
+        int firstSeg = index >>> SEGMENT_BITS;
+        Object[] seg = segments[firstSeg];
+        int off = index & SEGMENT_MASK;
+        Object result = seg[off];
+        int end = (firstSeg == lastSeg) ? (last & SEGMENT_MASK) : SEGMENT_MASK;
+        System.arraycopy(seg, off + 1, seg, off, end - off);
+        for (int s = firstSeg + 1; s <= lastSeg; s++) {
+            seg = segments[s];
+            segments[s - 1][SEGMENT_MASK] = seg[0];
+            System.arraycopy(seg, 1, seg, 0, (s == lastSeg) ? (last & SEGMENT_MASK) : SEGMENT_MASK);
+        }
+        segments[lastSeg][last & SEGMENT_MASK] = null;
+        count--;
+        return result;
+    }
+
+    public void clear() {
+        if (shared) {
+            segments = new Object[1][];
+            offset = 0;
+            shared = false;
+        } else {
+            Arrays.fill(segments, null);
+        }
+        count = 0;
+    }
+
+    /**
+     * Return the items from start up to (not including) end. This is O(1): the result is a
+     * SegmentedArray sharing the segments with this one until either of them is modified.
+     * @param start the index of the first item. Negative values are treated as 0.
+     * @param end the index after the last item. Negative or out of range values are treated as the size.
+     * @return the slice
+     */
+    public Array slice(int start, int end) {
+        if (start < 0) {
+            start = 0;
+        }
+        if (end > count || end < 0) {
+            end = count;
+        }
+        if (end < start) {
+            end = start;
+        }
+        shared = true;
+        return new SegmentedArray(this, offset + start, end - start);
+    }
+
+    public Array compact() {
+        int n = (count >>> SEGMENT_BITS) + 1;
+        if (shared) {
+            unshare();
+        } else if (n < segments.length) {
+            segments = Arrays.copyOf(segments, n);
+        }
+        return this;
+    }
+
+    public java.util.Spliterator<Object> spliterator() {
+        return new IndexSpliterator(this, 0, count, 0);
+    }
+
+    public java.util.Iterator<Object> iterator() {
+        return listIterator();
+    }
+}
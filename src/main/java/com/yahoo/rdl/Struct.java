@@ -6,6 +6,22 @@
 package com.yahoo.rdl;
 import java.util.Iterator;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.JsonTokenId;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
  * A Struct is a structured value, with named fields.
@@ -13,13 +29,17 @@ import java.util.Arrays;
  * Because the field order is definite, Structs congruent with each other
  * can be compared to produce a definite order.
  */
+@JsonSerialize(using = Struct.StructJsonSerializer.class)
+@JsonDeserialize(using = Struct.StructJsonDeserializer.class)
 public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Object> {
     private static final int MIN_CAP = 16;
-    private static final int MAX_GROWTH = 128;
+    private static final int INDEX_THRESHOLD = 12; //wider structs get a hash index for name lookup
 
     private String [] names;
     private Object [] values;
     private int count;
+    private Shape shape; //if non-null, names is shared with the shape and must not be modified
+    private FieldIndex index; //lazily built for wide structs without a shape
 
     public Struct(int cap) {
         int n = (cap < MIN_CAP) ? MIN_CAP : cap;
@@ -31,13 +51,221 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
     public Struct() {
         this(MIN_CAP);
     }
+
+    /**
+     * Create a Struct with the given shape. The field names are shared with the shape, and
+     * only the values array, sized exactly, belongs to this instance. All values start out null.
+     * @param shape the shape of the struct
+     */
+    public Struct(Shape shape) {
+        this.shape = shape;
+        this.names = shape.names;
+        this.values = new Object[shape.names.length];
+        this.count = shape.names.length;
+    }
+
+    //for subclasses that provide their own storage
+    Struct(String [] names, Object [] values, int count) {
+        this.names = names;
+        this.values = values;
+        this.count = count;
+    }
+
+    private Struct(Shape shape, Object [] values) {
+        this.shape = shape;
+        this.names = shape.names;
+        this.values = values;
+        this.count = values.length;
+    }
+
+    /**
+     * Create a Struct from parallel arrays of names and values, taking ownership of the arrays.
+     * If the names correspond to a shareable shape, the struct uses the interned shape instead
+     * of the names array. This is intended for decoders producing many records of the same layout.
+     * @param names the field names. Duplicates are allowed, the last one wins.
+     * @param values the field values
+     * @param count the number of fields present in the arrays
+     * @return the new Struct
+     */
+    public static Struct fromFields(String [] names, Object [] values, int count) {
+        Shape shape = Shape.of(names, count);
+        if (shape != null) {
+            if (values.length != count) {
+                values = Arrays.copyOf(values, count);
+            }
+            return new Struct(shape, values);
+        }
+        Struct s = new Struct(count);
+        for (int i = 0; i < count; i++) {
+            s.put(names[i], values[i]);
+        }
+        return s;
+    }
+
+    /**
+     * @return the shared shape of this struct, or null if it has its own private layout.
+     */
+    public Shape shape() {
+        return shape;
+    }
+
+    /**
+     * Set the value of the field at the given position, as defined by the struct's field order.
+     * @param slot the field position
+     * @param val the value
+     */
+    public void setValueAt(int slot, Object val) {
+        if (slot < 0 || slot >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+        values[slot] = val;
+    }
+
+    /**
+     * Get the value of the field at the given position, as defined by the struct's field order.
+     * @param slot the field position
+     * @return the value
+     */
+    public Object valueAt(int slot) {
+        if (slot < 0 || slot >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+        return values[slot];
+    }
+
+    /**
+     * @param slot the field position
+     * @return the name of the field at the given position
+     */
+    public String nameAt(int slot) {
+        if (slot < 0 || slot >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+        return names[slot];
+    }
+
+    // make the names private to this instance before modifying them
+    private void unshare(int cap) {
+        if (cap < MIN_CAP) {
+            cap = MIN_CAP;
+        }
+        names = Arrays.copyOf(names, cap);
+        values = Arrays.copyOf(values, cap);
+        shape = null;
+        index = null;
+    }
+
+    /**
+     * A Shape is an immutable, interned layout of field names shared by all structs
+     * built with the same names in the same order, much like the hidden classes of a
+     * dynamic language runtime. Shapes are reached from the empty shape by a chain of
+     * cached transitions, one per field name, so equal layouts always yield the identical
+     * Shape instance. The name to slot mapping is precomputed.
+     * <p>
+     * The shape tree is bounded: in the width of a shape, in the transitions from each shape, and
+     * in the total number of shapes. Once a limit is reached, structs that would need a new
+     * shape get a private layout instead.
+     */
+    public static final class Shape {
+        static final int MAX_FIELDS = 64; //wider structs keep a private layout
+        static final int MAX_TRANSITIONS = 64; //avoid unbounded growth with data-like keys
+        static final int MAX_SHAPES = 16384; //the budget for all shapes, a few MB at most
+        private static final AtomicInteger shapeCount = new AtomicInteger();
+
+        public static final Shape EMPTY = new Shape(new String[0]);
+
+        final String [] names;
+        private final FieldIndex index;
+        private final ConcurrentHashMap<String, Shape> transitions;
+
+        private Shape(String [] names) {
+            this.names = names;
+            int n = names.length;
+            this.index = (n == 0) ? null : new FieldIndex(names, n);
+            this.transitions = (n < MAX_FIELDS) ? new ConcurrentHashMap<String, Shape>() : null;
+        }
+
+        /**
+         * @return the number of fields in this shape
+         */
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * @param slot the field position
+         * @return the name of the field at the position
+         */
+        public String name(int slot) {
+            return names[slot];
+        }
+
+        /**
+         * @param name the field name
+         * @return the position of the named field, or -1 if it is not present
+         */
+        public int slot(String name) {
+            if (index == null) {
+                return -1;
+            }
+            return index.find(names, name);
+        }
+
+        /**
+         * Return the shape resulting from appending the named field to this one.
+         * @param name the name of the new field
+         * @return the extended shape, or null if the name is already present or limits are exceeded
+         */
+        public Shape extend(String name) {
+            if (transitions == null) {
+                return null;
+            }
+            Shape next = transitions.get(name);
+            if (next == null) {
+                if (transitions.size() >= MAX_TRANSITIONS || slot(name) >= 0 || shapeCount.get() >= MAX_SHAPES) {
+                    return null;
+                }
+                String [] n = Arrays.copyOf(names, names.length + 1);
+                n[names.length] = name;
+                next = new Shape(n);
+                Shape prev = transitions.putIfAbsent(name, next);
+                if (prev != null) {
+                    next = prev;
+                } else {
+                    shapeCount.incrementAndGet(); //racing threads may overshoot the budget slightly
+                }
+            }
+            return next;
+        }
+
+        /**
+         * Return the interned shape for the names, in order.
+         * @param names the field names
+         * @return the shape, or null if the names cannot be represented as a shared shape.
+         */
+        public static Shape of(String ... names) {
+            return of(names, names.length);
+        }
+
+        static Shape of(String [] names, int count) {
+            Shape s = EMPTY;
+            for (int i = 0; i < count && s != null; i++) {
+                s = s.extend(names[i]);
+            }
+            return s;
+        }
+
+        public String toString() {
+            return "<Shape " + Arrays.toString(names) + ">";
+        }
+    }
     
     public int size() {
         return count;
     }
 
     public boolean isEmpty() {
-        return count == 0;
+        return size() == 0;
     }
 
     public class TypedArrayIterator<T> implements Iterator<T> {
@@ -73,23 +301,25 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
     }
 
     public java.util.Collection<Object> values() {
-        java.util.ArrayList<Object> lst = new java.util.ArrayList<Object>(count);
-        for (int i = 0; i < count; i++) {
-            lst.add(values[i]);
+        java.util.ArrayList<Object> lst = new java.util.ArrayList<Object>(size());
+        for (Field f : this) {
+            lst.add(f.value());
         }
         return lst;
     }
 
     public class Field {
-        private int idx;
-        private Field(int i) {
-            idx = i;
+        private final String name;
+        private final Object value;
+        Field(String name, Object value) {
+            this.name = name;
+            this.value = value;
         }
         public String name() {
-            return names[idx];
+            return name;
         }
         public Object value() {
-            return values[idx];
+            return value;
         }
     }
 
@@ -102,7 +332,9 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
             return pos < count;
         }
         public Struct.Field next() {
-            return new Field(pos++);
+            Field f = new Field(names[pos], values[pos]);
+            pos++;
+            return f;
         }
         public void remove() throws UnsupportedOperationException {
             throw new UnsupportedOperationException();
@@ -113,6 +345,70 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
         return new StructIterator();
     }
 
+    /**
+     * The spliterator is SIZED, SUBSIZED, and ORDERED, and splits the fields exactly in half.
+     * Modifying a struct while streaming its fields is not supported.
+     */
+    @Override
+    public java.util.Spliterator<Struct.Field> spliterator() {
+        return new FieldSpliterator(names, values, 0, count);
+    }
+
+    /**
+     * @return a sequential stream of the fields, in order
+     */
+    public java.util.stream.Stream<Struct.Field> fieldStream() {
+        return java.util.stream.StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel stream of the fields
+     */
+    public java.util.stream.Stream<Struct.Field> parallelFieldStream() {
+        return java.util.stream.StreamSupport.stream(spliterator(), true);
+    }
+
+    class FieldSpliterator implements java.util.Spliterator<Struct.Field> {
+        private final String [] names;
+        private final Object [] values;
+        private int index;
+        private final int fence;
+
+        FieldSpliterator(String [] names, Object [] values, int from, int to) {
+            this.names = names;
+            this.values = values;
+            this.index = from;
+            this.fence = to;
+        }
+
+        public boolean tryAdvance(java.util.function.Consumer<? super Struct.Field> action) {
+            if (index < fence) {
+                action.accept(new Field(names[index], values[index]));
+                index++;
+                return true;
+            }
+            return false;
+        }
+
+        public java.util.Spliterator<Struct.Field> trySplit() {
+            int lo = index;
+            int mid = (lo + fence) >>> 1;
+            if (lo >= mid) {
+                return null;
+            }
+            index = mid;
+            return new FieldSpliterator(names, values, lo, mid);
+        }
+
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        public int characteristics() {
+            return SIZED | SUBSIZED | ORDERED | NONNULL;
+        }
+    }
+
     /**
      * An optimized appender. Be careful to not introduce duplicate names!
      * @param name the field name
@@ -120,17 +416,21 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
      */
     public void append(String name, Object val) {
         if (count == names.length) {
-            int oldCap = names.length;
-            int newCap = (oldCap < MAX_GROWTH) ? oldCap * 2 : oldCap + MAX_GROWTH;
+            int newCap = Array.newCapacity(names.length, count + 1);
             String [] newNames = new String[newCap];
             System.arraycopy(names, 0, newNames, 0, count);
             Object [] newValues = new Object[newCap];
             System.arraycopy(values, 0, newValues, 0, count);
             names = newNames;
             values = newValues;
+            shape = null;
         }
         names[count] = name;
-        values[count++] = val;
+        values[count] = val;
+        if (index != null) {
+            index.add(names, count);
+        }
+        count++;
     }
 
     public Object put(String name, Object val) {
@@ -153,6 +453,10 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
         int i = find(name);
         if (i >= 0) {
             result = values[i];
+            if (shape != null) {
+                unshare(count);
+            }
+            index = null;
             count--;
             if (i < count) {
                 System.arraycopy(names, i + 1, names, i, count - i);
@@ -209,8 +513,9 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
                 sb.append("\n");
                 sb.append(newIndent);
             }
-            for (int i = 0; i < count; i++) {
-                if (i > 0) {
+            boolean first = true;
+            for (Field f : this) {
+                if (!first) {
                     if (newIndent != null) {
                         sb.append(",\n");
                         sb.append(newIndent);
@@ -218,9 +523,10 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
                         sb.append(", ");
                     }
                 }
-                sb.append(names[i]);
+                first = false;
+                sb.append(f.name());
                 sb.append(": ");
-                Value.appendToString(values[i], sb, newIndent);
+                Value.appendToString(f.value(), sb, newIndent);
             }
             if (newIndent != null) {
                 sb.append("\n");
@@ -236,7 +542,16 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
         }
         if (another instanceof Struct) {
             Struct other = (Struct) another;
-            if (count == other.count) {
+            if (count == other.size()) {
+                if (shape != null && shape == other.shape) {
+                    //same layout: compare positionally, no lookups needed
+                    for (int i = 0; i < count; i++) {
+                        if (!Value.equals(values[i], other.values[i])) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
                 for (int i = 0; i < count; i++) {
                     String k = names[i];
                     Object v = values[i];
@@ -256,20 +571,43 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
         return false;
     }
 
+    /**
+     * Return an immutable copy of this struct. Nested Structs and Arrays are frozen as well, so
+     * the result can be shared across threads without defensive copies. Derive variants of it
+     * with with() and without(), which return new instances sharing most of their structure.
+     * @return the frozen struct
+     */
+    public ImmutableStruct freeze() {
+        return ImmutableStruct.copyOf(this);
+    }
+
     public boolean has(String name) {
         return find(name) >= 0;
     }
 
     public String [] sortedNames() {
-        String [] result = new String[count];
-        System.arraycopy(names, 0, result, 0, count);
+        String [] result = new String[size()];
+        int i = 0;
+        for (Field f : this) {
+            result[i++] = f.name();
+        }
         Arrays.sort(result);
         return result;
     }
 
     private int find(String name) {
+        if (shape != null) {
+            return shape.slot(name);
+        }
+        if (count > INDEX_THRESHOLD) {
+            if (index == null) {
+                index = new FieldIndex(names, count);
+            }
+            return index.find(names, name);
+        }
         for (int i = 0; i < count; i++) {
-            if (name.equals(names[i])) {
+            String n = names[i];
+            if (n == name || name.equals(n)) {
                 return i;
             }
         }
@@ -415,19 +753,25 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
     }
     public java.util.Set<java.util.Map.Entry<String, Object>> entrySet() {
         java.util.HashSet<java.util.Map.Entry<String, Object>> set = new java.util.HashSet<java.util.Map.Entry<String, Object>>();
-        for (int i = 0; i < count; i++) {
-            set.add(new Entry(names[i], values[i]));
+        for (Field f : this) {
+            set.add(new Entry(f.name(), f.value()));
         }
         return set;
     }
     public java.util.Set<String> keySet() {
         java.util.HashSet<String> set = new java.util.HashSet<String>();
-        for (int i = 0; i < count; i++) {
-            set.add(names[i]);
+        for (Field f : this) {
+            set.add(f.name());
         }
         return set;
     }
     public void clear() {
+        if (shape != null) {
+            names = new String[MIN_CAP];
+            values = new Object[MIN_CAP];
+            shape = null;
+        }
+        index = null;
         count = 0;
     }
     public Object get(Object name) {
@@ -437,20 +781,135 @@ public class Struct  implements Iterable<Struct.Field>, java.util.Map<String, Ob
         return has((String) name);
     }
     public boolean containsValue(Object value) {
-        if (value == null) {
-            for (int i = 0; i < count; i++) {
-                if (values[i] == null) {
-                    return true;
+        for (Field f : this) {
+            Object v = f.value();
+            if (value == null ? v == null : Value.equals(value, v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //writes the fields in order straight from the struct, rather than through an entry set
+    public static class StructJsonSerializer extends JsonSerializer<Struct> {
+        @Override
+        @SuppressWarnings("deprecation")
+        public void serialize(Struct value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            //nulls are left out if either the deprecated feature or the content inclusion says so
+            JsonInclude.Include content = provider.getConfig().getDefaultPropertyInclusion(Struct.class).getContentInclusion();
+            boolean writeNulls = provider.isEnabled(SerializationFeature.WRITE_NULL_MAP_VALUES)
+                && (content == JsonInclude.Include.ALWAYS || content == JsonInclude.Include.USE_DEFAULTS);
+            jgen.writeStartObject(value);
+            int n = value.size();
+            for (int i = 0; i < n; i++) {
+                Object v = value.valueAt(i);
+                if (v != null || writeNulls) {
+                    jgen.writeFieldName(value.nameAt(i));
+                    provider.defaultSerializeValue(v, jgen);
                 }
             }
-        } else {
-            for (int i = 0; i < count; i++) {
-                if (Value.equals(value, values[i])) {
-                    return true;
+            jgen.writeEndObject();
+        }
+
+        @Override
+        public boolean isEmpty(SerializerProvider provider, Struct value) {
+            return value.isEmpty();
+        }
+    }
+
+    //builds the Struct directly, with nested objects and arrays as Struct and Array
+    public static class StructJsonDeserializer extends JsonDeserializer<Struct> {
+        @Override
+        public Struct deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+            JsonToken tok = jp.currentToken();
+            if (tok == JsonToken.START_OBJECT) {
+                tok = jp.nextToken();
+            } else if (tok != JsonToken.FIELD_NAME && tok != JsonToken.END_OBJECT) {
+                return (Struct) ctxt.handleUnexpectedToken(Struct.class, jp);
+            }
+            //collect the fields, so that records with the same names share an interned shape
+            String [] names = new String[8];
+            Object [] values = new Object[8];
+            int count = 0;
+            while (tok == JsonToken.FIELD_NAME) {
+                if (count == names.length) {
+                    names = Arrays.copyOf(names, count * 2);
+                    values = Arrays.copyOf(values, count * 2);
                 }
+                names[count] = jp.getCurrentName();
+                jp.nextToken();
+                values[count++] = readValue(jp, ctxt);
+                tok = jp.nextToken();
             }
+            return Struct.fromFields(names, values, count);
+        }
+
+        @Override
+        public Struct deserialize(JsonParser jp, DeserializationContext ctxt, Struct into) throws IOException {
+            JsonToken tok = jp.currentToken();
+            if (tok == JsonToken.START_OBJECT) {
+                tok = jp.nextToken();
+            } else if (tok != JsonToken.FIELD_NAME && tok != JsonToken.END_OBJECT) {
+                return (Struct) ctxt.handleUnexpectedToken(Struct.class, jp);
+            }
+            while (tok == JsonToken.FIELD_NAME) {
+                String name = jp.getCurrentName();
+                jp.nextToken();
+                into.put(name, readValue(jp, ctxt));
+                tok = jp.nextToken();
+            }
+            return into;
+        }
+
+        /**
+         * Read the value at the current token, producing Struct and Array for JSON objects and arrays.
+         * Scalars are read as Jackson reads untyped values.
+         */
+        static Object readValue(JsonParser jp, DeserializationContext ctxt) throws IOException {
+            switch (jp.currentTokenId()) {
+            case JsonTokenId.ID_START_OBJECT:
+                return ctxt.readValue(jp, Struct.class);
+            case JsonTokenId.ID_START_ARRAY:
+                return ctxt.readValue(jp, Array.class);
+            case JsonTokenId.ID_STRING:
+                return jp.getText();
+            case JsonTokenId.ID_NUMBER_INT:
+                if (ctxt.isEnabled(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS)) {
+                    return jp.getBigIntegerValue();
+                }
+                if (ctxt.isEnabled(DeserializationFeature.USE_LONG_FOR_INTS) && jp.getNumberType() == JsonParser.NumberType.INT) {
+                    return jp.getLongValue();
+                }
+                return jp.getNumberValue();
+            case JsonTokenId.ID_NUMBER_FLOAT:
+                if (ctxt.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)) {
+                    return jp.getDecimalValue();
+                }
+                return jp.getNumberValue(); //a Double from JSON, but binary formats may have Floats
+            case JsonTokenId.ID_TRUE:
+                return Boolean.TRUE;
+            case JsonTokenId.ID_FALSE:
+                return Boolean.FALSE;
+            case JsonTokenId.ID_NULL:
+                return null;
+            case JsonTokenId.ID_FIELD_NAME: //an object whose start was already read
+            case JsonTokenId.ID_END_OBJECT:
+                return ctxt.readValue(jp, Struct.class);
+            case JsonTokenId.ID_EMBEDDED_OBJECT:
+                return jp.getEmbeddedObject();
+            default:
+                return ctxt.handleUnexpectedToken(Object.class, jp);
+            }
+        }
+    }
+
+    //reads untyped values, such as JSON.fromBytes(data, Object.class), as Struct and Array
+    //rather than Jackson's LinkedHashMap and ArrayList
+    static class UntypedJsonDeserializer extends JsonDeserializer<Object> {
+        @Override
+        public Object deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+            return StructJsonDeserializer.readValue(jp, ctxt);
         }
-        return false;
     }
 
 }
@@ -7,6 +7,7 @@ package com.yahoo.rdl;
 import java.util.concurrent.ConcurrentHashMap;
 import java.io.IOException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.DeserializationContext;
@@ -50,6 +51,9 @@ public final class Symbol {
     public static class SymbolJsonDeserializer extends JsonDeserializer<Symbol> {
         @Override
         public Symbol deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
+            if (jp.hasToken(JsonToken.VALUE_EMBEDDED_OBJECT) && jp.getEmbeddedObject() instanceof Symbol) {
+                return (Symbol) jp.getEmbeddedObject();
+            }
             String s = jp.getText();
             return intern(s);
         }
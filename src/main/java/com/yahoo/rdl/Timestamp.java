@@ -12,6 +12,7 @@ import java.util.TimeZone;
 import java.util.Date;
 import java.io.IOException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.DeserializationContext;
@@ -34,17 +35,135 @@ public class Timestamp {
     public static class TimestampJsonSerializer extends JsonSerializer<Timestamp> {
         @Override
         public void serialize(Timestamp value, JsonGenerator jgen, SerializerProvider provider) throws IOException, JsonProcessingException {
-            jgen.writeString(value.toString());
+            jgen.writeString(value.repr);
         }
     }
     public static class TimestampJsonDeserializer extends JsonDeserializer<Timestamp> {
         @Override
         public Timestamp deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
+            if (jp.hasToken(JsonToken.VALUE_EMBEDDED_OBJECT) && jp.getEmbeddedObject() instanceof Timestamp) {
+                return (Timestamp) jp.getEmbeddedObject(); //from a binary format with a native timestamp
+            }
+            if (jp.hasToken(JsonToken.VALUE_STRING)) {
+                //parse straight from the parser's buffer, the common forms need no intermediate String
+                long millis = parseMillis(jp.getTextCharacters(), jp.getTextOffset(), jp.getTextLength());
+                if (millis != NO_MILLIS) {
+                    return fromMillis(millis);
+                }
+            }
             String s = jp.getText();
             return Timestamp.fromString(s);
         }
     }
 
+    static final long NO_MILLIS = Long.MIN_VALUE;
+    private static final long MILLIS_PER_DAY = 86400000L;
+    //the fast paths cover 4 digit years where the proleptic Gregorian calendar agrees with GregorianCalendar
+    private static final long MIN_FAST_MILLIS = daysFromCivil(1600, 1, 1) * MILLIS_PER_DAY;
+    private static final long MAX_FAST_MILLIS = daysFromCivil(10000, 1, 1) * MILLIS_PER_DAY;
+
+    //days since 1970-01-01 for the given date, for years after 0
+    static long daysFromCivil(int year, int month, int day) {
+        int y = (month <= 2) ? year - 1 : year;
+        int era = y / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    private static int digits(char [] buf, int off, int n) {
+        int v = 0;
+        for (int i = off; i < off + n; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    /**
+     * Parse the common RFC 3339 forms, "yyyy-MM-ddTHH:mm:ss[.SSS]" followed by either "Z" or
+     * a "+HH:MM" offset, without going through SimpleDateFormat.
+     * @return the millis since epoch, or NO_MILLIS if the text is not in one of those forms
+     */
+    static long parseMillis(char [] buf, int off, int len) {
+        if (len != 20 && len != 24 && len != 25 && len != 29) {
+            return NO_MILLIS;
+        }
+        if (buf[off + 4] != '-' || buf[off + 7] != '-' || buf[off + 10] != 'T' || buf[off + 13] != ':' || buf[off + 16] != ':') {
+            return NO_MILLIS;
+        }
+        int year = digits(buf, off, 4);
+        int month = digits(buf, off + 5, 2);
+        int day = digits(buf, off + 8, 2);
+        int hour = digits(buf, off + 11, 2);
+        int min = digits(buf, off + 14, 2);
+        int sec = digits(buf, off + 17, 2);
+        int ms = 0;
+        int p = off + 19;
+        if (len == 24 || len == 29) {
+            if (buf[p] != '.') {
+                return NO_MILLIS;
+            }
+            ms = digits(buf, p + 1, 3);
+            p += 4;
+        }
+        int zone = 0;
+        if (len == 20 || len == 24) {
+            if (buf[p] != 'Z') {
+                return NO_MILLIS;
+            }
+        } else {
+            char sign = buf[p];
+            int zh = digits(buf, p + 1, 2);
+            int zm = digits(buf, p + 4, 2);
+            if ((sign != '+' && sign != '-') || buf[p + 3] != ':' || zh < 0 || zh > 23 || zm < 0 || zm > 59) {
+                return NO_MILLIS;
+            }
+            zone = (sign == '-') ? -(zh * 60 + zm) : zh * 60 + zm;
+        }
+        if (year < 1600 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+            || min < 0 || min > 59 || sec < 0 || sec > 59 || ms < 0) {
+            return NO_MILLIS;
+        }
+        long secs = daysFromCivil(year, month, day) * 86400L + hour * 3600 + (min - zone) * 60 + sec;
+        return secs * 1000 + ms;
+    }
+
+    private static void put(char [] buf, int off, int n, int v) {
+        for (int i = off + n - 1; i >= off; i--) {
+            buf[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+    }
+
+    //format as "yyyy-MM-ddTHH:mm:ss.SSSZ", only valid between MIN_FAST_MILLIS and MAX_FAST_MILLIS
+    private static String formatMillis(long millis) {
+        long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+        int msOfDay = (int) Math.floorMod(millis, MILLIS_PER_DAY);
+        long z = days + 719468;
+        int era = (int) (z / 146097);
+        int doe = (int) (z - era * 146097L);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = (mp < 10) ? mp + 3 : mp - 9;
+        int year = yoe + era * 400 + ((month <= 2) ? 1 : 0);
+        char [] buf = "0000-00-00T00:00:00.000Z".toCharArray();
+        put(buf, 0, 4, year);
+        put(buf, 5, 2, month);
+        put(buf, 8, 2, day);
+        put(buf, 11, 2, msOfDay / 3600000);
+        put(buf, 14, 2, (msOfDay / 60000) % 60);
+        put(buf, 17, 2, (msOfDay / 1000) % 60);
+        put(buf, 20, 3, msOfDay % 1000);
+        return new String(buf);
+    }
+
     private static String num(int n, int width) {
         String s = String.valueOf(n);
         while (s.length() < width) {
@@ -96,6 +215,12 @@ public class Timestamp {
         }
     }
     public static Timestamp fromString(String s) {
+        if (s != null) {
+            long millis = parseMillis(s.toCharArray(), 0, s.length());
+            if (millis != NO_MILLIS) {
+                return fromMillis(millis);
+            }
+        }
         Date d = rfc3339ToDate(s);
         if (d == null) {
             return null;
@@ -107,6 +232,11 @@ public class Timestamp {
         return fromMillis(millis);
     }
     public static Timestamp fromMillis(long millis) {
+        if (millis >= MIN_FAST_MILLIS && millis < MAX_FAST_MILLIS) {
+            Timestamp t = new Timestamp(formatMillis(millis));
+            t.normalizedMillis = millis;
+            return t;
+        }
         Calendar cal = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
         cal.setTimeInMillis(millis);
         int year = cal.get(Calendar.YEAR);
@@ -167,6 +297,11 @@ public class Timestamp {
         if (normalizedMillis == UNINITIALIZED) {
             synchronized (this) {
                 if (normalizedMillis == UNINITIALIZED) {
+                    long millis = parseMillis(repr.toCharArray(), 0, repr.length());
+                    if (millis != NO_MILLIS) {
+                        normalizedMillis = millis;
+                        return millis;
+                    }
                     Date d = rfc3339ToDate(repr);
                     if (d == null) {
                         return 0;
@@ -4,15 +4,36 @@
  */
 
 package com.yahoo.rdl;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 /**
  * A class to look up types in a schema.
+ * <p>
+ * The types are resolved once, when the registry is created, into a graph of TypeInfo: every
+ * type, including the base types, gets a dense integer id, and references to other types (the
+ * supertype, alias target, array items, map keys and items, union variants, and struct field
+ * types) are resolved to their TypeInfo. Struct fields are flattened, the inherited fields
+ * first. A TypeRegistry is immutable once created, and may be shared between threads, and by
+ * the Validator and codecs for the schema.
  */
 public class TypeRegistry {
-    Schema schema;
-    Map<String,Type> types;
+    final Schema schema;
+    private final Map<String,TypeInfo> byName;
+    private final TypeInfo [] byId;
 
     /**
      * Create a new TypeRegistry based on the specified Schema
@@ -20,13 +41,37 @@ public class TypeRegistry {
      */
     public TypeRegistry(Schema schema) {
         this.schema = schema;
-        this.types = new HashMap<String,Type>();
+        this.byName = new HashMap<String,TypeInfo>();
+        List<TypeInfo> infos = new ArrayList<TypeInfo>();
+        for (BaseType bt : BaseType.values()) {
+            TypeInfo ti = new TypeInfo(infos.size(), bt.name(), null);
+            ti.baseType = bt;
+            ti.resolved = ti;
+            infos.add(ti);
+            byName.put(ti.name, ti);
+        }
         if (schema.types != null) {
             for (Type t : schema.types) {
                 String name = typeName(t);
-                types.put(name, t);
+                if (name == null || t.variant == Type.TypeVariant.BaseType) {
+                    continue; //the base types are always present
+                }
+                TypeInfo ti = new TypeInfo(infos.size(), name, t);
+                infos.add(ti);
+                byName.put(name, ti);
             }
         }
+        this.byId = infos.toArray(new TypeInfo[infos.size()]);
+        for (TypeInfo ti : byId) {
+            resolve(ti);
+        }
+    }
+
+    /**
+     * @return the schema the types are from
+     */
+    public Schema schema() {
+        return schema;
     }
 
     /**
@@ -35,7 +80,40 @@ public class TypeRegistry {
      * @return the type for the name, or null if not found.
      */
     public Type findType(String name) {
-        return types.get(name);
+        TypeInfo ti = byName.get(name);
+        return (ti == null) ? null : ti.type;
+    }
+
+    /**
+     * @param name the name of a type of the schema, or of a base type
+     * @return the resolved type for the name, or null if not found.
+     */
+    public TypeInfo info(String name) {
+        return (name == null) ? null : byName.get(name);
+    }
+
+    /**
+     * @param id the id of a type, from 0 to size() - 1
+     * @return the resolved type with the id
+     */
+    public TypeInfo info(int id) {
+        return byId[id];
+    }
+
+    /**
+     * @param name the name of a type of the schema, or of a base type
+     * @return the id of the type, or -1 if not found.
+     */
+    public int id(String name) {
+        TypeInfo ti = info(name);
+        return (ti == null) ? -1 : ti.id;
+    }
+
+    /**
+     * @return the number of types, including the base types. Their ids are less than this.
+     */
+    public int size() {
+        return byId.length;
     }
 
     /**
@@ -46,6 +124,7 @@ public class TypeRegistry {
     public static String typeName(Type type) {
         switch (type.variant) {
         case BaseType:
+            return String.valueOf(type.BaseType);
         case StructTypeDef:
             return type.StructTypeDef.name;
         case MapTypeDef:
@@ -68,4 +147,370 @@ public class TypeRegistry {
         return null;
     }
 
+    /**
+     * typeSuper - given a Type (a Union type), return the name of the type it is declared as.
+     * @param type the type in question
+     * @return the name of the supertype, or null for a base type
+     */
+    public static String typeSuper(Type type) {
+        switch (type.variant) {
+        case StructTypeDef:
+            return type.StructTypeDef.type;
+        case MapTypeDef:
+            return type.MapTypeDef.type;
+        case ArrayTypeDef:
+            return type.ArrayTypeDef.type;
+        case EnumTypeDef:
+            return type.EnumTypeDef.type;
+        case UnionTypeDef:
+            return type.UnionTypeDef.type;
+        case StringTypeDef:
+            return type.StringTypeDef.type;
+        case BytesTypeDef:
+            return type.BytesTypeDef.type;
+        case NumberTypeDef:
+            return type.NumberTypeDef.type;
+        case AliasTypeDef:
+            return type.AliasTypeDef.type;
+        }
+        return null;
+    }
+
+    //resolve the type after its supertype, which it inherits from. In a cycle of supertypes,
+    //the type the cycle is entered by is left without a base type.
+    private void resolve(TypeInfo ti) {
+        if (ti.resolving || ti.resolved != null) {
+            return;
+        }
+        ti.resolving = true;
+        Type t = ti.type;
+        TypeInfo sup = info(typeSuper(t));
+        if (sup != null) {
+            resolve(sup);
+        }
+        ti.supertype = sup;
+        if (sup != null) {
+            ti.baseType = sup.baseType;
+            ti.items = sup.items;
+            ti.keys = sup.keys;
+        }
+        List<FieldInfo> fields = new ArrayList<FieldInfo>();
+        if (sup != null && sup.fields.length > 0 && t.variant == Type.TypeVariant.StructTypeDef) {
+            fields.addAll(Arrays.asList(sup.fields));
+        }
+        switch (t.variant) {
+        case StructTypeDef:
+            if (t.StructTypeDef.fields != null) {
+                for (StructFieldDef f : t.StructTypeDef.fields) {
+                    fields.add(new FieldInfo(f, fields.size(), info(f.type), info(f.items), info(f.keys)));
+                }
+            }
+            break;
+        case ArrayTypeDef:
+            if (t.ArrayTypeDef.items != null) {
+                ti.items = info(t.ArrayTypeDef.items);
+            }
+            break;
+        case MapTypeDef:
+            if (t.MapTypeDef.keys != null) {
+                ti.keys = info(t.MapTypeDef.keys);
+            }
+            if (t.MapTypeDef.items != null) {
+                ti.items = info(t.MapTypeDef.items);
+            }
+            break;
+        case UnionTypeDef:
+            if (t.UnionTypeDef.variants != null) {
+                ti.variants = new TypeInfo[t.UnionTypeDef.variants.size()];
+                for (int i = 0; i < ti.variants.length; i++) {
+                    ti.variants[i] = info(t.UnionTypeDef.variants.get(i));
+                }
+            }
+            break;
+        default:
+            break;
+        }
+        ti.fields = fields.toArray(new FieldInfo[fields.size()]);
+        if (!fields.isEmpty()) {
+            ti.fieldIndex = new HashMap<String,Integer>();
+            for (FieldInfo f : ti.fields) {
+                ti.fieldIndex.put(f.def.name, f.index);
+            }
+        }
+        if (t.variant == Type.TypeVariant.AliasTypeDef && sup != null && sup.resolved != null) {
+            ti.resolved = sup.resolved;
+        } else {
+            ti.resolved = ti;
+        }
+        ti.resolving = false;
+    }
+
+    private static final ObjectWriter CANONICAL_WRITER = JSON.mapper.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    //the definitions of the type and every type it refers to, the type first, as JSON with the
+    //keys sorted and without comments or annotations
+    static String canonicalForm(TypeInfo ti) {
+        if (ti.type == null) {
+            return ti.name;
+        }
+        Set<TypeInfo> closure = new LinkedHashSet<TypeInfo>();
+        addReferences(ti, closure);
+        List<Object> defs = new ArrayList<Object>(closure.size());
+        for (TypeInfo t : closure) {
+            defs.add(strip(JSON.mapper.convertValue(t.type, Object.class)));
+        }
+        try {
+            return CANONICAL_WRITER.writeValueAsString(defs);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void addReferences(TypeInfo ti, Set<TypeInfo> closure) {
+        if (ti == null || ti.type == null || !closure.add(ti)) {
+            return;
+        }
+        addReferences(ti.supertype, closure);
+        addReferences(ti.items, closure);
+        addReferences(ti.keys, closure);
+        for (TypeInfo v : ti.variants) {
+            addReferences(v, closure);
+        }
+        for (FieldInfo f : ti.fields) {
+            addReferences(f.type, closure);
+            addReferences(f.items, closure);
+            addReferences(f.keys, closure);
+        }
+    }
+
+    //remove what does not change the meaning of a definition. Default values are kept whole.
+    private static Object strip(Object o) {
+        if (o instanceof Map) {
+            Iterator<? extends Map.Entry<?,?>> it = ((Map<?,?>)o).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<?,?> e = it.next();
+                Object k = e.getKey();
+                if (e.getValue() == null || "comment".equals(k) || "annotations".equals(k)) {
+                    it.remove();
+                } else if (!"default".equals(k)) {
+                    strip(e.getValue());
+                }
+            }
+        } else if (o instanceof List) {
+            for (Object item : (List<?>)o) {
+                strip(item);
+            }
+        }
+        return o;
+    }
+
+    static long fingerprint(String canonicalForm) {
+        try {
+            byte [] hash = MessageDigest.getInstance("SHA-256").digest(canonicalForm.getBytes(StandardCharsets.UTF_8));
+            long fp = 0;
+            for (int i = 0; i < 8; i++) {
+                fp = (fp << 8) | (hash[i] & 0xFF);
+            }
+            return fp;
+        } catch (NoSuchAlgorithmException e) { //every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final FieldInfo [] NO_FIELDS = new FieldInfo[0];
+    private static final TypeInfo [] NO_VARIANTS = new TypeInfo[0];
+
+    /**
+     * A type of the registry, with its references to other types resolved.
+     */
+    public static final class TypeInfo {
+        final int id;
+        final String name;
+        final Type type; //null for the base types
+        BaseType baseType;
+        TypeInfo supertype;
+        TypeInfo resolved;
+        TypeInfo items;
+        TypeInfo keys;
+        TypeInfo [] variants = NO_VARIANTS;
+        FieldInfo [] fields = NO_FIELDS;
+        Map<String,Integer> fieldIndex = Collections.emptyMap();
+        private boolean resolving;
+        private volatile String canonicalForm; //created when first needed
+
+        TypeInfo(int id, String name, Type type) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+        }
+
+        /**
+         * @return the dense id of the type in its registry
+         */
+        public int id() {
+            return id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return the definition of the type, or null for a base type
+         */
+        public Type type() {
+            return type;
+        }
+
+        /**
+         * @return the base type the type is ultimately declared as, or null if its supertypes
+         * are not all defined
+         */
+        public BaseType baseType() {
+            return baseType;
+        }
+
+        /**
+         * @return the type this one is declared as, or null for a base type or an undefined
+         * supertype
+         */
+        public TypeInfo supertype() {
+            return supertype;
+        }
+
+        /**
+         * @return the target of an alias, through any chain of aliases, or this type if it is
+         * not an alias
+         */
+        public TypeInfo resolved() {
+            return resolved;
+        }
+
+        public boolean isBaseType() {
+            return type == null;
+        }
+
+        /**
+         * @return the type of array items or map values, or null if not constrained
+         */
+        public TypeInfo items() {
+            return items;
+        }
+
+        /**
+         * @return the type of map keys, or null if not constrained
+         */
+        public TypeInfo keys() {
+            return keys;
+        }
+
+        /**
+         * @return the variants of a union, in order. An undefined variant is null.
+         */
+        public List<TypeInfo> variants() {
+            return Collections.unmodifiableList(Arrays.asList(variants));
+        }
+
+        /**
+         * @return the fields of a struct, the inherited fields first
+         */
+        public List<FieldInfo> fields() {
+            return Collections.unmodifiableList(Arrays.asList(fields));
+        }
+
+        /**
+         * @param fname the name of a field of the struct
+         * @return the field, or null if not found
+         */
+        public FieldInfo field(String fname) {
+            Integer i = fieldIndex.get(fname);
+            return (i == null) ? null : fields[i];
+        }
+
+        /**
+         * The canonical form of the type: the definitions of it and of every type it refers to,
+         * as JSON with sorted keys, and without comments or annotations. Two types with the same
+         * canonical form read and write the same data. The canonical form of a base type is its
+         * name.
+         * @return the canonical form
+         */
+        public String canonicalForm() {
+            String cf = canonicalForm;
+            if (cf == null) {
+                cf = TypeRegistry.canonicalForm(this);
+                canonicalForm = cf;
+            }
+            return cf;
+        }
+
+        /**
+         * @return the fingerprint of the type: the first 8 bytes of the SHA-256 hash of its
+         * canonical form
+         */
+        public long fingerprint() {
+            return TypeRegistry.fingerprint(canonicalForm());
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A field of a struct type, with its types resolved. An undefined type is null.
+     */
+    public static final class FieldInfo {
+        final StructFieldDef def;
+        final int index;
+        final TypeInfo type;
+        final TypeInfo items;
+        final TypeInfo keys;
+
+        FieldInfo(StructFieldDef def, int index, TypeInfo type, TypeInfo items, TypeInfo keys) {
+            this.def = def;
+            this.index = index;
+            this.type = type;
+            this.items = items;
+            this.keys = keys;
+        }
+
+        public StructFieldDef def() {
+            return def;
+        }
+
+        public String name() {
+            return def.name;
+        }
+
+        /**
+         * @return the position of the field in the flattened fields of its struct
+         */
+        public int index() {
+            return index;
+        }
+
+        public TypeInfo type() {
+            return type;
+        }
+
+        public TypeInfo items() {
+            return items;
+        }
+
+        public TypeInfo keys() {
+            return keys;
+        }
+
+        public boolean optional() {
+            return def.optional;
+        }
+
+        public Object defaultValue() {
+            return def._default;
+        }
+
+        public String toString() {
+            return def.name;
+        }
+    }
 }
@@ -6,6 +6,7 @@
 package com.yahoo.rdl;
 import java.io.IOException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.DeserializationContext;
@@ -53,6 +54,9 @@ public class UUID {
     public static class UUIDJsonDeserializer extends JsonDeserializer<UUID> {
         @Override
         public UUID deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
+            if (jp.hasToken(JsonToken.VALUE_EMBEDDED_OBJECT)) {
+                return UUID.fromObject(jp.getEmbeddedObject()); //from a binary format, as a UUID or its bytes
+            }
             String s = jp.getText();
             return UUID.fromString(s);
         }
@@ -124,32 +128,28 @@ public class UUID {
     static UUID parse(String s) {
         //this should be optimized for "fast-fail", as it is used as a check to see *if* a string is a UUID.
         int len = s.length();
+        int off = 0;
         //URN syntax: urn:uuid:f81d4fae-7dec-11d0-a765-00a0c91e6bf6
-        String urnPrefix = "urn:uuid:";
-        if (len == 45 && s.startsWith(urnPrefix)) {
-            s = s.substring(urnPrefix.length());
-            len = len - urnPrefix.length();
+        if (len == 45 && s.startsWith("urn:uuid:")) {
+            off = 9;
+        } else if (len != 36) {
+            return null;
         }
-        //UUID syntax
-        if (len == 36 && s.charAt(8) == '-' && s.charAt(13) == '-' && s.charAt(18) == '-' && s.charAt(23) == '-') {
-            try {
-                Long.parseLong(s.substring(0, 8), 16);
-                Integer.parseInt(s.substring(9, 13), 16);
-                Integer.parseInt(s.substring(14, 18), 16);
-                Integer.parseInt(s.substring(19, 23), 16);
-                Long.parseLong(s.substring(24, 36), 16);
-                UUID u = new UUID(s);
-                int v = u.version();
-                if (v != 1 && v != 3 && v != 4 && v != 5) {
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(off + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
                     return null;
                 }
-
-                return u;
-            } catch (Exception e) {
-                //e.printStackTrace();
+            } else if (Character.digit(c, 16) < 0) {
+                return null;
             }
         }
-        return null;
+        char v = s.charAt(off + 14);
+        if (v != '1' && v != '3' && v != '4' && v != '5') {
+            return null;
+        }
+        return new UUID((off == 0) ? s : s.substring(off));
     }
 
     public static boolean isUUID(Object v) {
@@ -270,22 +270,17 @@ class UUIDGenerator {
 
     public static byte [] toBytes(String uuid) {
         byte [] std = new byte[16];
-        byte [] b = new byte[16];
         int j = 0;
-        for (int i = 0; i < 8; i += 2) {
-            std[j++] = (byte) java.lang.Integer.parseInt(uuid.substring(i, i + 2), 16);
-        }
-        for (int i = 9; i < 13; i += 2) {
-            std[j++] = (byte) java.lang.Integer.parseInt(uuid.substring(i, i + 2), 16);
-        }
-        for (int i = 14; i < 18; i += 2) {
-            std[j++] = (byte) java.lang.Integer.parseInt(uuid.substring(i, i + 2), 16);
-        }
-        for (int i = 19; i < 23; i += 2) {
-            std[j++] = (byte) java.lang.Integer.parseInt(uuid.substring(i, i + 2), 16);
-        }
-        for (int i = 24; i < 36; i += 2) {
-            std[j++] = (byte) java.lang.Integer.parseInt(uuid.substring(i, i + 2), 16);
+        for (int i = 0; i < 36; i += 2) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                i++; //skip the dash
+            }
+            int hi = Character.digit(uuid.charAt(i), 16);
+            int lo = Character.digit(uuid.charAt(i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new NumberFormatException("Not a UUID: " + uuid);
+            }
+            std[j++] = (byte) ((hi << 4) | lo);
         }
         return std;
     }
@@ -315,36 +310,20 @@ class UUIDGenerator {
         return UUID.fromString(uuid);
     }
 
+    private static final char [] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public static String toString(byte [] std) {
-        //byte [] std = new byte[16];
-        //copyToStandardBytes(bytes, std);
-        char [] hex = new char[32];
-        int i = 0;
-        for (byte b : std) {
-            hex[i++] = Character.forDigit((b >> 4) & 15, 16);
-            hex[i++] = Character.forDigit(b & 15, 16);
-        }
-        StringBuilder sb = new StringBuilder();
-        for (i = 0; i < 8; i++) {
-            sb.append(hex[i]);
-        }
-        sb.append('-');
-        for (i = 8; i < 12; i++) {
-            sb.append(hex[i]);
-        }
-        sb.append('-');
-        for (i = 12; i < 16; i++) {
-            sb.append(hex[i]);
-        }
-        sb.append('-');
-        for (i = 16; i < 20; i++) {
-            sb.append(hex[i]);
-        }
-        sb.append('-');
-        for (i = 20; i < 32; i++) {
-            sb.append(hex[i]);
+        char [] buf = new char[36];
+        int j = 0;
+        for (int i = 0; i < 16; i++) {
+            if (i == 4 || i == 6 || i == 8 || i == 10) {
+                buf[j++] = '-';
+            }
+            byte b = std[i];
+            buf[j++] = HEX_DIGITS[(b >> 4) & 15];
+            buf[j++] = HEX_DIGITS[b & 15];
         }
-        return sb.toString();
+        return new String(buf);
     }
 
 }
@@ -0,0 +1,369 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.rdl;
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+
+/**
+ * A parser that validates the tokens of another against an RDL type as they are read, so that
+ * data can be checked in the same pass that decodes it, or without decoding it at all. The
+ * first token that makes the data invalid throws a Validator.ValidationException, before any
+ * data after it is read.
+ * <p>
+ * The checks are those a Validator makes of the decoded data. Constraints on the whole of a
+ * container, such as required fields and array sizes, are checked at its end. Each top level
+ * value is validated separately. Memory use is bounded by the nesting depth of the data.
+ */
+public class ValidatingParser extends JsonParserDelegate {
+
+    private static final int STRUCT = 0;
+    private static final int MAP = 1;
+    private static final int ARRAY = 2;
+    private static final int UNION = 3;
+    private static final int SKIP = 4; //contents not constrained by the type
+
+    private final Validator.Node root;
+    private final Validator.Path path = new Validator.Path();
+    private Frame frame; //the innermost open container, or null at the top level
+
+    //an open object or array
+    private static final class Frame {
+        final Frame parent;
+        final int kind;
+        final Validator.Node node;
+        final boolean [] seen; //for structs, the fields present so far
+        int count; //the number of entries so far, or for SKIP the depth of nested containers
+        boolean matched; //for unions, a variant has been seen
+        int field = -1; //for structs, the position of the field of the next value, or -1 to skip it
+        Validator.Node next; //for maps and unions, the node for the next value, or null to skip it
+        boolean segment; //a path segment has been pushed for the current value
+
+        Frame(Frame parent, int kind, Validator.Node node) {
+            this.parent = parent;
+            this.kind = kind;
+            this.node = node;
+            this.seen = (kind == STRUCT) ? new boolean[((Validator.StructNode)node).fields.length] : null;
+        }
+    }
+
+    /**
+     * @param p the parser to validate the tokens of
+     * @param validator the validator for the schema
+     * @param typename the type every top level value must conform to
+     */
+    public ValidatingParser(JsonParser p, Validator validator, String typename) {
+        super(p);
+        root = validator.node(typename);
+        path.start("data", null, 0);
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        JsonToken tok = delegate.nextToken();
+        if (tok != null) {
+            Validator.Result r = check(tok);
+            if (!r.valid) {
+                throw new Validator.ValidationException(r);
+            }
+        }
+        return tok;
+    }
+
+    @Override
+    public JsonToken nextValue() throws IOException {
+        JsonToken tok = nextToken();
+        if (tok == JsonToken.FIELD_NAME) {
+            tok = nextToken();
+        }
+        return tok;
+    }
+
+    //the tokens are skipped through this parser, so that they are still checked
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        JsonToken tok = getCurrentToken();
+        if (tok == JsonToken.START_OBJECT || tok == JsonToken.START_ARRAY) {
+            int open = 1;
+            while (open > 0) {
+                tok = nextToken();
+                if (tok == null) {
+                    break;
+                } else if (tok.isStructStart()) {
+                    open++;
+                } else if (tok.isStructEnd()) {
+                    open--;
+                }
+            }
+        }
+        return this;
+    }
+
+    private Validator.Result check(JsonToken tok) throws IOException {
+        Frame f = frame;
+        if (f != null && f.kind == SKIP) {
+            if (tok.isStructStart()) {
+                f.count++;
+            } else if (tok.isStructEnd() && f.count-- == 0) {
+                frame = f.parent;
+                endValue(frame);
+            }
+            return Validator.VALID;
+        }
+        if (tok == JsonToken.FIELD_NAME) {
+            return fieldName(f, getCurrentName());
+        }
+        if (tok.isStructEnd()) {
+            Validator.Result r = end(f);
+            frame = f.parent;
+            endValue(frame);
+            return r;
+        }
+        if (tok == JsonToken.VALUE_NULL && absentField(f)) {
+            endValue(f);
+            return Validator.VALID;
+        }
+        Validator.Node n = valueNode(f);
+        if (n == null) {
+            if (tok.isStructStart()) {
+                frame = new Frame(f, SKIP, null);
+            } else {
+                endValue(f);
+            }
+            return Validator.VALID;
+        }
+        if (tok.isStructStart()) {
+            return start(f, n.resolve(), tok == JsonToken.START_OBJECT);
+        }
+        Validator.Result r = scalar(n, tok);
+        if (r.valid && f != null && f.kind == STRUCT) {
+            Validator.FieldNode fn = ((Validator.StructNode)f.node).fields[f.field];
+            if (fn.container != null) { //otherwise n is already the field's type
+                r = scalar(fn.type, tok);
+            }
+        }
+        endValue(f);
+        return r;
+    }
+
+    //a null for an optional or defaulted struct field is the same as the field being absent, as
+    //typed TBin writes it for an unset field. It is not validated, and the field is not seen.
+    private static boolean absentField(Frame f) {
+        if (f == null || f.kind != STRUCT || f.field < 0) {
+            return false;
+        }
+        Validator.FieldNode fn = ((Validator.StructNode)f.node).fields[f.field];
+        if (!fn.optional && fn.defaultValue == null) {
+            return false;
+        }
+        f.seen[f.field] = false;
+        return true;
+    }
+
+    //the node for the value starting at the current token, or null if it is not constrained
+    private Validator.Node valueNode(Frame f) {
+        if (f == null) {
+            return root;
+        }
+        switch (f.kind) {
+        case STRUCT:
+            if (f.field < 0) {
+                return null;
+            }
+            Validator.FieldNode fn = ((Validator.StructNode)f.node).fields[f.field];
+            return (fn.container != null) ? fn.container : fn.type;
+        case ARRAY:
+            Validator.Node items = ((Validator.ArrayNode)f.node).items;
+            if (items != null) {
+                path.pushIndex(f.count);
+                f.segment = true;
+            }
+            return items;
+        default:
+            return f.next;
+        }
+    }
+
+    private Validator.Result fieldName(Frame f, String name) {
+        switch (f.kind) {
+        case STRUCT:
+            int i = ((Validator.StructNode)f.node).fieldIndex(name);
+            if (i >= 0 && !f.seen[i]) {
+                f.seen[i] = true;
+                f.field = i;
+                path.pushField(name);
+                f.segment = true;
+            } else {
+                f.field = -1; //unknown fields are not validated
+            }
+            return Validator.VALID;
+        case MAP:
+            Validator.MapNode m = (Validator.MapNode)f.node;
+            path.pushKey(f.count);
+            Validator.Result r = m.keys.validate(name, path);
+            path.pop();
+            path.pushIndex(f.count);
+            f.segment = true;
+            f.next = m.items;
+            return r;
+        default: //UNION
+            Validator.UnionNode u = (Validator.UnionNode)f.node;
+            int v = f.matched ? -1 : u.variantIndex(name);
+            if (v >= 0) {
+                f.matched = true;
+                path.pushVariant(name);
+                f.segment = true;
+                f.next = u.variantNodes[v];
+            } else {
+                f.next = null;
+            }
+            return Validator.VALID;
+        }
+    }
+
+    //an object or array starts, as a value of the node
+    private Validator.Result start(Frame f, Validator.Node n, boolean object) {
+        if (f != null && f.kind == STRUCT) {
+            //a field with items or keys must also be of its declared type
+            Validator.FieldNode fn = ((Validator.StructNode)f.node).fields[f.field];
+            if (fn.container != null && !startsValue(fn.type.resolve(), object)) {
+                return notValid(fn.type.resolve(), object);
+            }
+        }
+        int kind;
+        if (n instanceof Validator.StructNode) {
+            if (!object) {
+                return notValid(n, object);
+            }
+            kind = STRUCT;
+        } else if (n instanceof Validator.UnionNode) {
+            if (!object) {
+                return notValid(n, object);
+            }
+            kind = UNION;
+        } else if (n instanceof Validator.MapNode) {
+            kind = object ? MAP : SKIP;
+        } else if (n instanceof Validator.ArrayNode) {
+            kind = object ? SKIP : ARRAY;
+        } else if (n instanceof Validator.BaseNode || n instanceof Validator.MissingNode) {
+            if (!startsValue(n, object)) {
+                return notValid(n, object);
+            }
+            kind = SKIP;
+        } else {
+            kind = SKIP; //scalar constraints do not apply to containers
+        }
+        frame = new Frame(f, kind, n);
+        return Validator.VALID;
+    }
+
+    //whether an object or array can be a value of the node
+    private static boolean startsValue(Validator.Node n, boolean object) {
+        if (n instanceof Validator.BaseNode) {
+            switch (((Validator.BaseNode)n).type) {
+            case Any:
+                return true;
+            case Map:
+                return object;
+            case Array:
+                return !object;
+            default:
+                return false;
+            }
+        }
+        if (n instanceof Validator.StructNode || n instanceof Validator.UnionNode) {
+            return object;
+        }
+        return !(n instanceof Validator.MissingNode);
+    }
+
+    private Validator.Result notValid(Validator.Node n, boolean object) {
+        if (n instanceof Validator.MissingNode) {
+            return n.validate(null, path);
+        }
+        return Validator.error(path, "Not a valid " + n.name + ", " + (object ? "object" : "array"));
+    }
+
+    //the container ends, check the constraints on the whole of it
+    private Validator.Result end(Frame f) {
+        switch (f.kind) {
+        case STRUCT:
+            Validator.StructNode sn = (Validator.StructNode)f.node;
+            for (int i = 0; i < f.seen.length; i++) {
+                Validator.FieldNode fn = sn.fields[i];
+                if (!f.seen[i] && !fn.optional && fn.defaultValue == null) {
+                    return Validator.error(path, "Missing required field '" + fn.name + "' for type " + sn.name);
+                }
+            }
+            return Validator.VALID;
+        case MAP:
+            Validator.Result r = ((Validator.MapNode)f.node).checkSize(f.count, "map", path);
+            return (r == null) ? Validator.VALID : r;
+        case ARRAY:
+            r = ((Validator.ArrayNode)f.node).checkSize(f.count, "array", path);
+            return (r == null) ? Validator.VALID : r;
+        case UNION:
+            return f.matched ? Validator.VALID : Validator.error(path, "Not a valid " + f.node.name + ": no variant");
+        default:
+            return Validator.VALID;
+        }
+    }
+
+    //a value in the container has been completely read
+    private void endValue(Frame f) {
+        if (f == null) {
+            return;
+        }
+        if (f.segment) {
+            path.pop();
+            f.segment = false;
+        }
+        f.field = -1;
+        f.next = null;
+        f.count++;
+    }
+
+    //a scalar token, as a value of the node
+    private Validator.Result scalar(Validator.Node n, JsonToken tok) throws IOException {
+        Validator.Node target = n.resolve();
+        if ((target instanceof Validator.StructNode || target instanceof Validator.UnionNode) && tok != JsonToken.VALUE_NULL) {
+            return Validator.error(path, "Not a valid " + target.name + ", " + tok);
+        }
+        return n.validate(scalarValue(target, tok), path);
+    }
+
+    //the value of a scalar token, as it would be decoded for the node
+    private Object scalarValue(Validator.Node target, JsonToken tok) throws IOException {
+        switch (tok) {
+        case VALUE_STRING:
+            if (target instanceof Validator.BytesNode || isBase(target, BaseType.Bytes)) {
+                return getBinaryValue(); //base64 in JSON
+            }
+            return getText();
+        case VALUE_NUMBER_INT:
+        case VALUE_NUMBER_FLOAT:
+            if (isBase(target, BaseType.Float32)) {
+                return getFloatValue();
+            } else if (isBase(target, BaseType.Float64)) {
+                return getDoubleValue();
+            }
+            return getNumberValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_EMBEDDED_OBJECT:
+            return getEmbeddedObject();
+        default:
+            return null;
+        }
+    }
+
+    private static boolean isBase(Validator.Node n, BaseType type) {
+        return n instanceof Validator.BaseNode && ((Validator.BaseNode)n).type == type;
+    }
+}
@@ -8,9 +8,40 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 
 /**
  * Schema validation logic.
+ * <p>
+ * The schema is compiled once, when the Validator is created, into a graph of nodes: type
+ * references are resolved and inherited struct fields are flattened, by a TypeRegistry that
+ * may be shared with other users of the schema, string patterns are compiled,
+ * and the public fields of each Java class validated are bound to method handles as it is first
+ * seen.
+ * Validation is then a traversal of that graph. A Validator is immutable once created, and may
+ * be shared between threads.
+ * <p>
+ * A parallel Validator, from {@link #parallel(ForkJoinPool, int)}, checks the elements of large
+ * arrays and maps on a ForkJoinPool. It reports the same error a sequential one would, that of
+ * the lowest index, and stops checking elements beyond an error as soon as one is found.
+ * <p>
+ * Encoded data can also be validated as it is parsed, without decoding it, from JSON or from
+ * any other Jackson parser (such as a TBinParser). Memory use is then bounded by the nesting
+ * depth of the data, and invalid data is rejected at the token that makes it so.
  */
 public class Validator {
 
@@ -30,8 +61,20 @@ public class Validator {
         }
     }
 
-    static Result valid() {
-        return new Result(true, null);
+    //results carry no location when valid, so one instance serves for all
+    static final Result VALID = new Result(true, null);
+
+    /**
+     * Thrown by a ValidatingParser, and the decoders built on it, when the data it reads does
+     * not conform to the type. The result holds the error.
+     */
+    public static class ValidationException extends java.io.IOException {
+        private static final long serialVersionUID = 1L;
+        public final Result result;
+        public ValidationException(Result result) {
+            super(result.error);
+            this.result = result;
+        }
     }
 
     static Result error(String context, String msg) {
@@ -41,554 +84,1196 @@ public class Validator {
         return new Result(false, msg);
     }
 
-    Schema schema;
-    HashMap<String,Type> types;
+    static Result error(Path path, String msg) {
+        return error(path.toString(), msg);
+    }
+
+    final Schema schema;
+    final TypeRegistry registry;
+    private final Node [] nodes; //by type id, including the base types
+    private final Map<Type,Node> typeNodes; //by identity, for the types of the schema
+    private final ForkJoinPool pool; //null if sequential
+    private final int parallelThreshold;
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
     public Validator(Schema schema) {
-        this.schema = schema;
-        this.types = new HashMap<String,Type>();
-        this.types.put("Bool", new Type(BaseType.Bool));
-        this.types.put("Int8", new Type(BaseType.Int8));
-        this.types.put("Int16", new Type(BaseType.Int16));
-        this.types.put("Int32", new Type(BaseType.Int32));
-        this.types.put("Int64", new Type(BaseType.Int64));
-        this.types.put("Float32", new Type(BaseType.Float32));
-        this.types.put("Float64", new Type(BaseType.Float64));
-        this.types.put("Bytes", new Type(BaseType.Bytes));
-        this.types.put("String", new Type(BaseType.String));
-        this.types.put("Timestamp", new Type(BaseType.Timestamp));
-        this.types.put("UUID", new Type(BaseType.UUID));
-        this.types.put("Array", new Type(BaseType.Array));
-        this.types.put("Map", new Type(BaseType.Map));
-        this.types.put("Struct", new Type(BaseType.Struct));
-        this.types.put("Enum", new Type(BaseType.Enum));
-        this.types.put("Union", new Type(BaseType.Union));
-        this.types.put("Any", new Type(BaseType.Any));
-        for (Type t : schema.types) {
-            String name = null;
+        this(new TypeRegistry(schema));
+    }
+
+    /**
+     * @param registry the resolved types of the schema to validate against
+     */
+    public Validator(TypeRegistry registry) {
+        this.schema = registry.schema;
+        this.registry = registry;
+        Compiler c = new Compiler(registry);
+        this.nodes = c.nodes;
+        this.typeNodes = c.typeNodes;
+        this.pool = null;
+        this.parallelThreshold = 0;
+    }
+
+    private Validator(Validator v, ForkJoinPool pool, int parallelThreshold) {
+        this.schema = v.schema;
+        this.registry = v.registry;
+        this.nodes = v.nodes;
+        this.typeNodes = v.typeNodes;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @return a Validator for the same schema, sharing its compiled types, that checks the
+     * elements of arrays and maps with at least DEFAULT_PARALLEL_THRESHOLD elements in
+     * parallel on the common ForkJoinPool.
+     */
+    public Validator parallel() {
+        return parallel(ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * @param pool the pool to check elements on
+     * @param threshold the number of elements at which an array or map is checked in parallel
+     * @return a Validator for the same schema, sharing its compiled types, that checks the
+     * elements of large arrays and maps in parallel.
+     */
+    public Validator parallel(ForkJoinPool pool, int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Parallel threshold must be positive: " + threshold);
+        }
+        return new Validator(this, pool, threshold);
+    }
+
+    public Result validate(Object data, String typename) {
+        return validate(data, typename, typename, "data");
+    }
+
+    public Result validate(Object data, String typename, String alias, String context) {
+        int id = registry.id(typename);
+        if (id < 0) {
+            return error("", "No such type: " + typename);
+        }
+        Node n = nodes[id];
+        return run(withAlias(n, alias), data, context);
+    }
+
+    public Result validate(Object data, Type t, String alias, String context) {
+        Node n = typeNodes.get(t);
+        if (n == null) { //not a type of this schema, compile it against the schema's types
+            n = new Compiler(registry, nodes).compile(TypeRegistry.typeName(t), t);
+        }
+        return run(withAlias(n, alias), data, context);
+    }
+
+    /**
+     * Validate the next value of the parser as it is read, without decoding it. The parser is
+     * left at the end of the value if it is valid, and at the offending token if not.
+     * @param parser the parser to read the value from
+     * @param typename the type the value must conform to
+     * @return the result of validation
+     * @throws IOException if the data is not well formed, or on any underlying I/O error
+     */
+    public Result validate(JsonParser parser, String typename) throws IOException {
+        ValidatingParser p = new ValidatingParser(parser, this, typename);
+        try {
+            JsonToken tok = p.nextToken();
+            if (tok == null) {
+                return error("data", "No value");
+            }
+            p.skipChildren();
+            return VALID;
+        } catch (ValidationException e) {
+            return e.result;
+        }
+    }
+
+    /**
+     * Validate JSON data as it is read from the stream, without decoding it. Reading stops at
+     * the first violation.
+     * @param in the stream to read one JSON value from. It is not closed.
+     * @param typename the type the value must conform to
+     * @return the result of validation. Data that is not well formed JSON is not valid.
+     * @throws IOException on any underlying I/O error
+     */
+    public Result validateJSON(InputStream in, String typename) throws IOException {
+        try (JsonParser p = JSON.mapper.getFactory().createParser(in)) {
+            p.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return validateOnly(p, typename);
+        }
+    }
+
+    /**
+     * Validate JSON data without decoding it.
+     * @param json the UTF-8 encoded JSON value
+     * @param typename the type the value must conform to
+     * @return the result of validation. Data that is not well formed JSON is not valid.
+     */
+    public Result validateJSON(byte [] json, String typename) {
+        try (JsonParser p = JSON.mapper.getFactory().createParser(json)) {
+            return validateOnly(p, typename);
+        } catch (IOException e) { //reading an array does no I/O, this is not expected
+            return error("data", "Malformed JSON: " + e.getMessage());
+        }
+    }
+
+    //the parser must hold exactly one value
+    private Result validateOnly(JsonParser p, String typename) throws IOException {
+        try {
+            Result r = validate(p, typename);
+            if (r.valid && p.nextToken() != null) {
+                return error("data", "Unexpected data after the value");
+            }
+            return r;
+        } catch (JsonProcessingException e) {
+            return error("data", "Malformed JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    //each thread reuses its path, so that validating valid data allocates nothing
+    private static final ThreadLocal<Path> paths = new ThreadLocal<Path>() {
+        @Override
+        protected Path initialValue() {
+            return new Path();
+        }
+    };
+
+    Result run(Node n, Object data, String context) {
+        Path path = paths.get();
+        if (path.inUse) { //validation started from within another, such as by a default's setter
+            path = new Path();
+        }
+        path.start(context, pool, parallelThreshold);
+        try {
+            return n.validate(data, path);
+        } finally {
+            path.finish();
+        }
+    }
+
+    //the node for a type name, reporting a missing type when used if there is no such type
+    Node node(String typename) {
+        int id = registry.id(typename);
+        return (id >= 0) ? nodes[id] : new MissingNode(typename);
+    }
+
+    //base types report errors in terms of the name they were referred to by
+    private static Node withAlias(Node n, String alias) {
+        if (n instanceof BaseNode && alias != null && !alias.equals(n.name)) {
+            return new BaseNode(((BaseNode)n).type, alias);
+        }
+        return n;
+    }
+
+    static String javaFieldName(String rdlFieldName) {
+        switch (rdlFieldName) {
+        case "default":
+            return "_default";
+        default:
+            return rdlFieldName;
+        }
+    }
+
+    //The location in the data being validated: a stack of segments below a root context,
+    //rendered as a string (such as "data.points[3].x") only when an error is reported.
+    static final class Path {
+        private static final byte FIELD = 0;
+        private static final byte INDEX = 1;
+        private static final byte KEY = 2;
+        private static final byte VARIANT = 3;
+
+        private String root = "";
+        private byte [] kinds = new byte[16];
+        private String [] names = new String[16];
+        private int [] indexes = new int[16];
+        private int depth;
+        boolean inUse;
+        ForkJoinPool pool; //the pool to check large collections on, or null
+        int parallelThreshold;
+
+        Path() {
+        }
+
+        //a copy, for checking a part of a collection in another thread
+        Path(Path p) {
+            root = p.root;
+            depth = p.depth;
+            kinds = java.util.Arrays.copyOf(p.kinds, Math.max(16, depth * 2));
+            names = java.util.Arrays.copyOf(p.names, kinds.length);
+            indexes = java.util.Arrays.copyOf(p.indexes, kinds.length);
+            pool = p.pool;
+            parallelThreshold = p.parallelThreshold;
+        }
+
+        void start(String context, ForkJoinPool pool, int parallelThreshold) {
+            root = context;
+            depth = 0;
+            inUse = true;
+            this.pool = pool;
+            this.parallelThreshold = parallelThreshold;
+        }
+
+        void finish() {
+            root = "";
+            java.util.Arrays.fill(names, 0, depth, null);
+            depth = 0;
+            inUse = false;
+            pool = null;
+        }
+
+        boolean parallel(int size) {
+            return pool != null && size >= parallelThreshold;
+        }
+
+        private void push(byte kind, String name, int index) {
+            if (depth == kinds.length) {
+                kinds = java.util.Arrays.copyOf(kinds, depth * 2);
+                names = java.util.Arrays.copyOf(names, depth * 2);
+                indexes = java.util.Arrays.copyOf(indexes, depth * 2);
+            }
+            kinds[depth] = kind;
+            names[depth] = name;
+            indexes[depth] = index;
+            depth++;
+        }
+
+        void pushField(String name) {
+            push(FIELD, name, 0);
+        }
+
+        void pushIndex(int i) {
+            push(INDEX, null, i);
+        }
+
+        //the key of the i-th map entry
+        void pushKey(int i) {
+            push(KEY, null, i);
+        }
+
+        void pushVariant(String name) {
+            push(VARIANT, name, 0);
+        }
+
+        void pop() {
+            names[--depth] = null;
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder(root);
+            for (int i = 0; i < depth; i++) {
+                switch (kinds[i]) {
+                case FIELD:
+                    sb.append('.').append(names[i]);
+                    break;
+                case INDEX:
+                    sb.append('[').append(indexes[i]).append(']');
+                    break;
+                case KEY:
+                    sb.append("[key ").append(indexes[i]).append(']');
+                    break;
+                default:
+                    sb.append('<').append(names[i]).append('>');
+                    break;
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    //------------- compilation
+
+    //Builds the nodes for a schema. Every named type gets its node before any are linked, so
+    //that recursive and forward references resolve to the same node.
+    static final class Compiler {
+        final TypeRegistry registry;
+        final Node [] nodes;
+        final Map<Type,Node> typeNodes = new IdentityHashMap<Type,Node>();
+
+        Compiler(TypeRegistry registry) {
+            this.registry = registry;
+            nodes = new Node[registry.size()];
+            for (int id = 0; id < nodes.length; id++) {
+                TypeRegistry.TypeInfo ti = registry.info(id);
+                if (ti.isBaseType()) {
+                    nodes[id] = new BaseNode(ti.baseType, ti.name);
+                } else {
+                    nodes[id] = create(ti.name, ti.type);
+                    typeNodes.put(ti.type, nodes[id]);
+                }
+            }
+            for (int id = 0; id < nodes.length; id++) {
+                TypeRegistry.TypeInfo ti = registry.info(id);
+                if (!ti.isBaseType()) {
+                    nodes[id].link(this, ti.type);
+                }
+            }
+        }
+
+        //for types outside the schema, referring to the schema's types
+        Compiler(TypeRegistry registry, Node [] nodes) {
+            this.registry = registry;
+            this.nodes = nodes;
+        }
+
+        Node compile(String name, Type t) {
+            Node n = create(name, t);
+            n.link(this, t);
+            return n;
+        }
+
+        Node create(String name, Type t) {
             switch (t.variant) {
             case BaseType:
-                name = String.valueOf(t.BaseType);
-                break;
+                return new BaseNode(t.BaseType, name == null ? String.valueOf(t.BaseType) : name);
             case StructTypeDef:
-                name = t.StructTypeDef.name;
-                break;
+                return new StructNode(name);
             case MapTypeDef:
-                name = t.MapTypeDef.name;
-                break;
+                return new MapNode(name);
             case ArrayTypeDef:
-                name = t.ArrayTypeDef.name;
-                break;
+                return new ArrayNode(name);
             case EnumTypeDef:
-                name = t.EnumTypeDef.name;
-                break;
+                return new EnumNode(name);
             case UnionTypeDef:
-                name = t.UnionTypeDef.name;
-                break;
+                return new UnionNode(name);
             case StringTypeDef:
-                name = t.StringTypeDef.name;
-                break;
+                return new StringNode(name);
             case BytesTypeDef:
-                name = t.BytesTypeDef.name;
-                break;
+                return new BytesNode(name);
             case NumberTypeDef:
-                name = t.NumberTypeDef.name;
-                break;
+                return new NumberNode(name);
             case AliasTypeDef:
-                name = t.AliasTypeDef.name;
-                break;
+                return new AliasNode(name);
+            default:
+                return new MissingNode(name);
+            }
+        }
+
+        //the node for a type reference, which reports an error when used if it does not exist
+        Node ref(String name) {
+            int id = registry.id(name);
+            return (id >= 0) ? nodes[id] : new MissingNode(name);
+        }
+
+        //the inherited fields first, as declared
+        void flattenFields(StructTypeDef typedef, List<StructFieldDef> fields) {
+            TypeRegistry.TypeInfo sup = registry.info(typedef.type);
+            if (sup != null) { //already flattened
+                for (TypeRegistry.FieldInfo f : sup.fields) {
+                    fields.add(f.def);
+                }
+            }
+            if (typedef.fields != null) {
+                fields.addAll(typedef.fields);
             }
-            this.types.put(name, t);
         }
     }
 
-    Type type(String name) {
-        return types.get(name);
+    //------------- nodes
+
+    //A compiled type. Nodes are created and then linked once by the Compiler, after which they
+    //are not modified.
+    abstract static class Node {
+        final String name;
+
+        Node(String name) {
+            this.name = name;
+        }
+
+        void link(Compiler c, Type t) {
+        }
+
+        //the node that validates for this one, which differs only for aliases
+        Node resolve() {
+            return this;
+        }
+
+        abstract Result validate(Object data, Path path);
     }
 
-    public Result validate(Object data, String typename) {
-        return validate(data, typename, typename, "data");
+    static final class MissingNode extends Node {
+        MissingNode(String name) {
+            super(name);
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            return error("", "No such type: " + name);
+        }
     }
 
-    public Result validate(Object data, String typename, String alias, String context) {
-        Type t = type(typename);
-        if (t == null) {
-            return error("", "No such type: " + typename);
+    static final class AliasNode extends Node {
+        private Node target;
+
+        AliasNode(String name) {
+            super(name);
+        }
+
+        @Override
+        void link(Compiler c, Type t) {
+            target = withAlias(c.ref(t.AliasTypeDef.type), name);
+        }
+
+        @Override
+        Node resolve() {
+            return target.resolve();
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            return target.validate(data, path);
         }
-        return validate(data, t, alias, context);
     }
 
-    public Result validate(Object data, Type t, String alias, String context) {
-        switch (t.variant) {
-        case BaseType:
-            return validateBaseType(data, t.BaseType, alias, context);
-        case StructTypeDef:
-            return validateStructType(data, t.StructTypeDef, context);
-        case MapTypeDef:
-            return validateMapType(data, t.MapTypeDef, context);
-        case ArrayTypeDef:
-            return validateArrayType(data, t.ArrayTypeDef, context);
-        case EnumTypeDef:
-            return validateEnumType(data, t.EnumTypeDef, context);
-        case UnionTypeDef:
-            return validateUnionType(data, t.UnionTypeDef, context);
-        case StringTypeDef:
-            return validateStringType(data, t.StringTypeDef, context);
-        case BytesTypeDef:
-            break; //fix me
-        case NumberTypeDef:
-            return validateNumberType(data, t.NumberTypeDef, context);
-        case AliasTypeDef:
-            return validate(data, t.AliasTypeDef.type, t.AliasTypeDef.name, context);
-        }
-        return error(context, "NYI: " + t.variant);
-    }
-
-    Type fieldType(String type, String items, String keys) {
-        if ("Array".equalsIgnoreCase(type)) {
-            ArrayTypeDef atype = new ArrayTypeDef().type(type);
-            if (items != null) {
-                atype.items(items);
-            }
-            return new Type(atype);
-        }
-        return type(type);
-    }
-
-    @SuppressWarnings({"unchecked" })
-    Result validateMapType(Object data, MapTypeDef typedef, String context) {
-        if (data instanceof Map) {
-            Map<Object,Object> map = (Map<Object,Object>)data;
-            int size = map.size();
-            if (typedef.size != null) {
-                if (size != typedef.size) {
-                    return error(context, "Bad map size for type " + typedef.name + ", expected " + typedef.size + ", got " + size);
-                }
-            }
-            if (typedef.minSize != null) {
-                if (size < typedef.minSize) {
-                    return error(context, "Bad map size for type " + typedef.name + ", expected no smaller than " + typedef.minSize + ", got " + size);
-                }
-            }
-            if (typedef.maxSize != null) {
-                if (size < typedef.maxSize) {
-                    return error(context, "Bad map size for type " + typedef.name + ", expected no larger than " + typedef.maxSize + ", got " + size);
-                }
-            }
-            Type kt = type(typedef.keys);
-            if (kt == null) {
-                return error("", "No such type: " + typedef.keys);
-            }
-            Type it = type(typedef.items);
-            if (it == null) {
-                return error("", "No such type: " + typedef.items);
-            }
-            int i = 0;
-            //no reflection help here, although a struct field could get the item type from a generic.
-            //this is dumb and slow, if the array is homogenous. If heterogeneous, not much choice.
-            for (Map.Entry<Object,Object> e : map.entrySet()) {
-                Result tmp = validate(e.getKey(), kt, typedef.keys, context + "[key]value");
-                if (!tmp.valid) {
-                    return tmp;
+    static final class BaseNode extends Node {
+        final BaseType type;
+
+        BaseNode(BaseType type, String alias) {
+            super(alias);
+            this.type = type;
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            if (accepts(type, data)) {
+                return VALID;
+            }
+            String s = "null";
+            if (data != null) {
+                s = data.getClass().getName();
+            }
+            return error(path, "Not a valid " + name + ", " + s);
+        }
+
+        static boolean accepts(BaseType type, Object data) {
+            switch (type) {
+            case Bool:
+                return data instanceof Boolean;
+            case Int8:
+                if (data instanceof Integer) {
+                    int n = ((Integer)data).intValue();
+                    return n <= 127 && n >= -128;
                 }
-                tmp = validate(e.getValue(), it, typedef.items, context + "[" + i + "]");
-                if (!tmp.valid) {
-                    return tmp;
+                return data instanceof Byte;
+            case Int16:
+                if (data instanceof Integer) {
+                    int n = ((Integer)data).intValue();
+                    return n <= 32767 && n >= -32768;
                 }
+                return (data instanceof Short) || (data instanceof Byte);
+            case Int32:
+                return (data instanceof Integer) || (data instanceof Short) || (data instanceof Byte);
+            case Int64:
+                return (data instanceof Long) || (data instanceof Integer) || (data instanceof Short) || (data instanceof Byte);
+            case Float32:
+                return data instanceof Float;
+            case Float64:
+                return data instanceof Double;
+            case String:
+                return data instanceof String;
+            case Bytes:
+                return data instanceof byte [];
+            case Timestamp:
+                return (data instanceof Timestamp) || (data instanceof String && Timestamp.fromString((String)data) != null);
+            case UUID:
+                return (data instanceof UUID) || (data instanceof String && UUID.fromString((String)data) != null);
+            case Array:
+                return data == null || data instanceof List;
+            case Map:
+                return data == null || data instanceof Map;
+            case Any:
+                return true;
+            default:
+                return false;
             }
         }
-        return valid();
     }
-    
-    Result validateArrayType(Object data, ArrayTypeDef typedef, String context) {
-        if (data instanceof List) {
-            List lst = (List)data;
-            if (typedef.size != null) {
-                if (lst.size() != typedef.size) {
-                    return error(context, "Bad array size for type " + typedef.name + ", expected " + typedef.size + ", got " + lst.size());
-                }
+
+    //a struct field, with its container (array or map) constraints from items/keys, if any
+    static final class FieldNode {
+        final String name;
+        final String javaName;
+        final boolean optional;
+        final Object defaultValue;
+        final Node container;
+        final Node type;
+
+        FieldNode(Compiler c, StructFieldDef f) {
+            name = f.name;
+            javaName = javaFieldName(f.name);
+            optional = f.optional;
+            defaultValue = f._default;
+            if (f.keys != null) {
+                MapNode m = new MapNode(null);
+                m.keys = c.ref(f.keys);
+                m.items = c.ref(f.items);
+                container = m;
+            } else if (f.items != null) {
+                ArrayNode a = new ArrayNode(null);
+                a.items = c.ref(f.items);
+                container = a;
+            } else {
+                container = null;
             }
-            if (typedef.minSize != null) {
-                if (lst.size() < typedef.minSize) {
-                    return error(context, "Bad array size for type " + typedef.name + ", expected no smaller than " + typedef.minSize + ", got " + lst.size());
-                }
+            type = c.ref(f.type);
+        }
+
+        Result validate(Object value, Path path) {
+            path.pushField(name);
+            Result r = VALID;
+            if (container != null) {
+                r = container.validate(value, path);
+            }
+            if (r.valid) {
+                r = type.validate(value, path);
             }
-            if (typedef.maxSize != null) {
-                if (lst.size() < typedef.maxSize) {
-                    return error(context, "Bad array size for type " + typedef.name + ", expected no larger than " + typedef.maxSize + ", got " + lst.size());
+            path.pop();
+            return r;
+        }
+    }
+
+    static final class StructNode extends Node {
+        FieldNode [] fields;
+        private HashMap<String,Integer> fieldIndex;
+        //the public fields of each class validated as this struct, by field position
+        private final ClassValue<Accessors> accessors = new ClassValue<Accessors>() {
+            @Override
+            protected Accessors computeValue(Class<?> cl) {
+                String [] names = new String[fields.length];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = fields[i].javaName;
                 }
+                return new Accessors(cl, names);
             }
-            if (typedef.items != null) {
-                Type it = type(typedef.items);
-                if (it == null) {
-                    return error("", "No such type: " + typedef.items);
-                }
-                int i = 0;
-                //no reflection help here, although a struct field could get the item type from a generic.
-                //this is dumb and slow, if the array is homogenous. If heterogeneous, not much choice.
-                for (Object item : lst) {
-                    Result tmp = validate(item, it, typedef.items, context + "[" + i + "]");
+        };
+
+        StructNode(String name) {
+            super(name);
+        }
+
+        @Override
+        void link(Compiler c, Type t) {
+            List<StructFieldDef> defs = new ArrayList<StructFieldDef>();
+            c.flattenFields(t.StructTypeDef, defs);
+            FieldNode [] fs = new FieldNode[defs.size()];
+            fieldIndex = new HashMap<String,Integer>();
+            for (int i = 0; i < fs.length; i++) {
+                fs[i] = new FieldNode(c, defs.get(i));
+                fieldIndex.put(fs[i].name, i);
+            }
+            fields = fs;
+        }
+
+        //the position of the named field, or -1
+        int fieldIndex(String fname) {
+            Integer i = fieldIndex.get(fname);
+            return (i == null) ? -1 : i;
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            if (data instanceof Map) {
+                Map<?,?> map = (Map<?,?>)data;
+                for (FieldNode f : fields) {
+                    Object fdata = map.get(f.name);
+                    if (fdata == null && (f.optional || f.defaultValue != null)) {
+                        continue; //a null optional field is absent, as it is in decoded TBin
+                    }
+                    if (fdata == null && !map.containsKey(f.name)) {
+                        return error(path, "Missing required field '" + f.name + "' for type " + name);
+                    }
+                    Result tmp = f.validate(fdata, path);
                     if (!tmp.valid) {
                         return tmp;
                     }
                 }
+                return VALID;
+            }
+            if (data == null) {
+                return error(path, "Not a valid " + name + ", null");
+            }
+            Accessors acc = accessors.get(data.getClass());
+            for (int i = 0; i < fields.length; i++) {
+                FieldNode f = fields[i];
+                if (acc.getters[i] == null) {
+                    return error(path, (acc.inaccessible[i] ? "Inaccessible" : "Missing") + " field in object: " + f.javaName + " for type " + name);
+                }
+                Object fdata = acc.get(i, data);
+                if (fdata == null) {
+                    if (f.defaultValue != null) {
+                        if (acc.setters[i] == null) {
+                            return error(path, "Inaccessible field in object: " + f.javaName + " for type " + name);
+                        }
+                        acc.set(i, data, f.defaultValue);
+                    } else if (!f.optional) {
+                        return error(path, "Missing required field: " + f.javaName + " for type " + name);
+                    }
+                    continue;
+                }
+                Result tmp = f.validate(fdata, path);
+                if (!tmp.valid) {
+                    return tmp;
+                }
             }
+            return VALID;
         }
-        return valid();
     }
-    
-    Result validateStructType(Object data, StructTypeDef typedef, String context) {
-        if (data instanceof Map) {
-            Map map = (Map)data;
-            List<StructFieldDef> fields = new ArrayList<StructFieldDef>();
-            flattenFields(typedef, fields);
-            for (StructFieldDef field : fields) {
-                if (!map.containsKey(field.name)) {
-                    if (!field.optional && field._default == null) {
-                        return error(context, "Missing required field '" + field.name + "' for type " + typedef.name);
-                    }
-                } else {
-                    Type ftype = fieldType(field.type, field.items, field.keys);
-                    Result tmp = validate(map.get(field.name), ftype, field.type, context + "." + field.name);
-                    if (!tmp.valid) {
-                        return tmp;
+
+    //The public instance fields of a class with the given names, bound once to method handles
+    //of type (Object)Object and (Object,Object)void. Those the class does not have, or that
+    //cannot be accessed, are null, as are the setters of final fields.
+    static final class Accessors {
+        private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+        private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+        final MethodHandle [] getters;
+        final MethodHandle [] setters;
+        final boolean [] inaccessible; //the class has the field, but it is not accessible
+
+        Accessors(Class<?> cl, String [] names) {
+            getters = new MethodHandle[names.length];
+            setters = new MethodHandle[names.length];
+            inaccessible = new boolean[names.length];
+            HashMap<String,java.lang.reflect.Field> byName = new HashMap<String,java.lang.reflect.Field>();
+            for (java.lang.reflect.Field f : cl.getFields()) {
+                if (!java.lang.reflect.Modifier.isStatic(f.getModifiers())) {
+                    byName.putIfAbsent(f.getName(), f); //the most derived first
+                }
+            }
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            for (int i = 0; i < names.length; i++) {
+                java.lang.reflect.Field f = byName.get(names[i]);
+                if (f == null) {
+                    continue;
+                }
+                try {
+                    getters[i] = lookup.unreflectGetter(f).asType(GETTER);
+                    if (!java.lang.reflect.Modifier.isFinal(f.getModifiers())) {
+                        setters[i] = lookup.unreflectSetter(f).asType(SETTER);
                     }
+                } catch (IllegalAccessException e) {
+                    getters[i] = null;
+                    inaccessible[i] = true;
                 }
             }
-            return valid();
         }
-        return validateObject(data, typedef, context);
-    }
 
-    String pretty(Object o) {
-        try {
-            com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-            mapper.enable(com.fasterxml.jackson.databind.SerializationFeature.INDENT_OUTPUT);
-            mapper.disable(com.fasterxml.jackson.databind.SerializationFeature.WRITE_NULL_MAP_VALUES);
-            return mapper.writeValueAsString(o);
-        } catch (Exception e) {
-            return String.valueOf(o);
+        Object get(int i, Object o) {
+            try {
+                return (Object)getters[i].invokeExact(o);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) { //a field access throws nothing else
+                throw new IllegalStateException(t);
+            }
         }
-        
-    }
 
-    String javaFieldName(String rdlFieldName) {
-        switch (rdlFieldName) {
-        case "default":
-            return "_default";
-        default:
-            return rdlFieldName;
+        void set(int i, Object o, Object value) {
+            try {
+                setters[i].invokeExact(o, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
         }
     }
 
-    void flattenFields(StructTypeDef typedef, List<StructFieldDef> fields) {
-        if (!typedef.type.equalsIgnoreCase("Struct")) {
-            Type t = type(typedef.type);
-            flattenFields(t.StructTypeDef, fields);
+    //the size constraints shared by arrays and maps
+    abstract static class CollectionNode extends Node {
+        Integer size;
+        Integer minSize;
+        Integer maxSize;
+
+        CollectionNode(String name) {
+            super(name);
+        }
+
+        Result checkSize(int n, String kind, Path path) {
+            if (size != null && n != size) {
+                return error(path, "Bad " + kind + " size for type " + name + ", expected " + size + ", got " + n);
+            }
+            if (minSize != null && n < minSize) {
+                return error(path, "Bad " + kind + " size for type " + name + ", expected no smaller than " + minSize + ", got " + n);
+            }
+            if (maxSize != null && n > maxSize) {
+                return error(path, "Bad " + kind + " size for type " + name + ", expected no larger than " + maxSize + ", got " + n);
+            }
+            return null;
         }
-        fields.addAll(typedef.fields);
     }
 
-    Result validateObject(Object data, StructTypeDef typedef, String context) {
-        Class<?> cl = data.getClass();
-        List<StructFieldDef> fields = new ArrayList<StructFieldDef>();
-        flattenFields(typedef, fields);
-        for (StructFieldDef f : fields) {
-            String fname = f.name;
-            fname = javaFieldName(fname);
-            try {
-                java.lang.reflect.Field field = cl.getField(fname);
-                try {
-                    Object fdata = field.get(data);
-                    if (fdata == null) {
-                        if (f._default != null) {
-                            field.set(data, f._default);
-                            continue;
-                        } else if (!f.optional) {
-                            return error(context, "Missing required field: " + fname + " for type " + typedef.name);
-                        } else {
-                            continue;
+    static final class MapNode extends CollectionNode {
+        Node keys;
+        Node items;
+
+        MapNode(String name) {
+            super(name);
+        }
+
+        @Override
+        void link(Compiler c, Type t) {
+            MapTypeDef typedef = t.MapTypeDef;
+            size = typedef.size;
+            minSize = typedef.minSize;
+            maxSize = typedef.maxSize;
+            TypeRegistry.TypeInfo sup = c.registry.info(typedef.type);
+            keys = (typedef.keys != null || sup == null || sup.keys == null) ? c.ref(typedef.keys) : c.nodes[sup.keys.id];
+            items = (typedef.items != null || sup == null || sup.items == null) ? c.ref(typedef.items) : c.nodes[sup.items.id];
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            if (data instanceof Map) {
+                Map<?,?> map = (Map<?,?>)data;
+                Result r = checkSize(map.size(), "map", path);
+                if (r != null) {
+                    return r;
+                }
+                if (path.parallel(map.size())) {
+                    if (data instanceof Struct) {
+                        Struct st = (Struct)data;
+                        return ParallelCheck.run(st.size(), path, (i, p) -> validateEntry(st.nameAt(i), st.valueAt(i), i, p));
+                    }
+                    Object [] ks = new Object[map.size()];
+                    Object [] vs = new Object[ks.length];
+                    int n = 0;
+                    for (Map.Entry<?,?> e : map.entrySet()) {
+                        ks[n] = e.getKey();
+                        vs[n++] = e.getValue();
+                    }
+                    return ParallelCheck.run(n, path, (i, p) -> validateEntry(ks[i], vs[i], i, p));
+                }
+                if (data instanceof Struct) { //by slot, without an iterator
+                    Struct st = (Struct)data;
+                    for (int i = 0; i < st.size(); i++) {
+                        Result tmp = validateEntry(st.nameAt(i), st.valueAt(i), i, path);
+                        if (!tmp.valid) {
+                            return tmp;
                         }
-                    } else {
-                        if (f.keys != null) {
-                            MapTypeDef td = new MapTypeDef().type("Map").keys(f.keys).items(f.items);
-                            Result tmp = validateMapType(fdata, td, context);
+                    }
+                } else {
+                    int i = 0;
+                    for (Map.Entry<?,?> e : map.entrySet()) {
+                        Result tmp = validateEntry(e.getKey(), e.getValue(), i++, path);
+                        if (!tmp.valid) {
+                            return tmp;
+                        }
+                    }
+                }
+            }
+            return VALID;
+        }
+
+        private Result validateEntry(Object key, Object value, int i, Path path) {
+            path.pushKey(i);
+            Result r = keys.validate(key, path);
+            path.pop();
+            if (r.valid) {
+                path.pushIndex(i);
+                r = items.validate(value, path);
+                path.pop();
+            }
+            return r;
+        }
+    }
+
+    static final class ArrayNode extends CollectionNode {
+        Node items; //null if the items are not constrained
+
+        ArrayNode(String name) {
+            super(name);
+        }
+
+        @Override
+        void link(Compiler c, Type t) {
+            ArrayTypeDef typedef = t.ArrayTypeDef;
+            size = typedef.size;
+            minSize = typedef.minSize;
+            maxSize = typedef.maxSize;
+            TypeRegistry.TypeInfo sup = c.registry.info(typedef.type);
+            if (typedef.items != null) {
+                items = c.ref(typedef.items);
+            } else if (sup != null && sup.items != null) { //inherited
+                items = c.nodes[sup.items.id];
+            }
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            if (data instanceof List) {
+                List<?> lst = (List<?>)data;
+                Result r = checkSize(lst.size(), "array", path);
+                if (r != null) {
+                    return r;
+                }
+                if (items != null) {
+                    if (path.parallel(lst.size())) {
+                        List<?> l = (lst instanceof java.util.RandomAccess || lst instanceof Array) ? lst : java.util.Arrays.asList(lst.toArray());
+                        return ParallelCheck.run(l.size(), path, (i, p) -> validateItem(l.get(i), i, p));
+                    }
+                    if (lst instanceof java.util.RandomAccess || lst instanceof Array) { //by index, without an iterator
+                        for (int i = 0; i < lst.size(); i++) {
+                            Result tmp = validateItem(lst.get(i), i, path);
                             if (!tmp.valid) {
                                 return tmp;
                             }
-                        } else if (f.items != null) {
-                            ArrayTypeDef td = new ArrayTypeDef().type("Array").items(f.items);
-                            Result tmp = validateArrayType(fdata, td, context);
+                        }
+                    } else {
+                        int i = 0;
+                        for (Object item : lst) {
+                            Result tmp = validateItem(item, i++, path);
                             if (!tmp.valid) {
                                 return tmp;
                             }
                         }
-                        Result tmp = validate(fdata, f.type, f.type, context + "." + fname);
-                        if (!tmp.valid) {
-                            return tmp;
-                        }
                     }
-                } catch (IllegalAccessException e) {
-                    return error(context, "Inaccessible field in object: " + fname + " for type " + typedef.name);
                 }
-            } catch (NoSuchFieldException e) {
-                return error(context, "Missing field in object: " + fname + " for type " + typedef.name);
             }
+            return VALID;
+        }
+
+        private Result validateItem(Object item, int i, Path path) {
+            path.pushIndex(i);
+            Result r = items.validate(item, path);
+            path.pop();
+            return r;
         }
-        return valid();
     }
 
-    Result validateStringType(Object data, StringTypeDef typedef, String context) {
-        if (data != null) {
-            if (data instanceof String) {
-                String s = (String)data;
-                int len = s.length();
-                if (typedef.maxSize != null) {
-                    if (len > typedef.maxSize) {
-                        return error(context, "String larger than maxSize of " + typedef.maxSize + " for type " + typedef.name);
+    //Checks the elements of a collection in parallel, by recursively splitting the index range.
+    //The lowest failing index found so far is shared, so that ranges above it are skipped; a
+    //range is only skipped for an error at a lower index, so the lowest one is always found.
+    static final class ParallelCheck extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        interface Element {
+            Result validate(int i, Path path);
+        }
+
+        private final Element element;
+        private final Path base;
+        private final AtomicInteger firstError;
+        private final int lo;
+        private final int hi;
+        private final int grain;
+
+        private ParallelCheck(Element element, Path base, AtomicInteger firstError, int lo, int hi, int grain) {
+            this.element = element;
+            this.base = base;
+            this.firstError = firstError;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        static Result run(int size, Path path, Element element) {
+            int grain = Math.max(256, size / (path.pool.getParallelism() * 8));
+            Path base = new Path(path);
+            ParallelCheck task = new ParallelCheck(element, base, new AtomicInteger(Integer.MAX_VALUE), 0, size, grain);
+            Result r = (getPool() == path.pool) ? task.invoke() : path.pool.invoke(task);
+            return (r == null) ? VALID : r;
+        }
+
+        //the error at the lowest index in the range, or null
+        @Override
+        protected Result compute() {
+            if (firstError.get() < lo) {
+                return null;
+            }
+            if (hi - lo > grain) {
+                int mid = (lo + hi) >>> 1;
+                ParallelCheck left = new ParallelCheck(element, base, firstError, lo, mid, grain);
+                ParallelCheck right = new ParallelCheck(element, base, firstError, mid, hi, grain);
+                right.fork();
+                Result r = left.compute();
+                if (r != null) {
+                    if (!right.tryUnfork()) {
+                        right.join();
                     }
+                    return r;
                 }
-                if (typedef.minSize != null) {
-                    if (len < typedef.minSize) {
-                        return error(context, "String smaller than minSize of " + typedef.minSize + " for type " + typedef.name);
-                    }
+                return right.join();
+            }
+            Path path = new Path(base);
+            for (int i = lo; i < hi; i++) {
+                if (firstError.get() < i) {
+                    return null;
                 }
-                if (typedef.pattern != null) {
-                    if (!s.matches(typedef.pattern)) {
-                        return error(context, "String pattern mismatch (expected \"" + typedef.pattern + "\")  for type " + typedef.name);
+                Result r = element.validate(i, path);
+                if (!r.valid) {
+                    int prev;
+                    while (i < (prev = firstError.get()) && !firstError.compareAndSet(prev, i)) {
                     }
+                    return r;
                 }
             }
+            return null;
         }
-        return valid();
     }
 
-    long longValueOf(com.yahoo.rdl.Number n) {
-        switch (n.variant) {
-        case Int8:
-            return (long)n.Int8;
-        case Int16:
-            return (long)n.Int16;
-        case Int32:
-            return (long)n.Int32;
-        case Int64:
-            return (long)n.Int64;
-        default:
-            return 0;
+    static final class EnumNode extends Node {
+        private HashSet<String> symbols;
+
+        EnumNode(String name) {
+            super(name);
         }
-    }
 
-    double doubleValueOf(com.yahoo.rdl.Number n) {
-        switch (n.variant) {
-        case Float32:
-            return (double)n.Float32;
-        case Float64:
-            return (double)n.Float64;
-        default:
-            return 0;
+        @Override
+        void link(Compiler c, Type t) {
+            symbols = new HashSet<String>();
+            for (EnumElementDef ed : t.EnumTypeDef.elements) {
+                symbols.add(ed.symbol);
+            }
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            if (data instanceof String && !symbols.contains(data)) {
+                return error(path, "Not a valid " + name + ", " + data.getClass().getName());
+            }
+            return VALID;
         }
     }
 
-    Result checkNumber(java.lang.Number n, com.yahoo.rdl.Number ref, boolean checkMin, String context, String tname) {
-        switch (ref.variant) {
-        case Int8:
-        case Int16:
-        case Int32:
-        case Int64:
-            long nref = longValueOf(ref);
-            if (checkMin) {
-                if (n.longValue() < nref) {
-                    return error(context, "Number smaller than min of " + nref + " for type " + tname);
-                }
-            } else {
-                if (n.longValue() > nref) {
-                    return error(context, "Number larger than max of " + nref + " for type " + tname);
-                }
+    static final class UnionNode extends Node {
+        String [] variants;
+        Node [] variantNodes;
+        //the public fields of each class validated as this union, by variant position
+        private final ClassValue<Accessors> accessors = new ClassValue<Accessors>() {
+            @Override
+            protected Accessors computeValue(Class<?> cl) {
+                return new Accessors(cl, variants);
             }
-            return null;
-        case Float32:
-        case Float64:
-        default:
-            double dref = doubleValueOf(ref);
-            if (checkMin) {
-                if (n.doubleValue() < dref) {
-                    return error(context, "Number smaller than min of " + dref + " for type " + tname);
-                }
-            } else {
-                if (n.doubleValue() > dref) {
-                    return error(context, "Number larger than max of " + dref + " for type " + tname);
+        };
+
+        UnionNode(String name) {
+            super(name);
+        }
+
+        @Override
+        void link(Compiler c, Type t) {
+            List<String> vs = t.UnionTypeDef.variants;
+            variants = vs.toArray(new String[vs.size()]);
+            variantNodes = new Node[variants.length];
+            for (int i = 0; i < variants.length; i++) {
+                variantNodes[i] = c.ref(variants[i]);
+            }
+        }
+
+        //the position of the named variant, or -1
+        int variantIndex(String vname) {
+            for (int i = 0; i < variants.length; i++) {
+                if (variants[i].equals(vname)) {
+                    return i;
                 }
             }
-            return null;
+            return -1;
         }
-    }
 
-    Result validateNumberType(Object data, NumberTypeDef typedef, String context) {
-        if (data != null) {
-            if (data instanceof java.lang.Number) {
-                java.lang.Number n = ((java.lang.Number)data);
-                if (typedef.max != null) {
-                    Result r = checkNumber(n, typedef.max, false, context, typedef.name);
-                    if (r != null) {
-                        return r;
+        @Override
+        Result validate(Object data, Path path) {
+            if (data == null) {
+                return VALID;
+            }
+            if (data instanceof Map) {
+                Map<?,?> map = (Map<?,?>)data;
+                for (int i = 0; i < variants.length; i++) {
+                    if (map.containsKey(variants[i])) {
+                        return validateVariant(i, map.get(variants[i]), path);
                     }
                 }
-                if (typedef.min != null) {
-                    Result r = checkNumber(n, typedef.min, true, context, typedef.name);
-                    if (r != null) {
-                        return r;
+            } else {
+                Accessors acc = accessors.get(data.getClass());
+                for (int i = 0; i < variants.length; i++) {
+                    if (acc.getters[i] == null) {
+                        return error(path, (acc.inaccessible[i] ? "Inaccessible" : "Missing") + " field in object: " + variants[i] + " for type " + name);
+                    }
+                    Object vdata = acc.get(i, data);
+                    if (vdata != null) {
+                        return validateVariant(i, vdata, path);
                     }
                 }
             }
+            return error(path, "Not a valid " + name + ": " + data);
         }
-        return valid();
-    }
 
-    Result validateEnumType(Object data, EnumTypeDef typedef, String context) {
-        if (data instanceof String) {
-            String sym = (String)data;
-            for (EnumElementDef ed : typedef.elements) {
-                if (sym.equals(ed.symbol)) {
-                    return valid();
-                }
-            }
-            return error(context, "Not a valid " + typedef.name + ", " + data.getClass().getName());
+        private Result validateVariant(int i, Object vdata, Path path) {
+            path.pushVariant(variants[i]);
+            Result r = variantNodes[i].validate(vdata, path);
+            path.pop();
+            return r;
         }
-        return valid();
     }
 
-    Result validateUnionType(Object data, UnionTypeDef typedef, String context) {
-        if (data == null) {
-            return valid();
+    static final class StringNode extends Node {
+        private Integer minSize;
+        private Integer maxSize;
+        private String patternSource;
+        private Pattern pattern;
+        private String patternError; //if the pattern does not compile
+
+        StringNode(String name) {
+            super(name);
         }
-        if (data instanceof Map) {
-            Map map = (Map)data;
-            for (String variant : typedef.variants) {
-                if (map.containsKey(variant)) {
-                    return validate(map.get(variant), variant, variant, context + "<" + variant + ">");
+
+        @Override
+        void link(Compiler c, Type t) {
+            StringTypeDef typedef = t.StringTypeDef;
+            minSize = typedef.minSize;
+            maxSize = typedef.maxSize;
+            patternSource = typedef.pattern;
+            if (patternSource != null) {
+                try {
+                    pattern = Pattern.compile(patternSource);
+                } catch (PatternSyntaxException e) {
+                    patternError = e.getMessage();
                 }
             }
-        } else {
-            Class<?> cl = data.getClass();
-            for (String variant : typedef.variants) {
-                //special _default?
-                try {
-                    java.lang.reflect.Field field = cl.getField(variant);
-                    try {
-                        Object vdata = field.get(data);
-                        if (vdata != null) {
-                            return validate(vdata, variant, variant, context + "<" + variant + ">");
-                        }
-                    } catch (IllegalAccessException e) {
-                        return error(context, "Inaccessible field in object: " + variant + " for type " + typedef.name);
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            if (data instanceof String) {
+                String s = (String)data;
+                int len = s.length();
+                if (maxSize != null && len > maxSize) {
+                    return error(path, "String larger than maxSize of " + maxSize + " for type " + name);
+                }
+                if (minSize != null && len < minSize) {
+                    return error(path, "String smaller than minSize of " + minSize + " for type " + name);
+                }
+                if (patternSource != null) {
+                    if (pattern == null) {
+                        return error(path, "Bad pattern for type " + name + ": " + patternError);
+                    }
+                    if (!pattern.matcher(s).matches()) {
+                        return error(path, "String pattern mismatch (expected \"" + patternSource + "\")  for type " + name);
                     }
-                } catch (NoSuchFieldException e) {
-                    return error(context, "Missing field in object: " + variant + " for type " + typedef.name);
                 }
             }
+            return VALID;
         }
-        return error(context, "Not a valid " + typedef.name + ": " + data);
     }
 
-    //    Result validateBaseType(Object data, BaseType typedef, String context) {
-    //        return validateBaseType(data, typedef, String.valueOf(typedef), context);
-    //    }
+    static final class BytesNode extends Node {
+        private Integer size;
+        private Integer minSize;
+        private Integer maxSize;
 
-    Result validateBaseType(Object data, BaseType typedef, String alias, String context) {
-        switch (typedef) {
-        case Bool:
-            if (data instanceof Boolean) {
-                return valid();
-            }
-            break;
-        case Int8:
-            if (data instanceof Byte) {
-                return valid();
-            }
-            if (data instanceof Integer) {
-                int n = ((Integer)data).intValue();
-                if (n <= 127 && n >= -128) {
-                    return valid();
+        BytesNode(String name) {
+            super(name);
+        }
+
+        @Override
+        void link(Compiler c, Type t) {
+            BytesTypeDef typedef = t.BytesTypeDef;
+            size = typedef.size;
+            minSize = typedef.minSize;
+            maxSize = typedef.maxSize;
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            if (data instanceof byte []) {
+                int len = ((byte [])data).length;
+                if (size != null && len != size) {
+                    return error(path, "Bytes not of size " + size + " for type " + name);
+                }
+                if (maxSize != null && len > maxSize) {
+                    return error(path, "Bytes larger than maxSize of " + maxSize + " for type " + name);
+                }
+                if (minSize != null && len < minSize) {
+                    return error(path, "Bytes smaller than minSize of " + minSize + " for type " + name);
                 }
             }
-            break;
-        case Int16:
-            if ((data instanceof Short) || (data instanceof Byte)) {
-                return valid();
-            }
-            if (data instanceof Integer) {
-                int n = ((Integer)data).intValue();
-                if (n <= 32767 && n >= -32768) {
-                    return valid();
+            return VALID;
+        }
+    }
+
+    static final class NumberNode extends Node {
+        private Bound min;
+        private Bound max;
+
+        //a min or max, compared as an integer or as a float depending on how it was declared
+        static final class Bound {
+            final boolean integral;
+            final long longValue;
+            final double doubleValue;
+
+            Bound(com.yahoo.rdl.Number n) {
+                switch (n.variant) {
+                case Int8:
+                    integral = true;
+                    longValue = n.Int8;
+                    break;
+                case Int16:
+                    integral = true;
+                    longValue = n.Int16;
+                    break;
+                case Int32:
+                    integral = true;
+                    longValue = n.Int32;
+                    break;
+                case Int64:
+                    integral = true;
+                    longValue = n.Int64;
+                    break;
+                default:
+                    integral = false;
+                    longValue = 0;
+                }
+                switch (n.variant) {
+                case Float32:
+                    doubleValue = n.Float32;
+                    break;
+                case Float64:
+                    doubleValue = n.Float64;
+                    break;
+                default:
+                    doubleValue = 0;
                 }
             }
-            break;
-        case Int32:
-            if ((data instanceof Integer) || (data instanceof Short) || (data instanceof Byte)) {
-                return valid();
+
+            boolean above(java.lang.Number n) {
+                return integral ? n.longValue() > longValue : n.doubleValue() > doubleValue;
             }
-            break;
-        case Int64:
-            if ((data instanceof Long) || (data instanceof Integer) || (data instanceof Short) || (data instanceof Byte)) {
-                return valid();
+
+            boolean below(java.lang.Number n) {
+                return integral ? n.longValue() < longValue : n.doubleValue() < doubleValue;
             }
-            break;
-        case Float32:
-            if (data instanceof Float) {
-                return valid();
+
+            public String toString() {
+                return integral ? String.valueOf(longValue) : String.valueOf(doubleValue);
             }
-            break;
-        case Float64:
-            if (data instanceof Double) {
-                return valid();
+        }
+
+        NumberNode(String name) {
+            super(name);
+        }
+
+        @Override
+        void link(Compiler c, Type t) {
+            NumberTypeDef typedef = t.NumberTypeDef;
+            if (typedef.min != null) {
+                min = new Bound(typedef.min);
             }
-            break;
-        case String:
-            if (data instanceof String) {
-                return valid();
+            if (typedef.max != null) {
+                max = new Bound(typedef.max);
             }
-            break;
-        case Bytes:
-            if (data instanceof byte []) {
-                return valid();
-            }
-            break;
-        case Timestamp:
-            if (data instanceof Timestamp) {
-                return valid();
-            } else if (data instanceof String) {
-                Timestamp ts = Timestamp.fromString((String)data);
-                if (ts != null) {
-                    return valid();
-                }
-            }
-            break;
-        case UUID:
-            if (data instanceof UUID) {
-                return valid();
-            } else if (data instanceof String) {
-                UUID u = UUID.fromString((String)data);
-                if (u != null) {
-                    return valid();
-                }
-            }
-            break;
-        case Array:
-            if (data == null || data instanceof List) {
-                return valid();
-            }
-            break;
-        case Map:
-            if (data == null || data instanceof Map) {
-                return valid();
-            }
-            break;
-        case Any:
-            return valid();
-        }
-        String s = "null";
-        if (data != null) {
-            s = data.getClass().getName();
-        }
-        return error(context, "Not a valid " + alias + ", " + s);
+        }
+
+        @Override
+        Result validate(Object data, Path path) {
+            if (data instanceof java.lang.Number) {
+                java.lang.Number n = (java.lang.Number)data;
+                if (max != null && max.above(n)) {
+                    return error(path, "Number larger than max of " + max + " for type " + name);
+                }
+                if (min != null && min.below(n)) {
+                    return error(path, "Number smaller than min of " + min + " for type " + name);
+                }
+            }
+            return VALID;
+        }
     }
 }
@@ -160,6 +160,16 @@ public class Value {
         }
     }
 
+    //Structs and Arrays are frozen recursively, other values are shared as is
+    static Object freeze(Object o) {
+        if (o instanceof Struct) {
+            return ((Struct) o).freeze();
+        } else if (o instanceof Array) {
+            return ((Array) o).freeze();
+        }
+        return o;
+    }
+
     public static boolean equals(Object o1, Object o2) {
         if (o1 == o2) {
             return true;
@@ -193,6 +203,40 @@ public class Value {
             return o1.equals(o2);
         }
     }
+    /**
+     * A hash code consistent with equals for the RDL value types. Numbers hash by their long
+     * value, so that the same integral value of different types hashes alike. Structs and Arrays
+     * hash by their contents, and null-valued fields of a Struct are ignored, like absent ones.
+     * @param o the value, or null
+     * @return the hash code
+     */
+    public static int hashCode(Object o) {
+        if (o == null) {
+            return 0;
+        } else if (o instanceof byte []) {
+            return Arrays.hashCode((byte[]) o);
+        } else if (o instanceof java.lang.Number) {
+            return Long.hashCode(((java.lang.Number) o).longValue());
+        } else if (o instanceof Timestamp) {
+            return o.toString().hashCode();
+        } else if (o instanceof Struct) {
+            int h = 0;
+            for (Struct.Field f : (Struct) o) {
+                if (f.value() != null) {
+                    h += f.name().hashCode() ^ hashCode(f.value());
+                }
+            }
+            return h;
+        } else if (o instanceof java.util.List) {
+            int h = 1;
+            for (Object item : (java.util.List<?>) o) {
+                h = 31 * h + hashCode(item);
+            }
+            return h;
+        }
+        return o.hashCode();
+    }
+
     public static String encodeBase64(byte [] bytes, boolean urlSafe) {
         //note: Y64 is used inside Y!, it instead does "+/=" => "._-", which seems gratuitously
         //different than what most of the industry uses ("+/=" => "-_.") Why?!
@@ -42,9 +42,41 @@ public class TBin {
         throw new RuntimeException("TBin.bytes(Object, TypeDef) - not implemented");
     }
 
+    /**
+     * Encode the object into TBin as a value of an RDL type, whose typedef is derived from the
+     * schema rather than by reflecting on the object's class.
+     * @param o the object to encode
+     * @param reg the resolved types of the schema
+     * @param typeName the RDL type of the object
+     * @return a byte array containing the tbin encoding, or null if the object cannot be encoded
+     * as the type
+     */
     public static byte [] bytes(Object o, TypeRegistry reg, String typeName) {
-        //this one must reflect and walk the object, probably twice to 1) create signature, and 2) emit values
-        throw new RuntimeException("TBin.bytes(Object, TypeRegistry, String) - not implemented");
+        try {
+            //the object is walked once, to JSON, which is transcoded to the type
+            return TBinTranscoder.transcode(JSON.bytes(o), TypeDef.forType(reg, typeName));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Encode the object into TBin as a value of a registered type. The typedefs are not
+     * embedded, the data refers to the type by fingerprint instead.
+     * @param o the object to encode
+     * @param schemas the registry of the type
+     * @param fingerprint the fingerprint of the type
+     * @return a byte array containing the tbin encoding, or null if the type is not registered,
+     * or the object cannot be encoded as the type
+     */
+    public static byte [] bytes(Object o, TBinSchemaRegistry schemas, long fingerprint) {
+        try {
+            return TBinTranscoder.transcode(JSON.bytes(o), schemas.require(fingerprint));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     /**
@@ -82,6 +114,64 @@ public class TBin {
         }
     }
 
+    /**
+     * Decode the TBin bytes, which may refer to registered types by fingerprint, mapping the
+     * result onto the target class.
+     * @param <T> the type of data expected
+     * @param tbinData the TBin-encoded data to decode
+     * @param schemas the types the data may refer to
+     * @param dataType the class to decode as.
+     * @return the decoded object
+     */
+    public static <T> T fromBytes(byte [] tbinData, TBinSchemaRegistry schemas, Class<T> dataType) {
+        try {
+            ByteArrayInputStream in = new ByteArrayInputStream(tbinData);
+            TBinDecoder dec = new TBinDecoder(in, schemas);
+            return dec.decode(dataType);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Validate the TBin bytes against an RDL type without decoding them. Reading stops at the
+     * first violation.
+     * @param tbinData the TBin-encoded data to validate
+     * @param validator the validator for the schema
+     * @param typeName the RDL type the data must conform to
+     * @return the result of validation, or null if the data is not well formed TBin
+     */
+    public static Validator.Result validate(byte [] tbinData, Validator validator, String typeName) {
+        try {
+            ByteArrayInputStream in = new ByteArrayInputStream(tbinData);
+            TBinDecoder dec = new TBinDecoder(in);
+            return dec.validate(validator, typeName);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Decode the TBin bytes into an existing object, reusing it and the containers it holds
+     * where possible. See TBinDecoder.decodeInto for the details.
+     * @param <T> the type of data expected
+     * @param tbinData the TBin-encoded data to decode
+     * @param target the object to decode into
+     * @return the decoded object, usually the target
+     */
+    public static <T> T fromBytesInto(byte [] tbinData, T target) {
+        try {
+            ByteArrayInputStream in = new ByteArrayInputStream(tbinData);
+            TBinDecoder dec = new TBinDecoder(in);
+            return dec.decodeInto(target);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     public static final int CURRENT_VERSION = 1;
 
     static final int NULL_TAG           = 0x00; // "NULL_TAG"
@@ -107,6 +197,10 @@ public class TBin {
     static final int DEF_STRUCT_TAG     = 0x13;
     static final int DEF_UNION_TAG      = 0x14;
     static final int DEF_ENUM_TAG       = 0x15;
+    //DEF_REF_TAG has the same value as UNION_TAG on purpose: the single byte tags below FIRST_USER_TAG are all
+    //taken. It is only valid in typedef position, after a new user tag, where the value tags never appear;
+    //UNION_TAG is never written as a value tag, a union value is tagged with its typedef's user tag.
+    static final int DEF_REF_TAG        = 0x16; // "DEF_REF_TAG fixed64(fingerprint)" - a typedef from a TBinSchemaRegistry
 
     static final int UNION_TAG          = 0x16;
     static final int ENUM_TAG           = 0x17;
@@ -9,10 +9,14 @@ import java.util.Map;
 import java.util.List;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.BufferedInputStream;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 
 /**
@@ -20,13 +24,29 @@ import java.lang.reflect.ParameterizedType;
  */
 public class TBinDecoder extends TBin {
 
+    //the most items to preallocate room for based on a count read from the stream
+    static final int MAX_PRESIZE = 1 << 16;
+
     private InputStream raw;
     private BufferedInputStream in;
     private ArrayList<String> syms;
     private ArrayList<TypeDef> types;
     private byte [] buf;
+    private String [] nameBuf; //field names of the struct being decoded into, to find stale fields
     private int dataVersion;
     private int currentCount;
+    private com.fasterxml.jackson.databind.ObjectMapper mapper; //for validating decodes, created when first needed
+    private TBinSchemaRegistry schemas; //for typedefs referred to by fingerprint, or null
+
+    /**
+     * Create a decoder for a stream whose typedefs may refer to types by fingerprint.
+     * @param in the TBin input
+     * @param schemas the types the stream may refer to
+     */
+    public TBinDecoder(InputStream in, TBinSchemaRegistry schemas) {
+        this(in);
+        this.schemas = schemas;
+    }
 
     public TBinDecoder(InputStream in) {
         this.raw = in;
@@ -38,6 +58,19 @@ public class TBinDecoder extends TBin {
         this.currentCount = 0;
     }
 
+    /**
+     * @return true if there is no more data in the stream, i.e. the last value has been decoded
+     * @throws IOException on any underlying I/O error.
+     */
+    public boolean atEnd() throws IOException {
+        in.mark(1);
+        if (in.read() < 0) {
+            return true;
+        }
+        in.reset();
+        return false;
+    }
+
     public void close() throws IOException {
         in.close();
         raw.close();
@@ -52,6 +85,76 @@ public class TBinDecoder extends TBin {
         return decode(dataType, dataClass);
     }
 
+    /**
+     * Decode the next value, validating it against an RDL type as it is read. Constraints are
+     * checked on each value as it comes off the stream, and decoding stops at the first
+     * violation, without reading or building the rest of the object.
+     * @param <T> the type of data expected
+     * @param dataClass the class to decode as
+     * @param validator the validator for the schema
+     * @param typeName the RDL type the value must conform to
+     * @return the decoded object
+     * @throws Validator.ValidationException if the value does not conform to the type
+     * @throws IOException on bad TBin stream or any underlying I/O error.
+     */
+    public <T> T decode(Class<T> dataClass, Validator validator, String typeName) throws IOException {
+        if (mapper == null) {
+            mapper = TBinFactory.newMapper();
+        }
+        ValidatingParser p = new ValidatingParser(new TBinParser(0, mapper, this), validator, typeName);
+        try {
+            return mapper.readValue(p, dataClass);
+        } catch (IOException e) {
+            //the mapper wraps exceptions thrown by the parser in some cases
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof Validator.ValidationException) {
+                    throw (Validator.ValidationException)t;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Validate the next value against an RDL type as it is read, without decoding it. Reading
+     * stops at the first violation.
+     * @param validator the validator for the schema
+     * @param typeName the RDL type the value must conform to
+     * @return the result of validation
+     * @throws IOException on bad TBin stream or any underlying I/O error.
+     */
+    public Validator.Result validate(Validator validator, String typeName) throws IOException {
+        return validator.validate(new TBinParser(0, null, this), typeName);
+    }
+
+    /**
+     * Decode the next value into an existing object, so that decoding a stream of records of the
+     * same shape produces very little garbage. A mutable Struct target is made to hold exactly
+     * the decoded fields. For other objects the encoded fields are overwritten and any others
+     * are left as they were. In both cases nested Structs, Arrays, Lists, Maps, and objects
+     * already present are cleared and refilled rather than replaced.
+     * Immutable targets, and targets that do not fit the encoded data, are not reused: the
+     * decoded value is then returned as a new object.
+     * @param <T> the type of the target
+     * @param target the object to decode into
+     * @return the decoded object, usually the target
+     * @throws IOException on bad TBin stream or any underlying I/O error.
+     */
+    @SuppressWarnings({"unchecked"})
+    public <T> T decodeInto(T target) throws IOException {
+        TypeDef type = nextType();
+        if (target instanceof Struct || target instanceof List || target instanceof Map) {
+            return (T)decodeReusing(type, target);
+        }
+        if (target != null && type.tag == STRUCT_TAG) {
+            return decodeStructInto(type, (Class<T>)target.getClass(), target);
+        }
+        if (target == null) {
+            return (T)decode(type);
+        }
+        return decode(type, (Class<T>)target.getClass());
+    }
+
     //public <T> T decode(TypeDef type, Class<T> dataClass) throws IOException {
     //    println("=========== decode(" + type + ", " + dataClass.getName() + ")");
     //    T result = decode2(type, dataClass);
@@ -108,23 +211,15 @@ public class TBinDecoder extends TBin {
     @SuppressWarnings({"unchecked"})
     <T> T decodeArray(TypeDef otype, Class<T> oclass) throws IOException {
         int count = nextCount(otype);
-        if (java.util.List.class.isAssignableFrom(oclass)) {
-            try {
-                List list = (List)ArrayList.class.newInstance();
-                for (int i=0; i<count; i++) {
-                    list.add(decode(otype.items, Object.class)); //type erasure means we don't know the item class
-                }
-                return (T)list;
-            } catch (InstantiationException|IllegalAccessException e) {
-            }
-        } else if (oclass == Object.class || oclass == Array.class) {
-            Array ary = new Array();
-            for (int i = 0; i < count; i++) {
-                TypeDef itemType = nextItemType(otype, i);
-                Object o = decode(itemType);
-                ary.add(o);
+        if (oclass == Object.class || oclass == Array.class) {
+            return (T)decodeGenericArray(otype, count);
+        } else if (java.util.List.class.isAssignableFrom(oclass)) {
+            //the count comes from the stream, so don't trust it for more than a bounded allocation
+            List<Object> list = new ArrayList<Object>(Math.min(count, MAX_PRESIZE));
+            for (int i=0; i<count; i++) {
+                list.add(decode(otype.items, Object.class)); //type erasure means we don't know the item class
             }
-            return (T)ary;
+            return (T)list;
         }
         throw new TBinException("Cannot instantiate array as target object of class " + oclass.getName());
     }
@@ -192,40 +287,267 @@ public class TBinDecoder extends TBin {
         }
     }
 
-    @SuppressWarnings({"unchecked"})
     <T> T decodeStruct(TypeDef otype, Class<T> oclass) throws IOException {
+        return decodeStructInto(otype, oclass, null);
+    }
+
+    //decode a struct into the target if it is non-null, otherwise into a new instance of the class
+    @SuppressWarnings({"unchecked"})
+    <T> T decodeStructInto(TypeDef otype, Class<T> oclass, T target) throws IOException {
         if (oclass == Struct.class || oclass == Object.class) {
-            Struct s = new Struct();
-            int fcount = nextCount(otype);
-            for (int i = 0; i < fcount; i++) {
-                String fname = nextItemName(otype, i);
-                TypeDef ftype = nextItemType(otype, i);
-                Object fval = decode(ftype, Object.class);
-                s.put(fname, fval);
+            if (target instanceof Struct && !(target instanceof ImmutableStruct)) {
+                return (T)decodeGenericStructInto(otype, (Struct)target);
             }
-            return (T)s;
+            return (T)decodeGenericStruct(otype, true);
         }
         T o;
+        boolean reuse = target != null;
         try {
-            o = oclass.newInstance();
-            int fcount = (otype.fields != null)? otype.fields.size() : nextCount(otype);
-            for (int i = 0; i < fcount; i++) {
-                String fname = nextItemName(otype, i);
-                TypeDef ftype = nextItemType(otype, i);
-                fname = sanitizeFieldName(fname);
-                Field f = oclass.getDeclaredField(fname);
-                f.setAccessible(true);
-                Class<?> fclass = f.getType();
-                decodeStructField(o, f, ftype, fclass, oclass);
-            }
-        } catch (InstantiationException|IllegalAccessException|NoSuchFieldException e) {
+            o = reuse ? target : oclass.newInstance();
+            if (otype.fields != null) {
+                StructPlan plan = StructPlan.of(otype, oclass);
+                int fcount = otype.fields.size();
+                for (int i = 0; i < fcount; i++) {
+                    TypeDef ftype = nextItemType(otype, i);
+                    Field f = plan.slots[i];
+                    if (f == null) {
+                        decode(ftype); //a field the reader does not have
+                    } else {
+                        decodeStructField(o, f, ftype, f.getType(), oclass, reuse);
+                    }
+                }
+                if (plan.init != null) {
+                    plan.init.invoke(o);
+                }
+            } else {
+                Map<String,Field> fields = READER_FIELDS.get(oclass);
+                int fcount = nextCount(otype);
+                for (int i = 0; i < fcount; i++) {
+                    String fname = sanitizeFieldName(nextItemName(otype, i));
+                    TypeDef ftype = nextItemType(otype, i);
+                    Field f = fields.get(fname);
+                    if (f == null) {
+                        decode(ftype);
+                    } else {
+                        decodeStructField(o, f, ftype, f.getType(), oclass, reuse);
+                    }
+                }
+            }
+        } catch (InstantiationException|IllegalAccessException|InvocationTargetException e) {
             e.printStackTrace();
             throw new TBinException("Cannot instantiate target object of class " + oclass.getName());
         }
         return o;
     }
 
-    String sanitizeFieldName(String fname) {
+    //the instance fields of a reader class by name, accessible
+    private static final ClassValue<Map<String,Field>> READER_FIELDS = new ClassValue<Map<String,Field>>() {
+        @Override
+        protected Map<String,Field> computeValue(Class<?> cl) {
+            Map<String,Field> fields = new HashMap<String,Field>();
+            for (Field f : cl.getDeclaredFields()) {
+                if (!Modifier.isStatic(f.getModifiers())) {
+                    f.setAccessible(true);
+                    fields.put(f.getName(), f);
+                }
+            }
+            return fields;
+        }
+    };
+
+    // How structs of a writer typedef are decoded into a reader class, resolved by name once,
+    // when the pair is first seen: the reader field of each wire field, or null to skip the
+    // value, and the init() method that supplies the reader's defaults if some of its fields
+    // are not written. Data written with added or removed fields then decodes as fast as data
+    // that matches. The last plan is cached in the typedef, which is usually decoded into one
+    // class only.
+    static final class StructPlan {
+        final Class<?> oclass;
+        final Field [] slots;
+        final Method init;
+
+        private StructPlan(TypeDef type, Class<?> oclass) {
+            this.oclass = oclass;
+            Map<String,Field> fields = READER_FIELDS.get(oclass);
+            slots = new Field[type.fields.size()];
+            int mapped = 0;
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = fields.get(sanitizeFieldName(type.fields.get(i).name));
+                if (slots[i] != null) {
+                    mapped++;
+                }
+            }
+            Method m = null;
+            if (mapped < fields.size()) {
+                try {
+                    m = oclass.getMethod("init");
+                    if (Modifier.isStatic(m.getModifiers())) {
+                        m = null;
+                    }
+                } catch (NoSuchMethodException e) {
+                    //no defaults to supply
+                }
+            }
+            this.init = m;
+        }
+
+        static StructPlan of(TypeDef type, Class<?> oclass) {
+            StructPlan plan = type.plan;
+            if (plan == null || plan.oclass != oclass) {
+                plan = new StructPlan(type, oclass);
+                type.plan = plan;
+            }
+            return plan;
+        }
+    }
+
+    // Generic structs are built on shared shapes where possible: a typed struct caches its shape
+    // in the TypeDef, an untyped one interns the shape from the field names as they arrive.
+    Struct decodeGenericStruct(TypeDef type, boolean viaClass) throws IOException {
+        int max = nextCount(type);
+        if (type.fields != null) {
+            Struct.Shape shape = type.shape();
+            if (shape != null) {
+                Struct struct = new Struct(shape);
+                for (int i = 0; i < max; i++) {
+                    TypeDef ftype = nextItemType(type, i);
+                    struct.setValueAt(i, viaClass ? decode(ftype, Object.class) : decode(ftype));
+                }
+                return struct;
+            }
+        }
+        String [] names = new String[max];
+        Object [] values = new Object[max];
+        for (int i = 0; i < max; i++) {
+            names[i] = nextItemName(type, i);
+            TypeDef ftype = nextItemType(type, i);
+            values[i] = viaClass ? decode(ftype, Object.class) : decode(ftype);
+        }
+        return Struct.fromFields(names, values, max);
+    }
+
+    // Decode a struct into an existing one. When the layouts match, the values are replaced in
+    // place; otherwise the fields are put by name, and then any not in the data are removed.
+    Struct decodeGenericStructInto(TypeDef type, Struct target) throws IOException {
+        int max = nextCount(type);
+        Struct.Shape shape = (type.fields != null) ? type.shape() : null;
+        if (shape != null && shape == target.shape()) {
+            for (int i = 0; i < max; i++) {
+                TypeDef ftype = nextItemType(type, i);
+                target.setValueAt(i, decodeReusing(ftype, target.valueAt(i)));
+            }
+            return target;
+        }
+        if (nameBuf == null || nameBuf.length < max) {
+            nameBuf = new String[Math.max(max, 16)];
+        }
+        String [] names = nameBuf;
+        for (int i = 0; i < max; i++) {
+            String name = nextItemName(type, i);
+            TypeDef ftype = nextItemType(type, i);
+            target.put(name, decodeReusing(ftype, target.get(name)));
+            names[i] = name;
+        }
+        if (target.size() > max) {
+            java.util.Set<String> decoded = new java.util.HashSet<String>(Arrays.asList(names).subList(0, max));
+            for (String name : target.sortedNames()) {
+                if (!decoded.contains(name)) {
+                    target.remove(name);
+                }
+            }
+        }
+        return target;
+    }
+
+    // Decode a value, reusing the previous one when it is a mutable container of a suitable kind.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Object decodeReusing(TypeDef type, Object prev) throws IOException {
+        if (prev != null) {
+            switch (type.tag) {
+            case STRUCT_TAG:
+                if (prev instanceof Struct && !(prev instanceof ImmutableStruct)) {
+                    return decodeGenericStructInto(type, (Struct)prev);
+                }
+                break;
+            case ARRAY_TAG:
+                if (prev instanceof List && reusableArray(type, prev)) {
+                    return decodeListInto(type, (List)prev);
+                }
+                break;
+            case MAP_TAG:
+                if (prev instanceof Map && !(prev instanceof Struct)) {
+                    Map map = (Map)prev;
+                    int max = nextCount(type);
+                    map.clear();
+                    for (int i = 0; i < max; i++) {
+                        Object k = decode(nextItemKeyType(type, i));
+                        map.put(k, decode(nextItemType(type, i)));
+                    }
+                    return map;
+                }
+                break;
+            case ANY_TAG:
+                return decodeReusing(nextType(), prev);
+            }
+        }
+        return decode(type);
+    }
+
+    // a list can be refilled if it is mutable and would be the kind of Array a fresh decode produces
+    private boolean reusableArray(TypeDef type, Object prev) {
+        if (prev instanceof ImmutableArray) {
+            return false;
+        }
+        int itemTag = (type.items == null) ? ANY_TAG : type.items.tag;
+        if (prev instanceof IntArray) {
+            return itemTag == INT32_TAG;
+        } else if (prev instanceof LongArray) {
+            return itemTag == INT64_TAG;
+        } else if (prev instanceof DoubleArray) {
+            return itemTag == FLOAT64_TAG;
+        }
+        return true;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    List decodeListInto(TypeDef type, List list) throws IOException {
+        int count = nextCount(type);
+        if (list instanceof IntArray) {
+            IntArray ia = (IntArray)list;
+            ia.clear();
+            for (int i = 0; i < count; i++) {
+                ia.addInt(readInt());
+            }
+        } else if (list instanceof LongArray) {
+            LongArray la = (LongArray)list;
+            la.clear();
+            for (int i = 0; i < count; i++) {
+                la.addLong(readLong());
+            }
+        } else if (list instanceof DoubleArray) {
+            DoubleArray da = (DoubleArray)list;
+            da.clear();
+            for (int i = 0; i < count; i++) {
+                da.addDouble(readDouble());
+            }
+        } else {
+            int old = list.size();
+            for (int i = 0; i < count; i++) {
+                TypeDef itemType = nextItemType(type, i);
+                if (i < old) {
+                    list.set(i, decodeReusing(itemType, list.get(i)));
+                } else {
+                    list.add(decode(itemType));
+                }
+            }
+            for (int i = old - 1; i >= count; i--) {
+                list.remove(i);
+            }
+        }
+        return list;
+    }
+
+    static String sanitizeFieldName(String fname) {
         if ("default".equals(fname)) {
             return TypeDef.KEYWORD_PREFIX + fname;
         }
@@ -233,7 +555,7 @@ public class TBinDecoder extends TBin {
     }
 
     @SuppressWarnings({"unchecked"})
-    <T,F> void decodeStructField(T o, Field f, TypeDef ftype, Class<F> fclass, Class<T> oclass) throws IOException, IllegalAccessException, InstantiationException {
+    <T,F> void decodeStructField(T o, Field f, TypeDef ftype, Class<F> fclass, Class<T> oclass, boolean reuse) throws IOException, IllegalAccessException, InstantiationException {
         int count;
         switch (ftype.tag) {
         case BOOL_TAG:
@@ -277,12 +599,29 @@ public class TBinDecoder extends TBin {
             count = nextCount(ftype);
             if (java.util.List.class.isAssignableFrom(fclass)) {
                 Class<?> iclass = (Class<?>) (((ParameterizedType) f.getGenericType()).getActualTypeArguments()[0]);
-                List list = (List)ArrayList.class.newInstance();
-                for (int i=0; i<count; i++) {
-                    decodeInit(ftype.items);
-                    list.add(decode(ftype.items, iclass));
+                List<Object> list = reuse ? (List<Object>)f.get(o) : null;
+                if (list != null) {
+                    //refill, decoding into the previous items where possible
+                    int old = list.size();
+                    for (int i=0; i<count; i++) {
+                        decodeInit(ftype.items);
+                        if (i < old) {
+                            list.set(i, decodeItemInto(ftype.items, iclass, list.get(i)));
+                        } else {
+                            list.add(decode(ftype.items, iclass));
+                        }
+                    }
+                    for (int i = old - 1; i >= count; i--) {
+                        list.remove(i);
+                    }
+                } else {
+                    list = new ArrayList<Object>(Math.min(count, MAX_PRESIZE));
+                    for (int i=0; i<count; i++) {
+                        decodeInit(ftype.items);
+                        list.add(decode(ftype.items, iclass));
+                    }
+                    f.set(o, list);
                 }
-                f.set(o, list);
             } else {
                 throw new TBinException("Cannot instantiate array as target object of class " + fclass.getName());
             }
@@ -292,17 +631,22 @@ public class TBinDecoder extends TBin {
             if (java.util.Map.class.isAssignableFrom(fclass)) {
                 Class<?> kclass = (Class<?>) (((ParameterizedType) f.getGenericType()).getActualTypeArguments()[0]);
                 Class<?> iclass = (Class<?>) (((ParameterizedType) f.getGenericType()).getActualTypeArguments()[1]);
-                Map map = (Map)HashMap.class.newInstance();
+                Map map = reuse ? (Map)f.get(o) : null;
+                if (map != null) {
+                    map.clear();
+                } else {
+                    map = (Map)HashMap.class.newInstance();
+                    f.set(o, map);
+                }
                 for (int i=0; i<count; i++) {
                     map.put(decode(ftype.keys, kclass), decode(ftype.items, iclass));
                 }
-                f.set(o, map);
             } else {
                 throw new TBinException("Cannot instantiate array as target object of class " + fclass.getName());
             }
             break;
         case STRUCT_TAG:
-            f.set(o, decodeStruct(ftype, fclass));
+            f.set(o, decodeItemInto(ftype, fclass, reuse ? f.get(o) : null));
             break;
         case ANY_TAG:
             ftype = nextType(); //read the tag that ANY force.
@@ -310,7 +654,7 @@ public class TBinDecoder extends TBin {
                 count = nextCount(ftype);
                 if (java.util.List.class.isAssignableFrom(fclass)) {
                     Class<?> iclass = (Class<?>) (((ParameterizedType) f.getGenericType()).getActualTypeArguments()[0]);
-                    List list = (List)ArrayList.class.newInstance();
+                    List<Object> list = new ArrayList<Object>(Math.min(count, MAX_PRESIZE));
                     for (int i=0; i<count; i++) {
                         list.add(decode(ftype.items, iclass));
                     }
@@ -327,13 +671,21 @@ public class TBinDecoder extends TBin {
         }
     }
 
+    //decode a struct into the previous value if it is an instance of the expected class
+    @SuppressWarnings({"unchecked"})
+    <F> F decodeItemInto(TypeDef type, Class<F> fclass, Object prev) throws IOException {
+        if (type.tag == STRUCT_TAG && fclass.isInstance(prev)) {
+            return decodeStructInto(type, fclass, (F)prev);
+        }
+        return decode(type, fclass);
+    }
+
     public Object decode() throws IOException {
         return decode(nextType());
     }
 
     public Object decode(TypeDef type) throws IOException {
         int max;
-        Struct struct;
         switch (type.tag) {
         case BOOL_TAG:
             return nextBoolean();
@@ -360,14 +712,7 @@ public class TBinDecoder extends TBin {
         case UUID_TAG:
             return nextUUID();
         case ARRAY_TAG:
-            max = nextCount(type);
-            Array ary = new Array();
-            for (int i = 0; i < max; i++) {
-                TypeDef itemType = nextItemType(type, i);
-                Object o = decode(itemType);
-                ary.add(o);
-            }
-            return ary;
+            return decodeGenericArray(type, nextCount(type));
         case MAP_TAG:
             max = nextCount(type);
             HashMap<Object,Object> map = new HashMap<Object,Object>();
@@ -380,15 +725,7 @@ public class TBinDecoder extends TBin {
             }
             return map;
         case STRUCT_TAG:
-            max = nextCount(type);
-            struct = new Struct(max);
-            for (int i = 0; i < max; i++) {
-                String fname = nextItemName(type, i);
-                TypeDef ftype = nextItemType(type, i);
-                Object o = decode(ftype);
-                struct.append(fname, o);
-            }
-            return struct;
+            return decodeGenericStruct(type, false);
         case UNION_TAG:
             max = readNonNegativeInt();
             TypeDef utype = type.variants.get(max-1);
@@ -415,6 +752,40 @@ public class TBinDecoder extends TBin {
         }
     }
 
+    // Arrays typed as Int32, Int64, or Float64 items are decoded into the primitive-backed
+    // Array variants, without boxing each item.
+    Array decodeGenericArray(TypeDef type, int count) throws IOException {
+        int itemTag = (type.items == null) ? ANY_TAG : type.items.tag;
+        switch (itemTag) {
+        case INT32_TAG:
+            IntArray ia = new IntArray(Math.min(count, MAX_PRESIZE));
+            for (int i = 0; i < count; i++) {
+                ia.addInt(readInt());
+            }
+            return ia;
+        case INT64_TAG:
+            LongArray la = new LongArray(Math.min(count, MAX_PRESIZE));
+            for (int i = 0; i < count; i++) {
+                la.addLong(readLong());
+            }
+            return la;
+        case FLOAT64_TAG:
+            DoubleArray da = new DoubleArray(Math.min(count, MAX_PRESIZE));
+            for (int i = 0; i < count; i++) {
+                da.addDouble(readDouble());
+            }
+            return da;
+        default:
+            Array ary = Array.withCapacity(count);
+            for (int i = 0; i < count; i++) {
+                TypeDef itemType = nextItemType(type, i);
+                Object o = decode(itemType);
+                ary.add(o);
+            }
+            return ary;
+        }
+    }
+
     // --------------------------------------
 
     // read a multi-byte unsigned integer. Each byte contains 7 bits of integer data, and the
@@ -465,9 +836,21 @@ public class TBinDecoder extends TBin {
         throw new IOException("Invalid long encoding");
     }
     
+    // floats and doubles are written as fixed-width big-endian IEEE 754 bits, not as varints
+    int readFixedInt() throws IOException {
+        readBytes(buf, 4);
+        return ((buf[0] & 0xff) << 24) | ((buf[1] & 0xff) << 16) | ((buf[2] & 0xff) << 8) | (buf[3] & 0xff);
+    }
+
+    long readFixedLong() throws IOException {
+        readBytes(buf, 8);
+        long hi = ((buf[0] & 0xff) << 24) | ((buf[1] & 0xff) << 16) | ((buf[2] & 0xff) << 8) | (buf[3] & 0xff);
+        long lo = ((buf[4] & 0xff) << 24) | ((buf[5] & 0xff) << 16) | ((buf[6] & 0xff) << 8) | (buf[7] & 0xff);
+        return (hi << 32) | (lo & 0xffffffffL);
+    }
+
     double readDouble() throws IOException {
-        long bits = readLong();
-        return Double.longBitsToDouble(bits);
+        return Double.longBitsToDouble(readFixedLong());
     }
 
     byte []  readBytes(byte [] b) throws IOException {
@@ -513,7 +896,8 @@ public class TBinDecoder extends TBin {
         return Symbol.intern(syms.get(id));
     }
 
-    private void decodeInit(TypeDef type) throws IOException {
+    // set up the count for a value of the given type whose tag is implied, rather than read from the stream
+    void decodeInit(TypeDef type) throws IOException {
         switch (type.tag) {
             case BYTES_TAG:
             case STRING_TAG:
@@ -609,6 +993,9 @@ public class TBinDecoder extends TBin {
             case SYMBOL_TAG:
                 return TypeDef.SYMBOL;
             default:
+                if (tag < FIRST_USER_TAG) { //including UNION_TAG and the typedef tags, which only follow a new user tag
+                    throw new TBinException("Unexpected tag in value position: 0x" + hexByte(tag));
+                }
                 int idx = tag-FIRST_USER_TAG;
                 if (idx >= types.size()) {
                     decodeTypeDef(tag); //the tag was a definition. start over after we define it
@@ -656,11 +1043,11 @@ public class TBinDecoder extends TBin {
     public TypeDef nextItemKeyType(TypeDef type, int idx) throws IOException {
         switch (type.tag) {
         case MAP_TAG:
-            if (type.keys != null) {
-                return type.keys;
+            if (type.keys == null || type.keys == TypeDef.ANY) {
+                return nextType(); //untyped maps tag each key
             }
-            panic("no key type for a map?");
-            return null;
+            decodeInit(type.keys);
+            return type.keys;
         case STRUCT_TAG:
             return TypeDef.SYMBOL;
         default:
@@ -730,6 +1117,9 @@ public class TBinDecoder extends TBin {
         case DEF_UNION_TAG:
             decodeUnionTypeDef();
             break;
+        case DEF_REF_TAG:
+            decodeRefTypeDef(tag);
+            break;
         default:
             panic("decodeTypeDef, baseTag: " + baseTag);
             throw new TBinException("Only struct-based typedefs are permitted: " + baseTag);
@@ -782,6 +1172,53 @@ public class TBinDecoder extends TBin {
         types.add(type);
     }
 
+    void decodeRefTypeDef(int tag) throws IOException {
+        long fingerprint = readFixedLong();
+        if (schemas == null) {
+            throw new TBinException("No schema registry for typedef reference " + Long.toHexString(fingerprint));
+        }
+        types.addAll(schemas.require(fingerprint).implied);
+        if (types.size() != tag - FIRST_USER_TAG + 1) {
+            throw new TBinException("Typedef reference " + Long.toHexString(fingerprint) + " does not define tag 0x" + hexByte(tag));
+        }
+    }
+
+    //the typedefs implied by a reference to the typedef, in the order the writer tags them:
+    //every typed struct, array, and map, nested ones first, as TBinTranscoder defines them.
+    //They are as decodeStructTypeDef would make them, with optional fields of type ANY.
+    static TypeDef impliedTypeDefs(TypeDef td, List<TypeDef> defs) {
+        switch (td.tag) {
+        case STRUCT_TAG:
+            if (td.fields == null) {
+                return td;
+            }
+            List<TypeDef.Field> fields = new ArrayList<TypeDef.Field>(td.fields.size());
+            for (TypeDef.Field f : td.fields) {
+                TypeDef ftype = impliedTypeDefs(f.type, defs);
+                fields.add(new TypeDef.Field(f.name, f.optional ? TypeDef.ANY : ftype, f.optional));
+            }
+            td = TypeDef.forStruct(fields);
+            break;
+        case ARRAY_TAG:
+            if (td.items == TypeDef.ANY) {
+                return td;
+            }
+            td = TypeDef.forArray(impliedTypeDefs(td.items, defs));
+            break;
+        case MAP_TAG:
+            if (td.keys == TypeDef.ANY && td.items == TypeDef.ANY) {
+                return td;
+            }
+            TypeDef keys = impliedTypeDefs(td.keys, defs);
+            td = TypeDef.forMap(keys, impliedTypeDefs(td.items, defs));
+            break;
+        default:
+            return td;
+        }
+        defs.add(td);
+        return td;
+    }
+
     TypeDef decodeType() throws IOException {
         int tag = readNonNegativeInt();
         if (tag >= FIRST_USER_TAG) {
@@ -847,7 +1284,7 @@ public class TBinDecoder extends TBin {
      * @throws IOException on bad TBin stream or any underlying I/O error.
      */
     public float nextFloat() throws IOException {
-        int bits = readInt();
+        int bits = readFixedInt();
         return Float.intBitsToFloat(bits);
     }
 
@@ -897,7 +1334,7 @@ public class TBinDecoder extends TBin {
      * @throws IOException on bad TBin stream or any underlying I/O error.
      */
     public UUID nextUUID() throws IOException {
-        return UUID.fromBytes(readBytes(buf, currentCount));
+        return UUID.fromBytes(readBytes(new byte[currentCount], currentCount));
     }
 
 
@@ -60,6 +60,11 @@ public class TBinEncoder extends TBin {
         return map;
     }
 
+    //the primitive-backed Arrays are always encoded as typed arrays
+    static final TypeDef INT32_ARRAY = TypeDef.forArray(TypeDef.INT32);
+    static final TypeDef INT64_ARRAY = TypeDef.forArray(TypeDef.INT64);
+    static final TypeDef FLOAT64_ARRAY = TypeDef.forArray(TypeDef.FLOAT64);
+
     public void encode(Object o) throws IOException {
         if (o == null) {
             encodeNull();
@@ -97,6 +102,30 @@ public class TBinEncoder extends TBin {
                 encode(k);
                 encode(m.get(k));
             }
+        } else if (o instanceof IntArray && !((IntArray)o).isBoxed()) {
+            IntArray a = (IntArray)o;
+            int n = a.size();
+            emitNonNegativeInt(encodeTypeDef(INT32_ARRAY));
+            emitNonNegativeInt(n);
+            for (int i = 0; i < n; i++) {
+                emitInt(a.getInt(i));
+            }
+        } else if (o instanceof LongArray && !((LongArray)o).isBoxed()) {
+            LongArray a = (LongArray)o;
+            int n = a.size();
+            emitNonNegativeInt(encodeTypeDef(INT64_ARRAY));
+            emitNonNegativeInt(n);
+            for (int i = 0; i < n; i++) {
+                emitLong(a.getLong(i));
+            }
+        } else if (o instanceof DoubleArray && !((DoubleArray)o).isBoxed()) {
+            DoubleArray a = (DoubleArray)o;
+            int n = a.size();
+            emitNonNegativeInt(encodeTypeDef(FLOAT64_ARRAY));
+            emitNonNegativeInt(n);
+            for (int i = 0; i < n; i++) {
+                emitDouble(a.getDouble(i));
+            }
         } else if (o instanceof List) {
             List l = (List)o;
             encodeArray(l.size());
@@ -109,6 +138,8 @@ public class TBinEncoder extends TBin {
             encodeSymbol(((Symbol)o).name);
         } else if (o instanceof UUID) {
             encodeUUID((UUID)o);
+        } else if (o instanceof byte []) {
+            encodeBytes((byte [])o);
         } else {
             encodeObject(o);
         }
@@ -408,6 +439,7 @@ public class TBinEncoder extends TBin {
 
     public void encodeBytes(byte [] b) throws IOException {
         emitNonNegativeInt(BYTES_TAG);
+        emitNonNegativeInt(b.length);
         emitBytes(b);
     }
 
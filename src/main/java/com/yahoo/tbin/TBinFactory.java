@@ -0,0 +1,173 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.tbin;
+import com.yahoo.rdl.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.io.IOContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+/**
+ * A Jackson JsonFactory for TBin. An ObjectMapper built on it reads and writes TBin with the
+ * same serializers and deserializers it uses for JSON:
+ * <pre>
+ *     ObjectMapper mapper = TBinFactory.newMapper();
+ *     byte [] tbin = mapper.writeValueAsBytes(obj);
+ *     Polyline p = mapper.readValue(tbin, Polyline.class);
+ * </pre>
+ * TBin is a binary format, so the Reader and Writer based methods are not supported.
+ */
+public class TBinFactory extends JsonFactory {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String FORMAT_NAME = "TBin";
+
+    public TBinFactory() {
+        super();
+    }
+
+    public TBinFactory(ObjectCodec codec) {
+        super(codec);
+    }
+
+    protected TBinFactory(TBinFactory src, ObjectCodec codec) {
+        super(src, codec);
+    }
+
+    /**
+     * @return a new ObjectMapper for TBin, configured like the JSON helper's mapper and with
+     * the RDL types written natively.
+     */
+    public static ObjectMapper newMapper() {
+        ObjectMapper om = new ObjectMapper(new TBinFactory());
+        om.setDefaultPropertyInclusion(JsonInclude.Value.construct(JsonInclude.Include.ALWAYS, JsonInclude.Include.NON_NULL)); //no null map values
+        om.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        om.registerModule(new RdlModule());
+        om.registerModule(new NativeTypesModule());
+        return om;
+    }
+
+    @Override
+    public TBinFactory copy() {
+        _checkInvalidCopy(TBinFactory.class);
+        return new TBinFactory(this, null);
+    }
+
+    @Override
+    public String getFormatName() {
+        return FORMAT_NAME;
+    }
+
+    @Override
+    public boolean canHandleBinaryNatively() {
+        return true;
+    }
+
+    @Override
+    public boolean canUseCharArrays() {
+        return false;
+    }
+
+    @Override
+    public JsonGenerator createGenerator(OutputStream out, JsonEncoding enc) throws IOException {
+        IOContext ctxt = _createContext(out, false);
+        return _createUTF8Generator(_decorate(out, ctxt), ctxt); //the encoding is irrelevant, strings are always UTF-8
+    }
+
+    @Override
+    protected JsonParser _createParser(InputStream in, IOContext ctxt) throws IOException {
+        return new TBinParser(_parserFeatures, _objectCodec, in);
+    }
+
+    @Override
+    protected JsonParser _createParser(byte [] data, int offset, int len, IOContext ctxt) throws IOException {
+        return new TBinParser(_parserFeatures, _objectCodec, new java.io.ByteArrayInputStream(data, offset, len));
+    }
+
+    @Override
+    protected JsonParser _createParser(Reader r, IOContext ctxt) throws IOException {
+        throw new UnsupportedOperationException("TBin is a binary format, cannot parse from a Reader");
+    }
+
+    @Override
+    protected JsonParser _createParser(char [] data, int offset, int len, IOContext ctxt, boolean recyclable) throws IOException {
+        throw new UnsupportedOperationException("TBin is a binary format, cannot parse from characters");
+    }
+
+    @Override
+    protected JsonParser _createParser(DataInput input, IOContext ctxt) throws IOException {
+        throw new UnsupportedOperationException("TBin cannot parse from a DataInput");
+    }
+
+    @Override
+    protected JsonGenerator _createUTF8Generator(OutputStream out, IOContext ctxt) throws IOException {
+        return new TBinGenerator(_generatorFeatures, _objectCodec, out);
+    }
+
+    @Override
+    protected JsonGenerator _createGenerator(Writer out, IOContext ctxt) throws IOException {
+        throw new UnsupportedOperationException("TBin is a binary format, cannot generate to a Writer");
+    }
+
+    @Override
+    protected Writer _createWriter(OutputStream out, JsonEncoding enc, IOContext ctxt) throws IOException {
+        throw new UnsupportedOperationException("TBin is a binary format, cannot generate to a Writer");
+    }
+
+    /**
+     * Writes Timestamp, UUID, and Symbol with their own TBin tags rather than as strings. The RDL
+     * deserializers accept them in either form. To other generators they are written as strings.
+     */
+    public static class NativeTypesModule extends SimpleModule {
+        private static final long serialVersionUID = 1L;
+
+        public NativeTypesModule() {
+            super("TBinNativeTypes");
+        }
+
+        @Override
+        public void setupModule(SetupContext context) {
+            super.setupModule(context);
+            //the types carry their JSON serializers as annotations, which take precedence over
+            //module serializers, so they are overridden with mix-in annotations instead
+            context.setMixInAnnotations(Timestamp.class, NativeMixin.class);
+            context.setMixInAnnotations(UUID.class, NativeMixin.class);
+            context.setMixInAnnotations(Symbol.class, NativeMixin.class);
+        }
+    }
+
+    @JsonSerialize(using = NativeSerializer.class)
+    static abstract class NativeMixin {
+    }
+
+    static class NativeSerializer extends JsonSerializer<Object> {
+        @Override
+        public void serialize(Object value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            if (jgen instanceof TBinGenerator) {
+                jgen.writeEmbeddedObject(value);
+            } else {
+                jgen.writeString(value.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.tbin;
+import com.yahoo.rdl.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.base.GeneratorBase;
+import com.fasterxml.jackson.core.json.JsonWriteContext;
+
+/**
+ * A Jackson generator producing TBin, so that an ObjectMapper can write TBin using its own
+ * serializers. The output is the same generic encoding TBinEncoder produces for Structs and
+ * Arrays: objects become structs with symbol keys, arrays become untyped arrays, and scalars
+ * carry their base type tag.
+ * <p>
+ * TBin writes the item count before the items. Arrays started with a size (as Jackson does for
+ * collections) are written straight through; objects, and arrays of unknown size, are buffered
+ * until their end so that the count is known.
+ */
+public class TBinGenerator extends GeneratorBase {
+
+    private final OutputStream out;
+    private final HashMap<String,Integer> syms = new HashMap<String,Integer>();
+    private final ByteBuf root = new ByteBuf();
+    private ByteBuf cur = root;
+    private Frame frame; //the innermost open container, or null at the top level
+    private ByteBuf [] pool = new ByteBuf[8]; //container buffers, reused by depth
+    private int buffered; //the number of open containers with their own buffer
+
+    //an open container
+    private static final class Frame {
+        final Frame parent;
+        final int size; //-1 if not known
+        final ByteBuf parentBuf; //non-null if the container is buffered
+        Frame(Frame parent, int size, ByteBuf parentBuf) {
+            this.parent = parent;
+            this.size = size;
+            this.parentBuf = parentBuf;
+        }
+    }
+
+    public TBinGenerator(int features, ObjectCodec codec, OutputStream out) {
+        super(features, codec);
+        this.out = out;
+        root.writeVarint(TBin.CUR_VERSION_TAG);
+    }
+
+    @Override
+    public Version version() {
+        return Version.unknownVersion();
+    }
+
+    @Override
+    public boolean canWriteBinaryNatively() {
+        return true;
+    }
+
+    //------------- containers
+
+    @Override
+    public void writeStartArray() throws IOException {
+        writeStartArray(null, -1);
+    }
+
+    @Override
+    public void writeStartArray(Object forValue) throws IOException {
+        writeStartArray(forValue, -1);
+    }
+
+    @Override
+    public void writeStartArray(Object forValue, int size) throws IOException {
+        _verifyValueWrite("start an array");
+        _writeContext = _writeContext.createChildArrayContext(forValue);
+        if (size >= 0) {
+            cur.writeVarint(TBin.ARRAY_TAG);
+            cur.writeVarint(size);
+            frame = new Frame(frame, size, null);
+        } else {
+            push(-1);
+        }
+    }
+
+    @Override
+    public void writeEndArray() throws IOException {
+        if (!_writeContext.inArray()) {
+            _reportError("Current context not Array but " + _writeContext.typeDesc());
+        }
+        int count = _writeContext.getEntryCount();
+        _writeContext = _writeContext.clearAndGetParent();
+        if (frame.parentBuf == null) {
+            if (count != frame.size) {
+                _reportError("Array started with size " + frame.size + " but " + count + " items were written");
+            }
+            frame = frame.parent;
+        } else {
+            pop(TBin.ARRAY_TAG, count);
+        }
+    }
+
+    @Override
+    public void writeStartObject() throws IOException {
+        _verifyValueWrite("start an object");
+        _writeContext = _writeContext.createChildObjectContext();
+        push(-1); //a size hint for an object may include null values that are then skipped
+    }
+
+    @Override
+    public void writeEndObject() throws IOException {
+        if (!_writeContext.inObject()) {
+            _reportError("Current context not Object but " + _writeContext.typeDesc());
+        }
+        int count = _writeContext.getEntryCount();
+        _writeContext = _writeContext.clearAndGetParent();
+        pop(TBin.STRUCT_TAG, count);
+    }
+
+    private void push(int size) {
+        if (buffered == pool.length) {
+            pool = java.util.Arrays.copyOf(pool, buffered * 2);
+        }
+        ByteBuf buf = pool[buffered];
+        if (buf == null) {
+            buf = pool[buffered] = new ByteBuf();
+        }
+        buffered++;
+        buf.len = 0;
+        frame = new Frame(frame, size, cur);
+        cur = buf;
+    }
+
+    private void pop(int tag, int count) {
+        ByteBuf content = popBuffer();
+        cur.writeVarint(tag);
+        cur.writeVarint(count);
+        cur.write(content.bytes, 0, content.len);
+    }
+
+    //the hooks below let the transcoder write typed values, which have no Jackson equivalent
+
+    //the buffer the next value is written to
+    ByteBuf out() {
+        return cur;
+    }
+
+    //direct the output to a new buffer, until popBuffer
+    void pushBuffer() {
+        push(-1);
+    }
+
+    //restore the previous output, returning the content written since pushBuffer. The content
+    //is only valid until the next pushBuffer, and must be copied out before then.
+    ByteBuf popBuffer() {
+        ByteBuf content = cur;
+        cur = frame.parentBuf;
+        frame = frame.parent;
+        buffered--;
+        return content;
+    }
+
+    //write a symbol, defining it first if this is its first use in the stream
+    void writeSymbol(String name) {
+        Integer id = syms.get(name);
+        if (id == null) {
+            id = syms.size();
+            syms.put(name, id);
+            cur.writeVarint(id);
+            writeUTF8(name, false);
+        } else {
+            cur.writeVarint(id);
+        }
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException {
+        if (_writeContext.writeFieldName(name) == JsonWriteContext.STATUS_EXPECT_VALUE) {
+            _reportError("Can not write a field name, expecting a value");
+        }
+        writeSymbol(name);
+    }
+
+    @Override
+    public void writeFieldName(SerializableString name) throws IOException {
+        writeFieldName(name.getValue());
+    }
+
+    //------------- scalars
+
+    @Override
+    public void writeString(String text) throws IOException {
+        if (text == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite("write a string");
+        writeUTF8(text, true);
+    }
+
+    @Override
+    public void writeString(char [] text, int offset, int len) throws IOException {
+        writeString(new String(text, offset, len));
+    }
+
+    @Override
+    public void writeRawUTF8String(byte [] text, int offset, int len) throws IOException {
+        writeUTF8String(text, offset, len);
+    }
+
+    @Override
+    public void writeUTF8String(byte [] text, int offset, int len) throws IOException {
+        _verifyValueWrite("write a string");
+        writeStringHeader(len);
+        cur.write(text, offset, len);
+    }
+
+    private void writeUTF8(String s, boolean tagged) {
+        byte [] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        if (tagged) {
+            writeStringHeader(utf8.length);
+        } else {
+            cur.writeVarint(utf8.length);
+        }
+        cur.write(utf8, 0, utf8.length);
+    }
+
+    private void writeStringHeader(int utflen) {
+        if (utflen <= TBin.TINY_STR_MAXLEN) {
+            cur.writeVarint(TBin.TINY_STR_TAG + utflen);
+        } else {
+            cur.writeVarint(TBin.STRING_TAG);
+            cur.writeVarint(utflen);
+        }
+    }
+
+    @Override
+    public void writeBinary(Base64Variant bv, byte [] data, int offset, int len) throws IOException {
+        if (data == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite("write a binary value");
+        cur.writeVarint(TBin.BYTES_TAG);
+        cur.writeVarint(len);
+        cur.write(data, offset, len);
+    }
+
+    @Override
+    public void writeNumber(short v) throws IOException {
+        _verifyValueWrite("write a number");
+        cur.writeVarint(TBin.INT16_TAG);
+        cur.writeZigzag(v);
+    }
+
+    @Override
+    public void writeNumber(int v) throws IOException {
+        _verifyValueWrite("write a number");
+        cur.writeVarint(TBin.INT32_TAG);
+        cur.writeZigzag(v);
+    }
+
+    @Override
+    public void writeNumber(long v) throws IOException {
+        _verifyValueWrite("write a number");
+        cur.writeVarint(TBin.INT64_TAG);
+        cur.writeZigzag(v);
+    }
+
+    @Override
+    public void writeNumber(BigInteger v) throws IOException {
+        if (v == null) {
+            writeNull();
+        } else if (v.bitLength() < 64) {
+            writeNumber(v.longValue());
+        } else {
+            throw new TBinException("Integer too large for TBin: " + v);
+        }
+    }
+
+    @Override
+    public void writeNumber(float v) throws IOException {
+        _verifyValueWrite("write a number");
+        cur.writeVarint(TBin.FLOAT32_TAG);
+        cur.writeFixed32(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeNumber(double v) throws IOException {
+        _verifyValueWrite("write a number");
+        cur.writeVarint(TBin.FLOAT64_TAG);
+        cur.writeFixed64(Double.doubleToLongBits(v));
+    }
+
+    //TBin has no decimal type, so decimals are written as Float64
+    @Override
+    public void writeNumber(BigDecimal v) throws IOException {
+        if (v == null) {
+            writeNull();
+        } else {
+            writeNumber(v.doubleValue());
+        }
+    }
+
+    @Override
+    public void writeNumber(String encodedValue) throws IOException {
+        try {
+            writeNumber(Long.parseLong(encodedValue));
+        } catch (NumberFormatException e) {
+            writeNumber(Double.parseDouble(encodedValue));
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean state) throws IOException {
+        _verifyValueWrite("write a boolean value");
+        cur.writeVarint(TBin.BOOL_TAG);
+        cur.writeVarint(state ? 1 : 0);
+    }
+
+    @Override
+    public void writeNull() throws IOException {
+        _verifyValueWrite("write a null");
+        cur.writeVarint(TBin.NULL_TAG);
+    }
+
+    /**
+     * Write the RDL types that TBin represents natively: Timestamp, UUID, Symbol, and byte arrays.
+     * Anything else is written through the codec, as writeObject does.
+     */
+    @Override
+    public void writeEmbeddedObject(Object o) throws IOException {
+        if (o instanceof Timestamp) {
+            _verifyValueWrite("write a timestamp");
+            cur.writeVarint(TBin.TIMESTAMP_TAG);
+            cur.writeFixed64(Double.doubleToLongBits((double)((Timestamp)o).millis() / 1000.0));
+        } else if (o instanceof UUID) {
+            _verifyValueWrite("write a uuid");
+            byte [] b = ((UUID)o).toBytes();
+            cur.writeVarint(TBin.UUID_TAG);
+            cur.write(b, 0, b.length);
+        } else if (o instanceof Symbol) {
+            _verifyValueWrite("write a symbol");
+            cur.writeVarint(TBin.SYMBOL_TAG);
+            writeSymbol(((Symbol)o).name);
+        } else if (o instanceof byte []) {
+            byte [] b = (byte [])o;
+            writeBinary(b, 0, b.length);
+        } else {
+            writeObject(o);
+        }
+    }
+
+    //------------- raw output has no meaning in TBin
+
+    @Override
+    public void writeRaw(String text) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override
+    public void writeRaw(String text, int offset, int len) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override
+    public void writeRaw(char [] text, int offset, int len) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override
+    public void writeRaw(char c) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    //------------- output
+
+    @Override
+    protected void _verifyValueWrite(String typeMsg) throws IOException {
+        if (_writeContext.writeValue() == JsonWriteContext.STATUS_EXPECT_NAME) {
+            _reportError("Can not " + typeMsg + ", expecting field name");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (root.len > 0) {
+            out.write(root.bytes, 0, root.len);
+            root.len = 0;
+        }
+        if (isEnabled(Feature.FLUSH_PASSED_TO_STREAM)) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!isClosed()) {
+            flush();
+            super.close();
+            if (isEnabled(Feature.AUTO_CLOSE_TARGET)) {
+                out.close();
+            }
+        }
+    }
+
+    @Override
+    protected void _releaseBuffers() {
+    }
+
+    // a growable byte buffer with the TBin primitive encodings
+    static final class ByteBuf {
+        byte [] bytes = new byte[256];
+        int len;
+
+        private void ensure(int n) {
+            if (len + n > bytes.length) {
+                bytes = java.util.Arrays.copyOf(bytes, Math.max(bytes.length * 2, len + n));
+            }
+        }
+
+        void write(byte [] b, int off, int n) {
+            ensure(n);
+            System.arraycopy(b, off, bytes, len, n);
+            len += n;
+        }
+
+        void writeVarint(int n) {
+            ensure(5);
+            while ((n & ~0x7f) != 0) {
+                bytes[len++] = (byte)((n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            bytes[len++] = (byte)n;
+        }
+
+        void writeZigzag(int n) {
+            writeVarint((n << 1) ^ (n >> 31));
+        }
+
+        void writeZigzag(long n) {
+            ensure(10);
+            n = (n << 1) ^ (n >> 63);
+            while ((n & ~0x7fL) != 0) {
+                bytes[len++] = (byte)((n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            bytes[len++] = (byte)n;
+        }
+
+        void writeFixed32(int bits) {
+            ensure(4);
+            bytes[len++] = (byte)(bits >> 24);
+            bytes[len++] = (byte)(bits >> 16);
+            bytes[len++] = (byte)(bits >> 8);
+            bytes[len++] = (byte)bits;
+        }
+
+        void writeFixed64(long bits) {
+            writeFixed32((int)(bits >> 32));
+            writeFixed32((int)bits);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.tbin;
+import com.yahoo.rdl.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.base.ParserMinimalBase;
+import com.fasterxml.jackson.core.json.JsonReadContext;
+
+/**
+ * A Jackson parser reading TBin, so that an ObjectMapper can read TBin using its own
+ * deserializers. The tokens are read with a TBinDecoder, so anything it decodes can be parsed,
+ * including streams with typedefs written by TBinEncoder.
+ * <p>
+ * Structs and maps are presented as objects, and arrays as arrays. Timestamp, UUID, Symbol, and
+ * Bytes values are presented as embedded objects of the corresponding RDL (or byte array) type.
+ * A stream may hold any number of top level values.
+ */
+public class TBinParser extends ParserMinimalBase {
+
+    private ObjectCodec codec;
+    private final TBinDecoder dec;
+    private JsonReadContext context = JsonReadContext.createRootContext(null);
+    private final ArrayList<Frame> frames = new ArrayList<Frame>();
+    private boolean closed;
+
+    //the value of the current token
+    private String text;
+    private java.lang.Number number;
+    private NumberType numberType;
+    private Object embedded;
+
+    //an open struct, map, or array
+    private static final class Frame {
+        final TypeDef type;
+        final int count;
+        int index;
+        boolean named; //for structs and maps: the name of the next value has been returned
+        Frame(TypeDef type, int count) {
+            this.type = type;
+            this.count = count;
+        }
+    }
+
+    public TBinParser(int features, ObjectCodec codec, InputStream in) {
+        super(features);
+        this.codec = codec;
+        this.dec = new TBinDecoder(in);
+    }
+
+    //a parser of the values of an existing decoder, sharing its symbols and types
+    TBinParser(int features, ObjectCodec codec, TBinDecoder dec) {
+        super(features);
+        this.codec = codec;
+        this.dec = dec;
+    }
+
+    @Override
+    public ObjectCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void setCodec(ObjectCodec c) {
+        codec = c;
+    }
+
+    @Override
+    public Version version() {
+        return Version.unknownVersion();
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        if (closed) {
+            return _currToken = null;
+        }
+        if (frames.isEmpty()) {
+            if (dec.atEnd()) {
+                return _currToken = null;
+            }
+            return _currToken = startValue(dec.nextType());
+        }
+        Frame f = frames.get(frames.size() - 1);
+        if (f.index == f.count) {
+            frames.remove(frames.size() - 1);
+            boolean array = context.inArray();
+            context = context.clearAndGetParent();
+            return _currToken = array ? JsonToken.END_ARRAY : JsonToken.END_OBJECT;
+        }
+        if (f.type.tag == TBin.ARRAY_TAG) {
+            return _currToken = startValue(dec.nextItemType(f.type, f.index++));
+        }
+        if (!f.named) {
+            String name;
+            if (f.type.tag == TBin.MAP_TAG) {
+                Object key = dec.decode(dec.nextItemKeyType(f.type, f.index));
+                name = (key instanceof Symbol) ? ((Symbol)key).name : String.valueOf(key);
+            } else {
+                name = dec.nextItemName(f.type, f.index);
+            }
+            context.setCurrentName(name);
+            f.named = true;
+            return _currToken = JsonToken.FIELD_NAME;
+        }
+        f.named = false;
+        return _currToken = startValue(dec.nextItemType(f.type, f.index++));
+    }
+
+    //the type's tag (if any) and count have been read, produce the token for its value
+    private JsonToken startValue(TypeDef type) throws IOException {
+        text = null;
+        embedded = null;
+        switch (type.tag) {
+        case TBin.NULL_TAG:
+            return JsonToken.VALUE_NULL;
+        case TBin.BOOL_TAG:
+            return dec.nextBoolean() ? JsonToken.VALUE_TRUE : JsonToken.VALUE_FALSE;
+        case TBin.INT8_TAG:
+            return intValue(dec.nextByte(), NumberType.INT);
+        case TBin.INT16_TAG:
+            return intValue(dec.nextShort(), NumberType.INT);
+        case TBin.INT32_TAG:
+            return intValue(dec.nextInt(), NumberType.INT);
+        case TBin.INT64_TAG:
+            return intValue(dec.nextLong(), NumberType.LONG);
+        case TBin.FLOAT32_TAG:
+            number = dec.nextFloat();
+            numberType = NumberType.FLOAT;
+            return JsonToken.VALUE_NUMBER_FLOAT;
+        case TBin.FLOAT64_TAG:
+            number = dec.nextDouble();
+            numberType = NumberType.DOUBLE;
+            return JsonToken.VALUE_NUMBER_FLOAT;
+        case TBin.STRING_TAG:
+            text = dec.nextString();
+            return JsonToken.VALUE_STRING;
+        case TBin.BYTES_TAG:
+            embedded = dec.nextByteArray();
+            return JsonToken.VALUE_EMBEDDED_OBJECT;
+        case TBin.TIMESTAMP_TAG:
+            embedded = dec.nextTimestamp();
+            return JsonToken.VALUE_EMBEDDED_OBJECT;
+        case TBin.SYMBOL_TAG:
+            embedded = dec.nextSymbol();
+            return JsonToken.VALUE_EMBEDDED_OBJECT;
+        case TBin.UUID_TAG:
+            embedded = dec.nextUUID();
+            return JsonToken.VALUE_EMBEDDED_OBJECT;
+        case TBin.ARRAY_TAG:
+            frames.add(new Frame(type, dec.nextCount(type)));
+            context = context.createChildArrayContext(-1, -1);
+            return JsonToken.START_ARRAY;
+        case TBin.MAP_TAG:
+        case TBin.STRUCT_TAG:
+            frames.add(new Frame(type, dec.nextCount(type)));
+            context = context.createChildObjectContext(-1, -1);
+            return JsonToken.START_OBJECT;
+        case TBin.UNION_TAG:
+            TypeDef variant = type.variants.get(dec.readNonNegativeInt() - 1);
+            dec.decodeInit(variant);
+            return startValue(variant);
+        case TBin.ANY_TAG:
+            return startValue(dec.nextType());
+        default:
+            throw new TBinException("Unsupported type in TBin stream: " + type);
+        }
+    }
+
+    private JsonToken intValue(java.lang.Number n, NumberType t) {
+        number = n;
+        numberType = t;
+        return JsonToken.VALUE_NUMBER_INT;
+    }
+
+    @Override
+    protected void _handleEOF() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (isEnabled(Feature.AUTO_CLOSE_SOURCE)) {
+                dec.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public JsonStreamContext getParsingContext() {
+        return context;
+    }
+
+    @Override
+    public JsonLocation getCurrentLocation() {
+        return JsonLocation.NA;
+    }
+
+    @Override
+    public JsonLocation getTokenLocation() {
+        return JsonLocation.NA;
+    }
+
+    @Override
+    public String getCurrentName() throws IOException {
+        if (_currToken == JsonToken.START_OBJECT || _currToken == JsonToken.START_ARRAY) {
+            JsonReadContext parent = context.getParent();
+            return (parent == null) ? null : parent.getCurrentName();
+        }
+        return context.getCurrentName();
+    }
+
+    @Override
+    public void overrideCurrentName(String name) {
+        try {
+            context.setCurrentName(name);
+        } catch (IOException e) { //only thrown for duplicate detection, which is not used here
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //------------- token values
+
+    @Override
+    public String getText() throws IOException {
+        if (_currToken == null) {
+            return null;
+        }
+        switch (_currToken) {
+        case FIELD_NAME:
+            return context.getCurrentName();
+        case VALUE_STRING:
+            return text;
+        case VALUE_NUMBER_INT:
+        case VALUE_NUMBER_FLOAT:
+            return String.valueOf(number);
+        case VALUE_EMBEDDED_OBJECT:
+            return (embedded instanceof byte []) ? null : String.valueOf(embedded);
+        default:
+            return _currToken.asString();
+        }
+    }
+
+    @Override
+    public char [] getTextCharacters() throws IOException {
+        String s = getText();
+        return (s == null) ? null : s.toCharArray();
+    }
+
+    @Override
+    public boolean hasTextCharacters() {
+        return false;
+    }
+
+    @Override
+    public int getTextLength() throws IOException {
+        String s = getText();
+        return (s == null) ? 0 : s.length();
+    }
+
+    @Override
+    public int getTextOffset() throws IOException {
+        return 0;
+    }
+
+    @Override
+    public Object getEmbeddedObject() throws IOException {
+        return (_currToken == JsonToken.VALUE_EMBEDDED_OBJECT) ? embedded : null;
+    }
+
+    @Override
+    public byte [] getBinaryValue(Base64Variant bv) throws IOException {
+        if (_currToken == JsonToken.VALUE_EMBEDDED_OBJECT && embedded instanceof byte []) {
+            return (byte [])embedded;
+        }
+        if (_currToken == JsonToken.VALUE_STRING) {
+            return bv.decode(text);
+        }
+        throw _constructError("Current token (" + _currToken + ") not binary");
+    }
+
+    private java.lang.Number checkNumber() throws IOException {
+        if (_currToken != JsonToken.VALUE_NUMBER_INT && _currToken != JsonToken.VALUE_NUMBER_FLOAT) {
+            throw _constructError("Current token (" + _currToken + ") not numeric");
+        }
+        return number;
+    }
+
+    @Override
+    public java.lang.Number getNumberValue() throws IOException {
+        return checkNumber();
+    }
+
+    @Override
+    public NumberType getNumberType() throws IOException {
+        checkNumber();
+        return numberType;
+    }
+
+    @Override
+    public int getIntValue() throws IOException {
+        return checkNumber().intValue();
+    }
+
+    @Override
+    public long getLongValue() throws IOException {
+        return checkNumber().longValue();
+    }
+
+    @Override
+    public BigInteger getBigIntegerValue() throws IOException {
+        return BigInteger.valueOf(checkNumber().longValue());
+    }
+
+    @Override
+    public float getFloatValue() throws IOException {
+        return checkNumber().floatValue();
+    }
+
+    @Override
+    public double getDoubleValue() throws IOException {
+        return checkNumber().doubleValue();
+    }
+
+    @Override
+    public BigDecimal getDecimalValue() throws IOException {
+        java.lang.Number n = checkNumber();
+        return (numberType == NumberType.INT || numberType == NumberType.LONG) ? BigDecimal.valueOf(n.longValue()) : BigDecimal.valueOf(n.doubleValue());
+    }
+}
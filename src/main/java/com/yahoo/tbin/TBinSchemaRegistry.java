@@ -0,0 +1,188 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.tbin;
+import com.yahoo.rdl.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of RDL types by fingerprint, so that a TBin stream can refer to the type of its
+ * values by fingerprint rather than embed its typedefs. The writer and reader of the stream
+ * must both have the type registered. See TypeRegistry.TypeInfo.fingerprint for how types are
+ * fingerprinted.
+ * <p>
+ * A registry may be backed by a directory of JSON schemas, which is shared between processes:
+ * registered schemas are written to it, and a fingerprint not yet known is looked for in the
+ * schemas added to it since it was last read. Lookups of known fingerprints are a single hash
+ * lookup, and may be made from any thread.
+ */
+public class TBinSchemaRegistry {
+
+    private final ConcurrentHashMap<Long,Entry> entries = new ConcurrentHashMap<Long,Entry>();
+    private final Path dir; //null if not backed by a directory
+    private final Set<Path> loaded = new HashSet<Path>(); //the schema files in dir already registered
+
+    /**
+     * Create an empty registry, held in memory only.
+     */
+    public TBinSchemaRegistry() {
+        this.dir = null;
+    }
+
+    /**
+     * Create a registry backed by a directory of JSON schemas. The schemas already in it are
+     * registered when first needed.
+     * @param dir the directory, which is created if it does not exist
+     * @throws IOException if the directory cannot be created
+     */
+    public TBinSchemaRegistry(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    /**
+     * A registered type, with its TBin typedef.
+     */
+    public static final class Entry {
+        final long fingerprint;
+        final TypeRegistry.TypeInfo info;
+        final TypeDef typeDef;
+        final List<TypeDef> implied; //the typedefs a reference to this one defines, for the reader
+
+        Entry(TypeRegistry.TypeInfo info, TypeDef typeDef) {
+            this.fingerprint = info.fingerprint();
+            this.info = info;
+            this.typeDef = typeDef;
+            List<TypeDef> defs = new ArrayList<TypeDef>();
+            TBinDecoder.impliedTypeDefs(typeDef, defs);
+            this.implied = defs;
+        }
+
+        public long fingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return the resolved type, from the registry of its schema
+         */
+        public TypeRegistry.TypeInfo info() {
+            return info;
+        }
+
+        /**
+         * @return the typedef of values of the type, as TypeDef.forType derives it
+         */
+        public TypeDef typeDef() {
+            return typeDef;
+        }
+
+        public String toString() {
+            return info.name() + "@" + Long.toHexString(fingerprint);
+        }
+    }
+
+    /**
+     * Register every type of a schema, and if the registry is backed by a directory, save the
+     * schema to it.
+     * @param schema the schema
+     * @return the resolved types of the schema
+     * @throws IOException if the schema cannot be saved
+     */
+    public TypeRegistry register(Schema schema) throws IOException {
+        TypeRegistry reg = add(schema);
+        if (dir != null) {
+            save(schema);
+        }
+        return reg;
+    }
+
+    /**
+     * @param fingerprint the fingerprint of a type
+     * @return the registered type, or null if it is not registered
+     * @throws IOException if the directory backing the registry cannot be read
+     */
+    public Entry lookup(long fingerprint) throws IOException {
+        Entry e = entries.get(fingerprint);
+        if (e == null && dir != null) {
+            refresh();
+            e = entries.get(fingerprint);
+        }
+        return e;
+    }
+
+    /**
+     * @param fingerprint the fingerprint of a type
+     * @return the registered type
+     * @throws TBinException if it is not registered
+     * @throws IOException if the directory backing the registry cannot be read
+     */
+    public Entry require(long fingerprint) throws IOException {
+        Entry e = lookup(fingerprint);
+        if (e == null) {
+            throw new TBinException("Unknown schema fingerprint: " + Long.toHexString(fingerprint));
+        }
+        return e;
+    }
+
+    //register the schemas in the directory not yet read
+    private synchronized void refresh() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path file : files) {
+                if (loaded.add(file)) {
+                    Schema schema;
+                    try (InputStream in = Files.newInputStream(file)) {
+                        schema = JSON.read(in, Schema.class);
+                    }
+                    if (schema == null) {
+                        throw new TBinException("Not a schema: " + file);
+                    }
+                    add(schema);
+                }
+            }
+        }
+    }
+
+    private TypeRegistry add(Schema schema) throws TBinException {
+        TypeRegistry reg = new TypeRegistry(schema);
+        for (int id = 0; id < reg.size(); id++) {
+            TypeRegistry.TypeInfo ti = reg.info(id);
+            if (!ti.isBaseType()) {
+                Entry e = new Entry(ti, TypeDef.forType(reg, ti.name()));
+                entries.putIfAbsent(e.fingerprint, e);
+            }
+        }
+        return reg;
+    }
+
+    //the file is named by the content, so that writers of the same schema do not conflict
+    private synchronized void save(Schema schema) throws IOException {
+        byte [] json = JSON.bytes(schema);
+        byte [] hash = SchemaSnapshot.fingerprint(json);
+        StringBuilder name = new StringBuilder(schema.name);
+        name.append('-');
+        for (int i = 0; i < 8; i++) {
+            name.append(TBin.hexByte(hash[i]));
+        }
+        Path file = dir.resolve(name + ".json");
+        if (loaded.add(file) && !Files.exists(file)) {
+            Path tmp = Files.createTempFile(dir, name.toString(), ".tmp");
+            try {
+                Files.write(tmp, json);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+}
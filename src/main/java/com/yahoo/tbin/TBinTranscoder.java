@@ -0,0 +1,525 @@
+/**
+ * Copyright 2015 Yahoo Inc.
+ * Licensed under the terms of the Apache version 2.0 license. See LICENSE file for terms.
+ */
+
+package com.yahoo.tbin;
+import com.yahoo.rdl.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import com.yahoo.tbin.TBinGenerator.ByteBuf;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Converts between TBin and JSON token by token, without building an object model in between.
+ * <p>
+ * TBin to JSON pipes the tokens of a TBinParser to a JsonGenerator, so memory use is bounded by
+ * the nesting depth. Timestamp, UUID, and Symbol values become strings, and Bytes become base64.
+ * <p>
+ * JSON to TBin pipes the tokens of a JsonParser to a TBinGenerator, producing the generic,
+ * self-describing encoding. Given a TypeDef (usually from TypeDef.forClass) the output is
+ * instead typed, as TBinEncoder writes it for instances of that class: the typedefs are written
+ * once, and values under them carry no tags or field names. TBin writes counts before items, so
+ * in this direction each open container is buffered until its end.
+ */
+public class TBinTranscoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Write the JSON equivalent of every value in a TBin stream.
+     * @param in the TBin input
+     * @param out the generator to write to. It is flushed, but not closed.
+     * @throws IOException if the input is not valid TBin, or it cannot be written
+     */
+    public static void toJSON(InputStream in, JsonGenerator out) throws IOException {
+        TBinParser p = new TBinParser(0, null, in);
+        JsonToken tok;
+        while ((tok = p.nextToken()) != null) {
+            if (tok == JsonToken.VALUE_EMBEDDED_OBJECT && !(p.getEmbeddedObject() instanceof byte [])) {
+                out.writeString(p.getText());
+            } else {
+                out.copyCurrentEvent(p);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @param tbin the TBin encoded bytes
+     * @return the equivalent UTF-8 encoded JSON, or null if the data is not valid TBin
+     */
+    public static byte [] toJSON(byte [] tbin) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (JsonGenerator out = JSON_FACTORY.createGenerator(baos)) {
+                toJSON(new ByteArrayInputStream(tbin), out);
+            }
+            return baos.toByteArray();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Write the generic TBin encoding of every value remaining in a JSON parser.
+     * @param in the JSON input
+     * @param out the TBin output. It is flushed, but not closed.
+     * @throws IOException if the input is not valid JSON, or it cannot be written
+     */
+    public static void fromJSON(JsonParser in, OutputStream out) throws IOException {
+        TBinGenerator gen = new TBinGenerator(0, null, out);
+        while (in.nextToken() != null) {
+            gen.copyCurrentStructure(in);
+        }
+        gen.flush();
+    }
+
+    /**
+     * Write the typed TBin encoding of every value remaining in a JSON parser. Each value must
+     * conform to the type: JSON fields not in the type are ignored, and a missing required field
+     * is an error.
+     * @param in the JSON input
+     * @param out the TBin output. It is flushed, but not closed.
+     * @param type the type of the values, for example TypeDef.forClass(Polyline.class)
+     * @throws IOException if the input is not valid JSON or does not conform to the type, or it
+     * cannot be written
+     */
+    public static void fromJSON(JsonParser in, OutputStream out, TypeDef type) throws IOException {
+        TBinGenerator gen = new TBinGenerator(0, null, out);
+        TypedWriter w = new TypedWriter(gen, in);
+        w.define(type);
+        while (in.nextToken() != null) {
+            w.write(type, true);
+        }
+        gen.flush();
+    }
+
+    /**
+     * Write the typed TBin encoding of every value remaining in a JSON parser, as for
+     * fromJSON(JsonParser, OutputStream, TypeDef), but with the typedefs replaced by a reference
+     * to the registered type. The reader must decode the output with a TBinSchemaRegistry that
+     * has the type registered.
+     * @param in the JSON input
+     * @param out the TBin output. It is flushed, but not closed.
+     * @param type the registered type of the values
+     * @throws IOException if the input is not valid JSON or does not conform to the type, or it
+     * cannot be written
+     */
+    public static void fromJSON(JsonParser in, OutputStream out, TBinSchemaRegistry.Entry type) throws IOException {
+        TBinGenerator gen = new TBinGenerator(0, null, out);
+        TypedWriter w = new TypedWriter(gen, in);
+        w.ref(type.typeDef, type.fingerprint);
+        while (in.nextToken() != null) {
+            w.write(type.typeDef, true);
+        }
+        gen.flush();
+    }
+
+    /**
+     * @param json the UTF-8 encoded JSON
+     * @return the generic TBin encoding of the JSON values, or null if the data is not valid JSON
+     */
+    public static byte [] fromJSON(byte [] json) {
+        return fromJSON(json, null);
+    }
+
+    /**
+     * @param json the UTF-8 encoded JSON
+     * @param cl the class of the JSON values, or null for the generic encoding
+     * @return the TBin encoding of the JSON values as TBinEncoder writes instances of the class,
+     * or null if the data is not valid JSON or does not conform to the class
+     */
+    public static byte [] fromJSON(byte [] json, Class<?> cl) {
+        try {
+            return transcode(json, (cl == null) ? null : TypeDef.forClass(cl));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    static byte [] transcode(byte [] json, TBinSchemaRegistry.Entry type) throws IOException {
+        try (JsonParser in = JSON_FACTORY.createParser(json)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            fromJSON(in, out, type);
+            return out.toByteArray();
+        }
+    }
+
+    //the typed encoding, or the generic one if the type is null
+    static byte [] transcode(byte [] json, TypeDef type) throws IOException {
+        try (JsonParser in = JSON_FACTORY.createParser(json)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (type == null) {
+                fromJSON(in, out);
+            } else {
+                fromJSON(in, out, type);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    //Writes typed values into a TBinGenerator's buffers. Untyped (ANY) values are written by
+    //the generator itself, which shares the symbol table.
+    static final class TypedWriter {
+        private final TBinGenerator gen;
+        private JsonParser in; //the input, or a buffered field being replayed from it
+        private final HashMap<String,Integer> types = TBinEncoder.primitiveTypes();
+        private int nextTag = TBin.FIRST_USER_TAG;
+
+        TypedWriter(TBinGenerator gen, JsonParser in) {
+            this.gen = gen;
+            this.in = in;
+        }
+
+        //the same typedefs, with the same tags, as TBinEncoder.encodeTypeDef
+        int define(TypeDef td) throws IOException {
+            Integer known = types.get(td.signature);
+            if (known != null) {
+                return known;
+            }
+            switch (td.tag) {
+            case TBin.STRUCT_TAG:
+                if (td.fields == null) {
+                    return td.tag;
+                }
+                for (TypeDef.Field f : td.fields) {
+                    define(f.type);
+                }
+                break;
+            case TBin.ARRAY_TAG:
+                if (td.items == TypeDef.ANY) {
+                    return td.tag;
+                }
+                define(td.items);
+                break;
+            case TBin.MAP_TAG:
+                if (td.keys == TypeDef.ANY && td.items == TypeDef.ANY) {
+                    return td.tag;
+                }
+                define(td.keys);
+                define(td.items);
+                break;
+            default:
+                throw new TBinException("Cannot transcode JSON to this type: " + td);
+            }
+            int tag = nextTag++;
+            types.put(td.signature, tag);
+            ByteBuf b = gen.out();
+            b.writeVarint(tag);
+            switch (td.tag) {
+            case TBin.STRUCT_TAG:
+                b.writeVarint(TBin.DEF_STRUCT_TAG);
+                b.writeVarint(td.fields.size());
+                for (TypeDef.Field f : td.fields) {
+                    writeUTF8(f.name);
+                    b.writeVarint(f.optional ? TBin.ANY_TAG : types.get(f.type.signature));
+                }
+                break;
+            case TBin.ARRAY_TAG:
+                b.writeVarint(TBin.DEF_ARRAY_TAG);
+                b.writeVarint(types.get(td.items.signature));
+                break;
+            default:
+                b.writeVarint(TBin.DEF_MAP_TAG);
+                b.writeVarint(types.get(td.keys.signature));
+                b.writeVarint(types.get(td.items.signature));
+                break;
+            }
+            return tag;
+        }
+
+        //a reference to a registered typedef, in place of its definition. The reader gives the
+        //typedefs nested in it tags, in the order define() would, so they are not written either.
+        int ref(TypeDef td, long fingerprint) throws IOException {
+            Integer known = types.get(td.signature);
+            if (known != null) {
+                return known;
+            }
+            int tag = assign(td);
+            if (tag >= TBin.FIRST_USER_TAG) {
+                ByteBuf b = gen.out();
+                b.writeVarint(tag);
+                b.writeVarint(TBin.DEF_REF_TAG);
+                b.writeFixed64(fingerprint);
+            }
+            return tag;
+        }
+
+        //every typed struct, array, and map gets a tag, even if one with the same signature has
+        //one already, as the reader cannot know the signatures the writer has seen
+        private int assign(TypeDef td) {
+            switch (td.tag) {
+            case TBin.STRUCT_TAG:
+                if (td.fields == null) {
+                    return td.tag;
+                }
+                for (TypeDef.Field f : td.fields) {
+                    assign(f.type);
+                }
+                break;
+            case TBin.ARRAY_TAG:
+                if (td.items == TypeDef.ANY) {
+                    return td.tag;
+                }
+                assign(td.items);
+                break;
+            case TBin.MAP_TAG:
+                if (td.keys == TypeDef.ANY && td.items == TypeDef.ANY) {
+                    return td.tag;
+                }
+                assign(td.keys);
+                assign(td.items);
+                break;
+            default:
+                return td.tag;
+            }
+            int tag = nextTag++;
+            types.putIfAbsent(td.signature, tag);
+            return tag;
+        }
+
+        private int tagFor(TypeDef td) {
+            Integer tag = types.get(td.signature);
+            return (tag == null) ? td.tag : tag;
+        }
+
+        //write the value at the current token. Tagged values are preceded by the tag of their
+        //type, as for optional fields, whose typedef type is ANY.
+        void write(TypeDef td, boolean tagged) throws IOException {
+            JsonToken tok = in.getCurrentToken();
+            if (tok == JsonToken.VALUE_NULL && td.tag != TBin.ANY_TAG) {
+                if (!tagged) {
+                    throw new TBinException("Missing value for required " + td);
+                }
+                gen.out().writeVarint(TBin.NULL_TAG);
+                return;
+            }
+            if (td.tag == TBin.ANY_TAG || (tagged && td.tag == TBin.STRUCT_TAG && td.fields == null)) {
+                gen.copyCurrentStructure(in); //the generic encoding is already tagged
+                return;
+            }
+            ByteBuf b = gen.out();
+            if (tagged && td.tag != TBin.STRING_TAG) {
+                b.writeVarint(tagFor(td));
+            }
+            switch (td.tag) {
+            case TBin.BOOL_TAG:
+                b.writeVarint(in.getBooleanValue() ? 1 : 0);
+                break;
+            case TBin.INT8_TAG:
+            case TBin.INT16_TAG:
+            case TBin.INT32_TAG:
+                b.writeZigzag(in.getIntValue());
+                break;
+            case TBin.INT64_TAG:
+                b.writeZigzag(in.getLongValue());
+                break;
+            case TBin.FLOAT32_TAG:
+                b.writeFixed32(Float.floatToIntBits(in.getFloatValue()));
+                break;
+            case TBin.FLOAT64_TAG:
+                b.writeFixed64(Double.doubleToLongBits(in.getDoubleValue()));
+                break;
+            case TBin.STRING_TAG:
+                if (tagged) {
+                    gen.writeString(scalarText(td));
+                } else {
+                    writeUTF8(scalarText(td));
+                }
+                break;
+            case TBin.BYTES_TAG:
+                byte [] data = in.getBinaryValue();
+                b.writeVarint(data.length);
+                b.write(data, 0, data.length);
+                break;
+            case TBin.TIMESTAMP_TAG:
+                Timestamp ts = Timestamp.fromString(scalarText(td));
+                if (ts == null) {
+                    throw new TBinException("Not a valid Timestamp: " + in.getText());
+                }
+                b.writeFixed64(Double.doubleToLongBits((double)ts.millis() / 1000.0));
+                break;
+            case TBin.SYMBOL_TAG:
+                gen.writeSymbol(scalarText(td));
+                break;
+            case TBin.UUID_TAG:
+                UUID u = UUID.fromString(scalarText(td));
+                if (u == null) {
+                    throw new TBinException("Not a valid UUID: " + in.getText());
+                }
+                byte [] ub = u.toBytes();
+                b.write(ub, 0, ub.length);
+                break;
+            case TBin.STRUCT_TAG:
+                expect(JsonToken.START_OBJECT, td);
+                if (td.fields == null) {
+                    writeGenericStruct();
+                } else {
+                    writeStruct(td);
+                }
+                break;
+            case TBin.ARRAY_TAG:
+                expect(JsonToken.START_ARRAY, td);
+                writeArray(td);
+                break;
+            case TBin.MAP_TAG:
+                expect(JsonToken.START_OBJECT, td);
+                writeMap(td);
+                break;
+            default:
+                throw new TBinException("Cannot transcode JSON to this type: " + td);
+            }
+        }
+
+        private String scalarText(TypeDef td) throws IOException {
+            if (!in.getCurrentToken().isScalarValue()) {
+                throw new TBinException("Expected a JSON scalar for " + td + ", found " + in.getCurrentToken());
+            }
+            return in.getText();
+        }
+
+        private void expect(JsonToken tok, TypeDef td) throws IOException {
+            if (in.getCurrentToken() != tok) {
+                throw new TBinException("Expected " + tok + " for " + td + ", found " + in.getCurrentToken());
+            }
+        }
+
+        private void writeUTF8(String s) {
+            byte [] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            ByteBuf b = gen.out();
+            b.writeVarint(utf8.length);
+            b.write(utf8, 0, utf8.length);
+        }
+
+        //the content after the count is buffered, then appended to the enclosing output
+        private void appendCounted(int count) {
+            ByteBuf content = gen.popBuffer();
+            ByteBuf b = gen.out();
+            b.writeVarint(count);
+            b.write(content.bytes, 0, content.len);
+        }
+
+        private void writeArray(TypeDef td) throws IOException {
+            boolean tagItems = td.items == TypeDef.ANY;
+            int count = 0;
+            gen.pushBuffer();
+            while (in.nextToken() != JsonToken.END_ARRAY) {
+                write(td.items, tagItems);
+                count++;
+            }
+            appendCounted(count);
+        }
+
+        private void writeMap(TypeDef td) throws IOException {
+            int keyTag = td.keys.tag;
+            if (keyTag != TBin.STRING_TAG && keyTag != TBin.SYMBOL_TAG && keyTag != TBin.ANY_TAG) {
+                throw new TBinException("Cannot transcode JSON object keys to " + td.keys);
+            }
+            boolean tagItems = td.items == TypeDef.ANY;
+            int count = 0;
+            gen.pushBuffer();
+            while (in.nextToken() == JsonToken.FIELD_NAME) {
+                String key = in.getCurrentName();
+                if (keyTag == TBin.STRING_TAG) {
+                    writeUTF8(key);
+                } else if (keyTag == TBin.SYMBOL_TAG) {
+                    gen.writeSymbol(key);
+                } else {
+                    gen.writeString(key);
+                }
+                in.nextToken();
+                write(td.items, tagItems);
+                count++;
+            }
+            appendCounted(count);
+        }
+
+        private void writeGenericStruct() throws IOException {
+            int count = 0;
+            gen.pushBuffer();
+            while (in.nextToken() == JsonToken.FIELD_NAME) {
+                gen.writeSymbol(in.getCurrentName());
+                in.nextToken();
+                gen.copyCurrentStructure(in);
+                count++;
+            }
+            appendCounted(count);
+        }
+
+        //typed fields have no count and must be written in the order of the typedef. Fields that
+        //arrive in that order are written directly; the others are buffered as JSON tokens, and
+        //encoded only when their turn comes, so that symbols are numbered in stream order.
+        private void writeStruct(TypeDef td) throws IOException {
+            int n = td.fields.size();
+            TokenBuffer [] pending = null;
+            int next = 0;
+            while (in.nextToken() == JsonToken.FIELD_NAME) {
+                int i = fieldIndex(td, in.getCurrentName(), next);
+                in.nextToken();
+                if (i < next) { //unknown or repeated
+                    in.skipChildren();
+                    continue;
+                }
+                TypeDef.Field f = td.fields.get(i);
+                if (i == next) {
+                    write(f.type, f.optional);
+                    next++;
+                    while (pending != null && next < n && pending[next] != null) {
+                        replay(pending[next], td.fields.get(next));
+                        pending[next++] = null;
+                    }
+                } else {
+                    if (pending == null) {
+                        pending = new TokenBuffer[n];
+                    }
+                    TokenBuffer buf = new TokenBuffer(in);
+                    buf.copyCurrentStructure(in);
+                    pending[i] = buf;
+                }
+            }
+            for (; next < n; next++) {
+                if (pending != null && pending[next] != null) {
+                    replay(pending[next], td.fields.get(next));
+                } else if (td.fields.get(next).optional) {
+                    gen.out().writeVarint(TBin.NULL_TAG);
+                } else {
+                    throw new TBinException("Missing required field '" + td.fields.get(next).name + "' for " + td);
+                }
+            }
+        }
+
+        private void replay(TokenBuffer buf, TypeDef.Field f) throws IOException {
+            JsonParser saved = in;
+            try (JsonParser p = buf.asParser()) {
+                in = p;
+                p.nextToken();
+                write(f.type, f.optional);
+            } finally {
+                in = saved;
+            }
+        }
+
+        private static int fieldIndex(TypeDef td, String name, int from) {
+            int n = td.fields.size();
+            for (int k = 0; k < n; k++) {
+                int i = (from + k) % n; //the expected field is usually the next one
+                if (td.fields.get(i).name.equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
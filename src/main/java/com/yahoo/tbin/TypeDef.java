@@ -10,6 +10,8 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.lang.reflect.*;
 
 /**
@@ -24,6 +26,8 @@ public class TypeDef {
     public List<String> symbols;
 
     String signature; //lazily created, used for key in hashmap
+    private Struct.Shape shape; //lazily created for struct types, shared by generically decoded instances
+    volatile TBinDecoder.StructPlan plan; //the last plan for decoding structs of this type into a class
     
     static class Field {
         String name;
@@ -66,6 +70,18 @@ public class TypeDef {
         return signature;
     }
 
+    //the shared field layout for generic structs of this type, or null if it has no shareable shape.
+    Struct.Shape shape() {
+        if (shape == null && fields != null) {
+            String [] names = new String[fields.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = fields.get(i).name;
+            }
+            shape = Struct.Shape.of(names);
+        }
+        return shape;
+    }
+
     //    TypeDef(int tag) {
     //        this.tag = tag;
     //        this.signature = initSignature();
@@ -389,4 +405,84 @@ public class TypeDef {
         return td;
     }
 
+    /**
+     * The typedef for values of an RDL type, as TBinTranscoder writes them. Enums are written
+     * as strings, and unions, as well as recursive references, generically.
+     * @param reg the resolved types of a schema
+     * @param typeName the RDL type
+     * @return the typedef
+     * @throws TBinException if there is no such type
+     */
+    public static TypeDef forType(TypeRegistry reg, String typeName) throws TBinException {
+        TypeRegistry.TypeInfo ti = reg.info(typeName);
+        if (ti == null) {
+            throw new TBinException("No such type: " + typeName);
+        }
+        return forType(ti, new HashSet<TypeRegistry.TypeInfo>());
+    }
+
+    //open holds the types being defined, which cannot be referred to by a typedef
+    private static TypeDef forType(TypeRegistry.TypeInfo ti, Set<TypeRegistry.TypeInfo> open) {
+        if (ti == null || ti.baseType() == null || !open.add(ti)) {
+            return ANY;
+        }
+        try {
+            switch (ti.baseType()) {
+            case Bool:
+                return BOOL;
+            case Int8:
+                return INT8;
+            case Int16:
+                return INT16;
+            case Int32:
+                return INT32;
+            case Int64:
+                return INT64;
+            case Float32:
+                return FLOAT32;
+            case Float64:
+                return FLOAT64;
+            case Bytes:
+                return BYTES;
+            case String:
+            case Enum:
+                return STRING;
+            case Timestamp:
+                return TIMESTAMP;
+            case Symbol:
+                return SYMBOL;
+            case UUID:
+                return UUID;
+            case Array:
+                return (ti.items() == null) ? ARRAY : forArray(forType(ti.items(), open));
+            case Map:
+                if (ti.keys() == null && ti.items() == null) {
+                    return MAP;
+                }
+                return forMap(forType(ti.keys(), open), forType(ti.items(), open));
+            case Struct:
+                if (ti.fields().isEmpty()) {
+                    return STRUCT;
+                }
+                List<Field> fields = new ArrayList<Field>();
+                for (TypeRegistry.FieldInfo f : ti.fields()) {
+                    TypeDef ftype;
+                    if (f.keys() != null) {
+                        ftype = forMap(forType(f.keys(), open), forType(f.items(), open));
+                    } else if (f.items() != null) {
+                        ftype = forArray(forType(f.items(), open));
+                    } else {
+                        ftype = forType(f.type(), open);
+                    }
+                    fields.add(new Field(f.name(), ftype, f.optional()));
+                }
+                return forStruct(fields);
+            default:
+                return ANY;
+            }
+        } finally {
+            open.remove(ti);
+        }
+    }
+
 }
@@ -0,0 +1,254 @@
+import com.yahoo.rdl.*;
+import com.yahoo.tbin.*;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ArrayTest {
+
+    @Test
+    public void testIntArray() {
+        IntArray a = IntArray.of(1, 2, 3);
+        for (int i = 4; i <= 100; i++) {
+            a.addInt(i);
+        }
+        assertEquals(a.size(), 100);
+        assertEquals(a.getInt(41), 42);
+        assertEquals(a.get(41), Integer.valueOf(42));
+        a.add(0, 0);
+        a.remove(Integer.valueOf(100));
+        assertEquals(a.size(), 100);
+        assertEquals(a.getInt(99), 99);
+        assertEquals(a.indexOf(50), 50);
+        int sum = 0;
+        for (Object o : a) {
+            sum += (Integer)o;
+        }
+        assertEquals(sum, 4950);
+        Array generic = new Array(a);
+        assertEquals(a, generic);
+        assertEquals(generic, a);
+        assertTrue(a.slice(10, 20) instanceof IntArray);
+        assertEquals(a.slice(10, 20).getInt(0), 10);
+        a.add("foo"); //moves the items to boxed storage
+        assertTrue(a.isBoxed());
+        assertEquals(a.size(), 101);
+        assertEquals(a.get(100), "foo");
+        assertEquals(a.getInt(99), 99);
+        a.clear();
+        assertFalse(a.isBoxed());
+    }
+
+    @Test
+    public void testMutateDecoded() {
+        Array a = JSON.fromString("[1,2,3]", Array.class);
+        assertTrue(a instanceof IntArray);
+        a.add(5L);
+        a.add("x");
+        a.set(0, null);
+        a.add(1, 2.5);
+        assertEquals(a.size(), 6);
+        assertEquals(a.get(0), null);
+        assertEquals(a.get(1), 2.5);
+        assertEquals(a.get(4), 5L);
+        assertEquals(a.getInt(2), 2);
+        assertEquals(JSON.string(a), "[null,2.5,2,3,5,\"x\"]");
+        assertEquals(TBin.fromBytes(TBin.bytes(a)), a);
+
+        Array d = (Array) TBin.fromBytes(TBin.bytes(DoubleArray.of(1.5, 2.5)));
+        assertTrue(d instanceof DoubleArray);
+        Array page = d.slice(0, 1);
+        d.set(1, "two and a half");
+        assertEquals(d, new Array().with(1.5).with("two and a half"));
+        assertEquals(page.getDouble(0), 1.5);
+    }
+
+    @Test
+    public void testJSONDecode() {
+        assertTrue(JSON.fromString("[1,2,3]", Array.class) instanceof IntArray);
+        assertTrue(JSON.fromString("[10000000000,20000000000]", Array.class) instanceof LongArray);
+        assertTrue(JSON.fromString("[1.5,2.5]", Array.class) instanceof DoubleArray);
+        Array mixed = JSON.fromString("[1,2,\"three\",4.0]", Array.class);
+        assertEquals(mixed.getClass(), Array.class);
+        assertEquals(mixed.size(), 4);
+        assertEquals(mixed.get(1), Integer.valueOf(2));
+        assertEquals(mixed.get(2), "three");
+        assertEquals(JSON.string(JSON.fromString("[1,2,3]", Array.class)), "[1,2,3]");
+    }
+
+    @Test
+    public void testTBinRoundTrip() {
+        Struct s = new Struct()
+            .with("ints", IntArray.of(1, -2, 300000))
+            .with("longs", LongArray.of(1L, -20000000000L))
+            .with("doubles", DoubleArray.of(1.5, -0.25, Math.PI))
+            .with("mixed", new Array().with(1).with("two"));
+        Struct s2 = (Struct)TBin.fromBytes(TBin.bytes(s));
+        assertEquals(s2, s);
+        assertTrue(s2.get("ints") instanceof IntArray);
+        assertTrue(s2.get("longs") instanceof LongArray);
+        assertTrue(s2.get("doubles") instanceof DoubleArray);
+        assertEquals(((DoubleArray)s2.get("doubles")).getDouble(2), Math.PI);
+        assertEquals(s2.get("mixed").getClass(), Array.class);
+    }
+
+    @Test
+    public void testTBinFloats() {
+        Array a = new Array().with(1.5f).with(-2.75).with(Timestamp.fromMillis(1445000000123L));
+        assertEquals(TBin.fromBytes(TBin.bytes(a)), a);
+    }
+
+    @Test
+    public void testSegmentedArray() {
+        assertTrue(Array.withCapacity(1000) instanceof Array);
+        assertTrue(Array.withCapacity(1000000) instanceof SegmentedArray);
+        SegmentedArray a = new SegmentedArray();
+        List<Object> ref = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            a.add(i);
+            ref.add(i);
+        }
+        //inserts and removes across segment boundaries
+        for (int i = 0; i < 100; i++) {
+            int at = (i * 7919) % a.size();
+            a.add(at, "x" + i);
+            ref.add(at, "x" + i);
+            a.remove((i * 104729) % a.size());
+            ref.remove((i * 104729) % ref.size());
+        }
+        a.add(a.size(), "end");
+        ref.add(ref.size(), "end");
+        assertEquals(a.size(), ref.size());
+        assertEquals(a, new Array(ref));
+        assertEquals(a.slice(4000, 5000), new Array(ref.subList(4000, 5000)));
+
+        //bulk inserts shift the tail once, across segment boundaries
+        List<Object> bulk = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            bulk.add("b" + i);
+        }
+        a.addAll(4000, bulk);
+        ref.addAll(4000, bulk);
+        a.addAll(3, bulk.subList(0, 10));
+        ref.addAll(3, bulk.subList(0, 10));
+        assertFalse(a.addAll(7, new ArrayList<Object>()));
+        assertEquals(a.size(), ref.size());
+        assertEquals(a, new Array(ref));
+        Array paged = a.slice(100, 9000); //inserting into a slice leaves the original as it was
+        paged.addAll(1, bulk.subList(0, 3));
+        assertEquals(paged.get(1), "b0");
+        assertEquals(paged.get(4), ref.get(101));
+        assertEquals(paged.get(8902), ref.get(8999));
+        assertEquals(paged.size(), 8903);
+        assertEquals(a, new Array(ref));
+
+        //slices are views, copied only when either side is modified
+        Array page = a.slice(4090, 4110);
+        assertTrue(page instanceof SegmentedArray);
+        assertEquals(page.get(10), ref.get(4100));
+        a.set(4100, "changed");
+        assertEquals(page.get(10), ref.get(4100));
+        page.add("more");
+        assertEquals(page.size(), 21);
+        assertEquals(a.get(4100), "changed");
+        Array tail = a.slice(10000, -1);
+        a.clear();
+        assertTrue(a.isEmpty());
+        assertEquals(tail.get(0), ref.get(10000));
+        try {
+            tail.get(-1);
+            fail("negative index on a slice");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void testLargeDecode() {
+        Array a = new Array();
+        for (int i = 0; i < 100000; i++) {
+            a.add(i % 3 == 0 ? "s" + i : i);
+        }
+        Object decoded = TBin.fromBytes(TBin.bytes(a));
+        assertTrue(decoded instanceof SegmentedArray);
+        assertEquals(decoded, a);
+    }
+
+    @Test
+    public void testSliceViews() {
+        Array a = new Array();
+        for (int i = 0; i < 1000; i++) {
+            a.add(i);
+        }
+        Array page = a.slice(100, 110);
+        List<Object> sub = a.subList(990, 1000);
+        assertEquals(page.size(), 10);
+        assertEquals(page.get(0), 100);
+        assertEquals(sub.get(9), 999);
+        try {
+            page.get(-1); //would be the parent's item 99
+            fail("negative index on a slice");
+        } catch (IndexOutOfBoundsException e) {
+        }
+
+        //modifying the parent does not affect the views, and vice versa
+        a.set(100, "changed");
+        assertEquals(page.get(0), 100);
+        page.set(1, "page");
+        page.add("more");
+        assertEquals(a.get(101), 101);
+        assertEquals(a.get(110), 110);
+        assertEquals(page.size(), 11);
+        assertEquals(page.get(10), "more");
+
+        Array copy = a.copy();
+        copy.remove(0);
+        assertEquals(a.size(), 1000);
+        assertEquals(copy.size(), 999);
+        assertEquals(a.slice(5, 8).compact(), new Array().with(5).with(6).with(7));
+
+        IntArray ia = IntArray.of(1, 2, 3, 4, 5);
+        Array islice = ia.slice(1, 4);
+        assertTrue(islice instanceof IntArray);
+        ia.setInt(1, 20);
+        assertEquals(islice.getInt(0), 2);
+        ((IntArray)islice).addInt(6);
+        assertEquals(ia.getInt(4), 5);
+        assertEquals(((IntArray)islice).toIntArray(), new int[] {2, 3, 4, 6});
+        try {
+            a.subList(0, 1001);
+            fail("subList out of range");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        assertEquals(a.subList(0, 1000).size(), 1000);
+    }
+
+    @Test
+    public void testStreams() {
+        Array a = new Array();
+        for (int i = 0; i < 100000; i++) {
+            a.add(i);
+        }
+        java.util.Spliterator<Object> sp = a.spliterator();
+        assertTrue(sp.hasCharacteristics(java.util.Spliterator.SUBSIZED));
+        assertEquals(sp.trySplit().estimateSize(), 50000);
+        long sum = a.parallelStream().mapToLong(o -> (Integer)o).sum();
+        assertEquals(sum, 4999950000L);
+        a.set(0, 10); //the stream was over a snapshot, and the array is still modifiable
+        assertEquals(a.get(0), 10);
+        assertEquals(a.slice(10, 20).stream().count(), 10);
+
+        IntArray ia = IntArray.of(1, 2, 3, 4);
+        assertEquals(ia.intStream().sum(), 10);
+        assertEquals(ia.parallelStream().count(), 4);
+        assertEquals(new SegmentedArray(a).parallelStream().count(), 100000);
+
+        Struct s = new Struct();
+        for (int i = 0; i < 50; i++) {
+            s.put("f" + i, i);
+        }
+        assertEquals(s.parallelFieldStream().mapToInt(f -> (Integer)f.value()).sum(), 1225);
+        assertEquals(s.fieldStream().findFirst().get().name(), "f0");
+        assertEquals(s.freeze().fieldStream().count(), 50);
+    }
+}
@@ -0,0 +1,110 @@
+import com.yahoo.rdl.*;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ImmutableTest {
+
+    @Test
+    public void testImmutableArray() {
+        ImmutableArray a = new Array().freeze();
+        List<Object> ref = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            ImmutableArray prev = a;
+            a = a.with(i);
+            ref.add(i);
+            assertEquals(prev.size(), i);
+        }
+        assertEquals(a, new Array(ref));
+        ImmutableArray b = a.with(1234, "x").with(4999, "y").with(0, "z");
+        assertEquals(a.get(1234), 1234);
+        assertEquals(b.get(1234), "x");
+        assertEquals(b.get(4999), "y");
+        assertEquals(b.get(0), "z");
+
+        ImmutableArray s = a.slice(100, 200);
+        assertEquals(s.size(), 100);
+        assertEquals(s.get(0), 100);
+        ImmutableArray s2 = s.with("tail");
+        assertEquals(s2.get(100), "tail");
+        assertEquals(a.get(200), 200);
+        assertEquals(s.without(100).get(0), 101);
+        assertEquals(s.without(150).size(), 99);
+        assertSame(a.copy(), a);
+        assertEquals(a.hashCode(), new Array(ref).freeze().hashCode());
+        assertEquals(s.hashCode(), new Array(ref.subList(100, 200)).freeze().hashCode());
+        assertNotEquals(b.hashCode(), a.hashCode());
+
+        //mutable items are frozen on the way in
+        ImmutableArray n = a.with(new Struct().with("x", 1)).with(0, new Array().with(2));
+        assertTrue(n.get(5000) instanceof ImmutableStruct);
+        assertTrue(n.get(0) instanceof ImmutableArray);
+        try {
+            a.add(1);
+            fail("ImmutableArray was modified");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    @Test
+    public void testImmutableStruct() {
+        Struct mutable = new Struct().with("a", 1).with("nested", new Struct().with("x", new Array().with(1)));
+        ImmutableStruct s = mutable.freeze();
+        assertEquals(s, mutable);
+        assertEquals(mutable, s);
+        assertTrue(s.get("nested") instanceof ImmutableStruct);
+        assertTrue(s.getStruct("nested").get("x") instanceof ImmutableArray);
+
+        //"Aa" and "BB" have the same hash code
+        ImmutableStruct t = s.with("Aa", 2).with("BB", 3).with("a", 10);
+        assertEquals(s.get("a"), 1);
+        assertEquals(t.get("a"), 10);
+        assertEquals(t.get("Aa"), 2);
+        assertEquals(t.get("BB"), 3);
+        assertNull(s.get("BB"));
+        assertEquals(t.nameAt(3), "BB");
+
+        ImmutableStruct u = t.without("Aa");
+        assertFalse(u.has("Aa"));
+        assertEquals(u.get("BB"), 3);
+        assertEquals(u.size(), 3);
+        assertEquals(u.nameAt(2), "BB");
+        assertEquals(u.toString(), t.without("Aa").toString());
+        assertEquals(t.size(), 4);
+
+        ImmutableStruct w = new Struct().freeze();
+        for (int i = 0; i < 1000; i++) {
+            w = w.with("f" + i, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            w = w.without("f" + i);
+        }
+        assertEquals(w.size(), 500);
+        int expect = 1;
+        for (Struct.Field f : w) {
+            assertEquals(f.name(), "f" + expect);
+            assertEquals(f.value(), expect);
+            expect += 2;
+        }
+        try {
+            s.put("b", 2);
+            fail("ImmutableStruct was modified");
+        } catch (UnsupportedOperationException e) {
+        }
+
+        ImmutableStruct s2 = new Struct().with("nested", new Struct().with("x", new Array().with(1L))).with("a", 1).freeze();
+        assertEquals(s2, s);
+        assertEquals(s2.hashCode(), s.hashCode());
+        java.util.Set<Struct> set = new java.util.HashSet<Struct>();
+        set.add(s);
+        assertTrue(set.contains(s2));
+        assertFalse(set.contains(t));
+
+        Struct inner = new Struct().with("x", 1);
+        ImmutableStruct v = s.with("inner", inner);
+        assertTrue(v.get("inner") instanceof ImmutableStruct);
+        inner.put("x", 2);
+        assertEquals(v.getStruct("inner").getInt("x"), 1);
+    }
+}
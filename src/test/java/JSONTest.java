@@ -4,6 +4,9 @@ import java.util.Map;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -60,6 +63,19 @@ public class JSONTest {
     @Test
     public void TimestampTest() {
         genericTest(Timestamp.fromCurrentTime(), Timestamp.class);
+        Assert.assertEquals(Timestamp.fromString("2015-10-16T05:53:20.123-07:00").toString(), "2015-10-16T12:53:20.123Z");
+        Assert.assertEquals(Timestamp.fromString("2015-10-16T12:53:20Z").millis(), 1445000000000L);
+        Assert.assertEquals(Timestamp.fromMillis(-1).toString(), "1969-12-31T23:59:59.999Z");
+        Assert.assertNotNull(Timestamp.fromString("2015-10-16T12:53:20.123456Z")); //not a fast path form
+        java.text.SimpleDateFormat fmt = new java.text.SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        fmt.setTimeZone(java.util.TimeZone.getTimeZone("GMT"));
+        java.util.Random rand = new java.util.Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long millis = Math.floorMod(rand.nextLong(), 190000000000000L) - 11000000000000L; //1621..7990
+            Timestamp t = Timestamp.fromMillis(millis);
+            Assert.assertEquals(t.toString(), fmt.format(new java.util.Date(millis)));
+            Assert.assertEquals(JSON.fromString(JSON.string(t), Timestamp.class).millis(), millis);
+        }
         System.out.println("JSONTest.TimestampTest ok");
     }
 
@@ -111,10 +127,94 @@ public class JSONTest {
     @Test
     public void UUIDTest() {
         genericTest(UUID.fromURL("http://yahoo.com"), UUID.class);
+        UUID u = UUID.fromString("urn:uuid:f81d4fae-7dec-11d0-a765-00a0c91e6bf6");
+        Assert.assertEquals(u.toString(), "f81d4fae-7dec-11d0-a765-00a0c91e6bf6");
+        Assert.assertEquals(UUID.fromBytes(u.toBytes()), u);
+        Assert.assertNull(UUID.fromString("f81d4fae-7dec-11d0-a765-00a0c91e6bfx"));
         System.out.println("JSONTest.UUIDTest ok");
     }
 
     //mapper to Polyline
-}
 
+    @Test
+    public void DecodeIntoTest() {
+        Struct s = new Struct().with("a", 1).with("b", 2);
+        Assert.assertSame(JSON.fromStringInto("{\"b\":3}", s), s);
+        Assert.assertEquals(s, new Struct().with("b", 3));
+        IntArray ints = IntArray.of(9, 9, 9, 9);
+        Assert.assertSame(JSON.fromStringInto("[1,2,3]", ints), ints);
+        Assert.assertEquals(ints, IntArray.of(1, 2, 3));
+        Point p = new Point().x(1).y(2);
+        Assert.assertSame(JSON.fromStringInto("{\"y\":5}", p), p);
+        Assert.assertEquals(p, new Point().x(1).y(5));
+    }
+
+    @Test
+    public void StreamTest() throws IOException {
+        Struct s = new Struct().with("a", 1).with("b", "two");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSON.write(s, out);
+        out.write(' ');
+        JSON.write(new Point().x(3).y(4), out);
+        Assert.assertEquals(JSON.bytes(s).length + 1 + JSON.bytes(new Point().x(3).y(4)).length, out.size());
+        ByteArrayInputStream in = new ByteArrayInputStream(JSON.bytes(s));
+        Assert.assertEquals(JSON.read(in, Struct.class), s);
+        try {
+            JSON.read(new ByteArrayInputStream("{\"a\":".getBytes()), Struct.class);
+            Assert.fail("expected an IOException for truncated input");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void NDJSONTest() throws IOException {
+        List<Point> points = new ArrayList<Point>();
+        for (int i = 0; i < 1000; i++) {
+            points.add(new Point().x(i).y(-i));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NDJSON.write(points, out);
+        String text = out.toString("UTF-8");
+        Assert.assertEquals(text.split("\n").length, 1000);
+        Assert.assertTrue(text.startsWith("{\"x\":0,\"y\":0}\n{\"x\":1,\"y\":-1}\n"));
+
+        List<Point> ordered = new ArrayList<Point>();
+        java.util.concurrent.ExecutorService exec = java.util.concurrent.Executors.newFixedThreadPool(4);
+        try {
+            NDJSON.read(new ByteArrayInputStream(out.toByteArray()), Point.class, ordered::add, exec, 7, true);
+            Assert.assertEquals(ordered, points);
+            List<Point> unordered = new ArrayList<Point>();
+            NDJSON.read(new ByteArrayInputStream(out.toByteArray()), Point.class, unordered::add, exec, 7, false);
+            unordered.sort((a, b) -> Integer.compare(a.x, b.x));
+            Assert.assertEquals(unordered, points);
+        } finally {
+            exec.shutdown();
+        }
+
+        //blank lines, CRLF, and no final newline
+        List<Struct> structs = new ArrayList<Struct>();
+        NDJSON.read(new ByteArrayInputStream("{\"a\":1}\r\n\n  \n{\"a\":2}".getBytes()), Struct.class, structs::add);
+        Assert.assertEquals(structs.size(), 2);
+        Assert.assertEquals(structs.get(1).get("a"), 2);
+        try {
+            NDJSON.read(new ByteArrayInputStream("{\"a\":1}\n\n{\"a\":\n".getBytes()), Struct.class, structs::add);
+            Assert.fail("expected an IOException for a bad line");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().startsWith("NDJSON line 3:"), e.getMessage());
+        }
+    }
 
+    @Test
+    public void StructDecodeTest() {
+        String json = "{\"a\":1,\"b\":{\"c\":[1,{\"d\":null}],\"e\":2.5},\"f\":null}";
+        Struct s = JSON.fromString(json, Struct.class);
+        Assert.assertTrue(s.get("b") instanceof Struct);
+        Array c = (Array) ((Struct) s.get("b")).get("c");
+        Assert.assertTrue(c.get(1) instanceof Struct);
+        Assert.assertEquals(s.names().iterator().next(), "a");
+        Assert.assertEquals(JSON.string(s), "{\"a\":1,\"b\":{\"c\":[1,{}],\"e\":2.5}}");
+        Assert.assertEquals(JSON.string(s.freeze()), JSON.string(s));
+        Assert.assertEquals(JSON.string(LongArray.of(1L << 40, 2)), "[1099511627776,2]");
+    }
+}
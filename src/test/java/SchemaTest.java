@@ -5,14 +5,20 @@ import org.testng.annotations.Test;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 public class SchemaTest {
 
+    public static void main(String [] args) {
+        new SchemaTest().benchmark();
+    }
+
     Schema loadSchema(String name) {
         try {
             String path = "src/test/resources/" + name;
@@ -276,6 +282,425 @@ public class SchemaTest {
     }
     */
     
+    @Test
+    public void CompiledConstraintsTest() {
+        Schema schema = multiArraySchema();
+        schema.types.add(new Type(new ArrayTypeDef().name("Names").type("Array").items("SimpleName").maxSize(2)));
+        schema.types.add(new Type(new BytesTypeDef().name("Hash").type("Bytes").size(4)));
+        Validator v = new Validator(schema);
+
+        //maxSize is an upper bound, not a lower one
+        Assert.assertTrue(v.validate(Arrays.asList("a"), "Names").valid);
+        Assert.assertFalse(v.validate(Arrays.asList("a", "b", "c"), "Names").valid);
+
+        //items are reported by their index
+        Validator.Result result = v.validate(Arrays.asList("a", "b."), "Names");
+        Assert.assertTrue(result.error.endsWith(" in data[1]"), result.error);
+
+        Assert.assertTrue(v.validate(new byte[4], "Hash").valid);
+        Assert.assertFalse(v.validate(new byte[3], "Hash").valid);
+
+        //a shared validator is safe to use from several threads
+        Template template = new Template();
+        template.names = Arrays.asList("name1", "name2");
+        template.params = Arrays.asList(new TemplateParam("key", "value"));
+        Assert.assertTrue(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8).parallelStream()
+                          .allMatch(i -> v.validate(template, "Template").valid));
+    }
+
+    @Test
+    public void ParallelValidationTest() {
+        Schema schema = multiArraySchema();
+        schema.types.add(new Type(new ArrayTypeDef().name("Names").type("Array").items("SimpleName")));
+        schema.types.add(new Type(new MapTypeDef().name("NameMap").type("Map").keys("String").items("SimpleName")));
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            Validator v = new Validator(schema).parallel(pool, 100);
+            List<String> names = new ArrayList<String>();
+            Struct map = new Struct();
+            for (int i = 0; i < 20000; i++) {
+                names.add("name" + i);
+                map.put("k" + i, "name" + i);
+            }
+            Assert.assertTrue(v.validate(names, "Names").valid);
+            Assert.assertTrue(v.validate(map, "NameMap").valid);
+
+            //the error at the lowest index is reported, as when sequential
+            names.set(17000, "bad name");
+            names.set(3000, "bad name");
+            names.set(9000, "bad name");
+            Validator.Result result = v.validate(names, "Names");
+            Assert.assertFalse(result.valid);
+            Assert.assertTrue(result.error.endsWith(" in data[3000]"), result.error);
+            Assert.assertEquals(new Validator(schema).validate(names, "Names").error, result.error);
+            map.put("k5000", "bad name");
+            result = v.validate(map, "NameMap");
+            Assert.assertEquals(new Validator(schema).validate(map, "NameMap").error, result.error);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void ValidationPathTest() {
+        Validator v = new Validator(multiArraySchema());
+        Template template = new Template();
+        template.names = Arrays.asList("name1", "name2");
+        template.params = Arrays.asList(new TemplateParam("key", "value"), new TemplateParam("key", "bad value"));
+        Validator.Result result = v.validate(template, "Template");
+        Assert.assertFalse(result.valid);
+        Assert.assertTrue(result.error.endsWith(" in data.params[1].value"), result.error);
+
+        //valid results are shared
+        template.params = Arrays.asList(new TemplateParam("key", "value"));
+        Assert.assertSame(v.validate(template, "Template"), v.validate(template, "Template"));
+    }
+
+    @Test
+    public void StreamingValidationTest() throws java.io.IOException {
+        Validator v = new Validator(multiArraySchema());
+        String[] docs = {
+            "{\"names\":[\"a\",\"b\"],\"params\":[{\"key\":\"k\",\"value\":\"v\"}],\"extra\":{\"x\":[1]}}",
+            "{\"names\":[\"a\",\"b\"],\"params\":[{\"key\":\"k\",\"value\":\"v\"},{\"key\":\"k\",\"value\":\"bad value\"}]}",
+            "{\"names\":[\"a\"],\"params\":[{\"key\":\"k\"}]}",
+            "{\"names\":[\"a\",3],\"params\":[]}",
+            "{\"names\":[\"a\"]}",
+            "[1,2]"
+        };
+        for (String doc : docs) { //the same result as validating the decoded data
+            Validator.Result expected = v.validate(JSON.fromString(doc, Object.class), "Template");
+            Validator.Result result = v.validateJSON(doc.getBytes("UTF-8"), "Template");
+            Assert.assertEquals(result.valid, expected.valid, doc);
+            if (!expected.valid && !doc.startsWith("[")) {
+                Assert.assertEquals(result.error, expected.error, doc);
+            }
+        }
+        Assert.assertFalse(v.validateJSON("{\"names\":[".getBytes("UTF-8"), "Template").valid);
+        Assert.assertFalse(v.validateJSON("{\"names\":[],\"params\":[]} {}".getBytes("UTF-8"), "Template").valid);
+
+        //reading stops at the first violation
+        StringBuilder sb = new StringBuilder("{\"names\":[\"a\",\"bad name\"");
+        for (int i = 0; i < 200000; i++) {
+            sb.append(",\"name").append(i).append('"');
+        }
+        byte [] big = sb.append("],\"params\":[]}").toString().getBytes("UTF-8");
+        int [] read = new int[1];
+        java.io.InputStream in = new java.io.ByteArrayInputStream(big) {
+            @Override
+            public synchronized int read(byte [] b, int off, int len) {
+                int n = super.read(b, off, len);
+                read[0] += Math.max(n, 0);
+                return n;
+            }
+        };
+        Validator.Result result = v.validateJSON(in, "Template");
+        Assert.assertTrue(result.error.endsWith(" in data.names[1]"), result.error);
+        Assert.assertTrue(read[0] < big.length / 10, read[0] + " of " + big.length);
+
+        Template template = new Template();
+        template.names = Arrays.asList("name1", "name2");
+        template.params = Arrays.asList(new TemplateParam("key", "value"));
+        Assert.assertTrue(com.yahoo.tbin.TBin.validate(com.yahoo.tbin.TBin.bytes(template), v, "Template").valid);
+        template.params = Arrays.asList(new TemplateParam("key", "value"), new TemplateParam("bad key", "value"));
+        result = com.yahoo.tbin.TBin.validate(com.yahoo.tbin.TBin.bytes(template), v, "Template");
+        Assert.assertEquals(result.error, v.validate(template, "Template").error);
+    }
+
+    public static class Rec {
+        public int x;
+        @RdlOptional
+        public String name;
+        @RdlOptional
+        public String code;
+    }
+
+    @Test
+    public void OptionalNullValidationTest() throws java.io.IOException {
+        SchemaBuilder sb = new SchemaBuilder("optional");
+        sb.stringType("Code").pattern("[a-z]+");
+        sb.structType("Rec").field("x", "Int32", false, "").field("name", "String", true, "").field("code", "Code", true, "");
+        Validator v = new Validator(sb.build());
+        Rec rec = new Rec();
+        rec.x = 3;
+        Assert.assertTrue(v.validate(rec, "Rec").valid);
+
+        //an unset optional field is written as a null, and is the same as an absent one
+        byte [] tbin = com.yahoo.tbin.TBin.bytes(rec);
+        Rec decoded = new com.yahoo.tbin.TBinDecoder(new java.io.ByteArrayInputStream(tbin)).decode(Rec.class, v, "Rec");
+        Assert.assertEquals(decoded.x, 3);
+        Assert.assertNull(decoded.name);
+        Assert.assertTrue(com.yahoo.tbin.TBin.validate(tbin, v, "Rec").valid);
+        Assert.assertTrue(v.validateJSON("{\"x\":3,\"name\":null}".getBytes("UTF-8"), "Rec").valid);
+        Assert.assertTrue(v.validate(JSON.fromString("{\"x\":3,\"name\":null}", Object.class), "Rec").valid);
+        Assert.assertTrue(v.validate(new Struct().with("x", 3).with("name", null), "Rec").valid);
+
+        //a set one is still checked, and a null required field is not valid
+        rec.code = "Bad Code";
+        Assert.assertFalse(com.yahoo.tbin.TBin.validate(com.yahoo.tbin.TBin.bytes(rec), v, "Rec").valid);
+        Assert.assertFalse(v.validateJSON("{\"x\":null}".getBytes("UTF-8"), "Rec").valid);
+        Assert.assertFalse(v.validate(new Struct().with("x", null), "Rec").valid);
+        try {
+            new com.yahoo.tbin.TBinDecoder(new java.io.ByteArrayInputStream(com.yahoo.tbin.TBin.bytes(rec))).decode(Rec.class, v, "Rec");
+            Assert.fail("expected a ValidationException");
+        } catch (Validator.ValidationException e) {
+            Assert.assertTrue(e.getMessage().endsWith(" in data.code"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void TypeRegistryTest() {
+        SchemaBuilder sb = new SchemaBuilder("registry");
+        sb.structType("Base").field("id", "Int64", false, "");
+        sb.structType("Derived", "Base").field("label", "String", true, "");
+        sb.structType("MoreDerived", "Derived").mapField("tags", "String", "Int32", true, "");
+        sb.stringType("Name").pattern("[a-z]+");
+        Schema schema = sb.build();
+        schema.types.add(new Type(new AliasTypeDef().name("Alias1").type("Name")));
+        schema.types.add(new Type(new AliasTypeDef().name("Alias2").type("Alias1")));
+        schema.types.add(new Type(new ArrayTypeDef().name("Names").type("Array").items("Alias2")));
+        schema.types.add(new Type(new ArrayTypeDef().name("MoreNames").type("Names").size(2)));
+        TypeRegistry reg = new TypeRegistry(schema);
+
+        Assert.assertEquals(reg.size(), BaseType.values().length + 8);
+        for (int id = 0; id < reg.size(); id++) {
+            Assert.assertEquals(reg.id(reg.info(id).name()), id);
+        }
+        Assert.assertTrue(reg.info("Int32").isBaseType());
+        Assert.assertNull(reg.findType("Int32"));
+        Assert.assertEquals(reg.id("NoSuchType"), -1);
+        Assert.assertEquals(TypeRegistry.typeName(new Type(BaseType.Int32)), "Int32");
+
+        TypeRegistry.TypeInfo md = reg.info("MoreDerived");
+        Assert.assertEquals(md.baseType(), BaseType.Struct);
+        Assert.assertEquals(md.supertype().name(), "Derived");
+        Assert.assertEquals(md.fields().toString(), "[id, label, tags]");
+        Assert.assertEquals(md.field("label").index(), 1);
+        Assert.assertSame(md.field("id").type(), reg.info("Int64"));
+        Assert.assertSame(md.field("tags").keys(), reg.info("String"));
+        Assert.assertSame(reg.info("Alias2").resolved(), reg.info("Name"));
+        Assert.assertEquals(reg.info("Alias2").baseType(), BaseType.String);
+        Assert.assertSame(reg.info("MoreNames").items(), reg.info("Alias2")); //inherited
+
+        Validator v = new Validator(reg);
+        Assert.assertTrue(v.validate(Arrays.asList("a", "b"), "MoreNames").valid);
+        Assert.assertFalse(v.validate(Arrays.asList("a", "B"), "MoreNames").valid);
+        Assert.assertFalse(v.validate(new Struct().with("label", "x"), "MoreDerived").valid);
+    }
+
+    @Test
+    public void SchemaSnapshotTest() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path json = dir.resolve("rdl_schema.json");
+        Path snap = dir.resolve("rdl_schema.snapshot");
+        Files.copy(Paths.get("src/test/resources/rdl_schema.json"), json);
+        Schema expected = new ObjectMapper().readValue(json.toFile(), Schema.class);
+
+        SchemaSnapshot built = SchemaSnapshot.loadOrBuild(json, snap);
+        Assert.assertEquals(built.schema(), expected);
+        Assert.assertTrue(Files.exists(snap));
+        SchemaSnapshot loaded = SchemaSnapshot.load(snap);
+        Assert.assertEquals(loaded.schema(), expected);
+        Assert.assertEquals(loaded.fingerprint(), SchemaSnapshot.fingerprint(Files.readAllBytes(json)));
+        Assert.assertNotNull(loaded.registry().info("StructTypeDef"));
+
+        //a changed source makes the snapshot stale, and it is rebuilt
+        Schema other = new ObjectMapper().readValue(new File("src/test/resources/basictypes_schema.json"), Schema.class);
+        Files.write(json, JSON.bytes(other));
+        Assert.assertEquals(SchemaSnapshot.loadOrBuild(json, snap).schema(), other);
+        Assert.assertEquals(SchemaSnapshot.load(snap).schema(), other);
+
+        //defaults, numbers and resources
+        SchemaBuilder sb = new SchemaBuilder("snap");
+        sb.structType("Point").field("x", "Int32", false, "", 3).field("label", "String", true, "", "here");
+        sb.numberType("Small", "Float64").min(-1.5).max(1.5);
+        sb.resource("Point", "GET", "/points/{id}").pathParam("id", "Int32", "")
+            .queryParam("limit", "limit", "Int32", 10, "").auth("read", "points", true)
+            .expected("OK").exception("NOT_FOUND", "ResourceError", "");
+        Schema schema = sb.build();
+        byte [] fp = SchemaSnapshot.fingerprint(JSON.bytes(schema));
+        Assert.assertEquals(SchemaSnapshot.fromBytes(SchemaSnapshot.bytes(schema, fp)).schema(), schema);
+    }
+
+    @Test
+    public void ResourceRouterTest() {
+        SchemaBuilder sb = new SchemaBuilder("routes").base("/api/v1");
+        sb.resource("User", "GET", "/users/{name}").pathParam("name", "String", "");
+        sb.resource("User", "GET", "/users/me");
+        sb.resource("Post", "GET", "/users/{name}/posts/{id}?details={details}").pathParam("name", "String", "")
+            .pathParam("id", "Int32", "").queryParam("details", "details", "Bool", false, "");
+        sb.resource("User", "PUT", "/users/{name}").pathParam("name", "String", "");
+        sb.resource("File", "GET", "/files/{path*}").pathParam("path", "String", "");
+        ResourceRouter router = new ResourceRouter(sb.build());
+
+        ResourceRouter.Match m = router.route("GET", "/api/v1/users/j%C3%BCrgen");
+        Assert.assertEquals(m.resource().path, "/users/{name}");
+        Assert.assertEquals(m.param("name"), "j\u00fcrgen");
+        Assert.assertEquals(router.route("GET", "/api/v1/users/me").resource().path, "/users/me"); //literals first
+        m = router.route("GET", "/api/v1/users/me/posts/12?x=1&details=a+b");
+        Assert.assertEquals(m.params().toString(), "{name=me, id=12, details=a b}");
+        Assert.assertNull(router.route("GET", "/api/v1/users/me/posts/12").param("details"));
+        Assert.assertEquals(router.route("PUT", "/api/v1/users/me").resource().method, "PUT");
+        Assert.assertEquals(router.route("GET", "/api/v1/files/a/b/c.txt").param("path"), "a/b/c.txt");
+        Assert.assertNull(router.route("GET", "/api/v1/users"));
+        Assert.assertNull(router.route("DELETE", "/api/v1/users/me"));
+        Assert.assertNull(router.route("GET", "/users/me"));
+    }
+
+    @Test
+    public void ParameterBinderTest() {
+        SchemaBuilder sb = new SchemaBuilder("params");
+        sb.stringType("Name").pattern("[a-z]+");
+        sb.numberType("Limit", "Int32").min(1).max(100);
+        sb.enumType("Color").element("red").element("blue");
+        sb.structType("Item").field("name", "Name", false, "");
+        sb.resource("Item", "GET", "/items/{name}?limit={limit}&color={color}").pathParam("name", "Name", "")
+            .queryParam("limit", "limit", "Limit", 10, "").queryParam("color", "color", "Color", null, "")
+            .queryParam("since", "since", "Timestamp", null, "").headerParam("X-Request-Id", "id", "UUID", null, "");
+        sb.resource("Item", "PUT", "/items/{name}").pathParam("name", "Name", "").input("item", "Item", "");
+        Schema schema = sb.build();
+        TypeRegistry reg = new TypeRegistry(schema);
+        ResourceRouter router = new ResourceRouter(schema);
+        ParameterBinder get = new ParameterBinder(schema.resources.get(0), reg);
+        Object [] params = get.newParams();
+        Map<String,String> headers = new HashMap<>();
+        headers.put("X-Request-Id", "2a5f8e8c-4d2a-11e6-beb8-9e71128cae77");
+
+        ResourceRouter.Match m = router.route("GET", "/items/abc?since=2016-07-18T00:00:00.000Z&color=blue");
+        Assert.assertTrue(get.bind(m, headers::get, params).valid);
+        Assert.assertEquals(params[get.index("name")], "abc");
+        Assert.assertEquals(params[get.index("limit")], 10); //the default
+        Assert.assertEquals(params[get.index("color")], "blue");
+        Assert.assertEquals(params[get.index("since")], Timestamp.fromString("2016-07-18T00:00:00.000Z"));
+        Assert.assertEquals(params[get.index("id")], UUID.fromString("2a5f8e8c-4d2a-11e6-beb8-9e71128cae77"));
+
+        Assert.assertTrue(get.bind(router.route("GET", "/items/abc?limit=50"), null, params).valid);
+        Assert.assertEquals(params[get.index("limit")], 50);
+        Assert.assertNull(params[get.index("id")]);
+        Assert.assertEquals(get.bind(router.route("GET", "/items/abc?limit=500"), null, params).valid, false);
+        Assert.assertEquals(get.bind(router.route("GET", "/items/abc?limit=x"), null, params).error, "Not a valid Limit: x in limit");
+        Assert.assertFalse(get.bind(router.route("GET", "/items/ABC"), null, params).valid);
+        Assert.assertFalse(get.bind(router.route("GET", "/items/abc?color=green"), null, params).valid);
+
+        //the body is left to the caller
+        ParameterBinder put = new ParameterBinder(schema.resources.get(1), reg);
+        Object [] putParams = put.newParams();
+        Assert.assertTrue(put.bind(new String [] {"abc", "{}"}, putParams).valid);
+        Assert.assertEquals(Arrays.asList(putParams), Arrays.asList("abc", null));
+        try {
+            put.bind(router.route("GET", "/items/abc"), null, putParams);
+            Assert.fail("bound a match for another resource");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    //a schema with the number of resources, each with a path parameter, half of them with a query parameter
+    Schema routeSchema(int count) {
+        SchemaBuilder sb = new SchemaBuilder("routes");
+        for (int i = 0; i < count; i++) {
+            SchemaBuilder.ResourceBuilder rb = sb.resource("Item", (i % 4 == 0) ? "PUT" : "GET", "/service" + (i % 25) + "/items" + i + "/{id}")
+                .pathParam("id", "String", "");
+            if (i % 2 == 0) {
+                rb.queryParam("limit", "limit", "Int32", 10, "");
+            }
+        }
+        return sb.build();
+    }
+
+    @Test
+    public void LargeRouterTest() {
+        Schema schema = routeSchema(1000);
+        ResourceRouter router = new ResourceRouter(schema);
+        for (int i = 0; i < 1000; i++) {
+            Resource r = schema.resources.get(i);
+            ResourceRouter.Match m = router.route(r.method, r.path.replace("{id}", "x" + i) + "?limit=5");
+            Assert.assertNotNull(m, r.path);
+            Assert.assertSame(m.resource(), r);
+            Assert.assertEquals(m.param("id"), "x" + i);
+            Assert.assertEquals(m.param("limit"), (i % 2 == 0) ? "5" : null);
+        }
+        Assert.assertNull(router.route("GET", "/service1/items0/x"));
+    }
+
+    public void benchmark() {
+        benchmarkRouter(1000, 100);
+    }
+
+    void benchmarkRouter(int count, int iterations) {
+        Schema schema = routeSchema(count);
+        ResourceRouter router = new ResourceRouter(schema);
+        String [] uris = new String[count];
+        java.util.regex.Pattern [] patterns = new java.util.regex.Pattern[count];
+        for (int i = 0; i < count; i++) {
+            Resource r = schema.resources.get(i);
+            uris[i] = r.path.replace("{id}", "x" + i) + "?limit=5";
+            patterns[i] = java.util.regex.Pattern.compile(r.path.replace("{id}", "([^/]+)"));
+        }
+        long t0 = System.currentTimeMillis();
+        for (int n = 0; n < iterations; n++) {
+            for (int i = 0; i < count; i++) {
+                Assert.assertNotNull(router.route(schema.resources.get(i).method, uris[i]));
+            }
+        }
+        long t1 = System.currentTimeMillis();
+        System.out.println("ResourceRouter (" + count + " routes): " + ((t1 - t0) * 1000.0 / (iterations * count)) + " \u03bcs/route");
+        t0 = System.currentTimeMillis();
+        for (int n = 0; n < iterations; n++) {
+            for (int i = 0; i < count; i++) {
+                String path = uris[i].substring(0, uris[i].indexOf('?'));
+                int j = 0;
+                while (!patterns[j].matcher(path).matches()) {
+                    j++;
+                }
+            }
+        }
+        t1 = System.currentTimeMillis();
+        System.out.println("Linear regex scan (" + count + " routes): " + ((t1 - t0) * 1000.0 / (iterations * count)) + " \u03bcs/route");
+    }
+
+    public static class Settings {
+        public Integer retries;
+        public String label;
+        public final String mode = "fixed";
+    }
+
+    public static class Choice {
+        public Settings Settings;
+        public String String;
+    }
+
+    static class Hidden {
+        public Integer retries;
+        public String label;
+    }
+
+    @Test
+    public void AccessorPlanTest() {
+        SchemaBuilder sb = new SchemaBuilder("accessors");
+        sb.structType("Settings").field("retries", "Int32", false, "", 3).field("label", "String", true, "");
+        sb.structType("Moded").field("mode", "String", false, "", "auto");
+        sb.unionType("Choice").variant("Settings").variant("String");
+        Validator v = new Validator(sb.build());
+
+        Settings s = new Settings();
+        Assert.assertTrue(v.validate(s, "Settings").valid);
+        Assert.assertEquals(s.retries, Integer.valueOf(3)); //the default is filled in
+        s.retries = 7;
+        Assert.assertTrue(v.validate(s, "Settings").valid);
+        Assert.assertEquals(s.retries, Integer.valueOf(7));
+        Assert.assertTrue(v.validate(s, "Moded").valid);
+
+        Choice c = new Choice();
+        c.Settings = new Settings();
+        Assert.assertTrue(v.validate(c, "Choice").valid);
+        Assert.assertEquals(c.Settings.retries, Integer.valueOf(3));
+        Assert.assertFalse(v.validate(new Choice(), "Choice").valid);
+
+        Validator.Result r = v.validate(new TemplateParam("k", "v"), "Settings");
+        Assert.assertEquals(r.error, "Missing field in object: retries for type Settings in data");
+        r = v.validate(new Hidden(), "Settings");
+        Assert.assertEquals(r.error, "Inaccessible field in object: retries for type Settings in data");
+    }
+
     Schema multiArraySchema() {
         SchemaBuilder sb = new SchemaBuilder("arraytest");
         sb.version(1);
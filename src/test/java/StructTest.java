@@ -0,0 +1,111 @@
+import com.yahoo.rdl.*;
+import com.yahoo.tbin.*;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StructTest {
+
+    @Test
+    public void ShapeInterningTest() {
+        Struct.Shape s1 = Struct.Shape.of("x", "y", "z");
+        Struct.Shape s2 = Struct.Shape.EMPTY.extend("x").extend("y").extend("z");
+        Assert.assertSame(s1, s2);
+        Assert.assertEquals(s1.size(), 3);
+        Assert.assertEquals(s1.slot("y"), 1);
+        Assert.assertEquals(s1.slot("w"), -1);
+        Assert.assertNull(Struct.Shape.of("x", "x"));
+        System.out.println("StructTest.ShapeInterningTest ok");
+    }
+
+    @Test
+    public void ShapedStructTest() {
+        Struct s = Struct.fromFields(new String[] {"x", "y"}, new Object[] {1, 2}, 2);
+        Assert.assertNotNull(s.shape());
+        Assert.assertEquals(s.getInt("y"), 2);
+        Assert.assertEquals(s, new Struct().with("x", 1).with("y", 2));
+
+        s.put("y", 3); //updating an existing field keeps the shape
+        Assert.assertSame(s.shape(), Struct.Shape.of("x", "y"));
+        Assert.assertEquals(s.getInt("y"), 3);
+
+        s.put("z", 4); //adding a field gives the struct its own layout
+        Assert.assertNull(s.shape());
+        Assert.assertEquals(s.getInt("z"), 4);
+
+        Struct t = Struct.fromFields(new String[] {"x", "y"}, new Object[] {1, 2}, 2);
+        t.remove("x");
+        Assert.assertNull(t.shape());
+        Assert.assertEquals(t.size(), 1);
+        Assert.assertEquals(t.getInt("y"), 2);
+        Assert.assertEquals(Struct.Shape.of("x", "y").slot("x"), 0); //the shared shape is untouched
+        System.out.println("StructTest.ShapedStructTest ok");
+    }
+
+    @Test
+    public void DecodedShapeSharingTest() {
+        List<Object> lst = new ArrayList<Object>();
+        for (int i = 0; i < 10; i++) {
+            lst.add(new Struct().with("id", i).with("name", "n" + i).with("flag", true));
+        }
+        Array decoded = (Array) TBin.fromBytes(TBin.bytes(lst));
+        Struct.Shape shape = decoded.getStruct(0).shape();
+        Assert.assertNotNull(shape);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertSame(decoded.getStruct(i).shape(), shape);
+            Assert.assertEquals(decoded.getStruct(i), lst.get(i));
+        }
+        System.out.println("StructTest.DecodedShapeSharingTest ok");
+    }
+
+    @Test
+    public void JSONShapeSharingTest() {
+        String json = "[{\"id\":1,\"name\":\"a\",\"tags\":{\"k\":\"v\"}},{\"id\":2,\"name\":\"b\",\"tags\":{\"k\":\"w\"}},{\"id\":3,\"id\":4}]";
+        Object o = JSON.fromString(json, Object.class);
+        Assert.assertTrue(o instanceof Array);
+        Array decoded = (Array) o;
+        Struct first = decoded.getStruct(0);
+        Assert.assertSame(first.shape(), Struct.Shape.of("id", "name", "tags"));
+        Assert.assertSame(decoded.getStruct(1).shape(), first.shape());
+        Assert.assertSame(decoded.getStruct(1).getStruct("tags").shape(), first.getStruct("tags").shape());
+        Assert.assertEquals(decoded.getStruct(1).getString("name"), "b");
+        Struct dup = decoded.getStruct(2); //duplicate names cannot share a shape, the last one wins
+        Assert.assertNull(dup.shape());
+        Assert.assertEquals(dup.size(), 1);
+        Assert.assertEquals(dup.getInt("id"), 4);
+        Assert.assertSame(JSON.fromString("{\"id\":5,\"name\":\"c\",\"tags\":{}}", Struct.class).shape(), first.shape());
+        System.out.println("StructTest.JSONShapeSharingTest ok");
+    }
+
+    @Test
+    public void WideStructTest() {
+        Struct s = new Struct();
+        for (int i = 0; i < 300; i++) {
+            s.append("f" + i, i);
+        }
+        for (int i = 0; i < 300; i++) {
+            Assert.assertEquals(s.getInt("f" + i), i);
+        }
+        Assert.assertNull(s.get("nope"));
+        s.put("f10", -10);
+        s.put("extra", "x");
+        s.remove("f0");
+        Assert.assertEquals(s.size(), 300);
+        Assert.assertEquals(s.getInt("f10"), -10);
+        Assert.assertEquals(s.getString("extra"), "x");
+        Assert.assertFalse(s.has("f0"));
+        Assert.assertEquals(s.nameAt(0), "f1"); //insertion order is kept
+        Assert.assertEquals(s.nameAt(299), "extra");
+
+        Struct t = new Struct();
+        for (int i = 299; i > 0; i--) {
+            t.put("f" + i, s.get("f" + i));
+        }
+        t.put("extra", "x");
+        Assert.assertEquals(s, t);
+        t.put("f200", 0);
+        Assert.assertNotEquals(s, t);
+        System.out.println("StructTest.WideStructTest ok");
+    }
+}
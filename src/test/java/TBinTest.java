@@ -92,6 +92,239 @@ public class TBinTest {
         }
     }
 
+    @Test
+    public void testDecodeInto() throws IOException {
+        Polyline p1 = (Polyline)polylineAsPOJO();
+        byte [] tbin = TBin.bytes(p1);
+        Polyline target = new Polyline().points(new ArrayList<Point>());
+        target.points.add(new Point());
+        Point first = target.points.get(0);
+        Polyline p2 = TBin.fromBytesInto(tbin, target);
+        assertSame(p2, target);
+        assertSame(p2.points.get(0), first);
+        assertEquals(p2, p1);
+
+        //generic structs: nested containers are refilled, stale fields removed
+        Struct s1 = new Struct().with("name", "a").with("items", new Array().with(new Struct().with("x", 1)));
+        Struct s2 = new Struct().with("items", new Array().with(new Struct().with("x", 2)).with(3));
+        Struct target2 = (Struct)TBin.fromBytes(TBin.bytes(s1));
+        Array items = (Array)target2.get("items");
+        Struct item = items.getStruct(0);
+        assertSame(TBin.fromBytesInto(TBin.bytes(s2), target2), target2);
+        assertEquals(target2, s2);
+        assertSame((Array)target2.get("items"), items);
+        assertSame(items.getStruct(0), item);
+        assertFalse(target2.has("name"));
+    }
+
+    @Test
+    public void testTBinFactory() throws IOException {
+        ObjectMapper mapper = TBinFactory.newMapper();
+        Struct s = new Struct().with("name", "a").with("when", Timestamp.fromMillis(1445000000123L))
+            .with("id", UUID.fromString("f81d4fae-7dec-11d0-a765-00a0c91e6bf6")).with("sym", Symbol.intern("red"))
+            .with("ints", IntArray.of(1, 2, 3)).with("mixed", new Array().with(1.5f).with("x").with(new Struct().with("name", "b")))
+            .with("big", 1L << 40);
+
+        //generated by the mapper, decoded by TBinDecoder, and the other way around
+        byte [] tbin = mapper.writeValueAsBytes(s);
+        assertTrue(equivalent(TBin.fromBytes(tbin), s));
+        assertTrue(equivalent(mapper.readValue(TBin.bytes(s), Struct.class), s));
+        assertTrue(equivalent(mapper.readValue(tbin, Struct.class), s));
+        byte [] data = new byte [] {1, 2, 3};
+        assertEquals((byte [])TBin.fromBytes(mapper.writeValueAsBytes(data)), data);
+        java.util.Map<String,Object> withNull = new java.util.LinkedHashMap<String,Object>();
+        withNull.put("gone", null);
+        assertEquals(((Struct) TBin.fromBytes(mapper.writeValueAsBytes(new Struct().with("gone", null)))).size(), 0);
+        assertEquals(((java.util.Map<?,?>) TBin.fromBytes(mapper.writeValueAsBytes(withNull))).size(), 0);
+        assertEquals(mapper.readValue(TBin.bytes(data), byte [].class), data);
+
+        //POJOs, including the typedefs TBinEncoder writes for them
+        Polyline p1 = (Polyline)polylineAsPOJO();
+        assertEquals(mapper.readValue(mapper.writeValueAsBytes(p1), Polyline.class), p1);
+        assertEquals(mapper.readValue(TBin.bytes(p1), Polyline.class), p1);
+        assertEquals(TBin.fromBytes(mapper.writeValueAsBytes(p1), Polyline.class), p1);
+    }
+
+    @Test
+    public void testValidatingDecode() throws IOException {
+        SchemaBuilder sb = new SchemaBuilder("tests");
+        sb.structType("Point").field("x", "Int32", false, "").field("y", "Int32", false, "");
+        sb.structType("Polyline").arrayField("points", "Point", false, "");
+        Validator validator = new Validator(sb.build());
+        Polyline p1 = (Polyline)polylineAsPOJO();
+        Struct bad = new Struct().with("points", Arrays.asList(new Struct().with("x", 1).with("y", 2), new Struct().with("x", 3)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TBinEncoder enc = new TBinEncoder(out);
+        enc.encode(p1);
+        enc.encode(p1);
+        enc.encode(bad);
+        TBinDecoder dec = new TBinDecoder(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(dec.decode(Polyline.class, validator, "Polyline"), p1);
+        assertEquals(dec.decode(Polyline.class, validator, "Polyline"), p1);
+        try {
+            dec.decode(Polyline.class, validator, "Polyline");
+            fail("expected a ValidationException");
+        } catch (Validator.ValidationException e) {
+            assertEquals(e.result.error, "Missing required field 'y' for type Point in data.points[1]");
+        }
+        try {
+            new TBinDecoder(new ByteArrayInputStream(TBin.bytes(p1))).decode(Polyline.class, validator, "Point");
+            fail("expected a ValidationException");
+        } catch (Validator.ValidationException e) {
+            assertEquals(e.result.error, "Missing required field 'x' for type Point in data");
+        }
+    }
+
+    @Test
+    public void testRegistryEncoding() throws IOException {
+        SchemaBuilder sb = new SchemaBuilder("tests");
+        sb.structType("Point").field("x", "Int32", false, "").field("y", "Int32", false, "");
+        sb.structType("Polyline").arrayField("points", "Point", false, "");
+        sb.structType("Node").field("name", "String", false, "").field("next", "Node", true, "");
+        TypeRegistry reg = new TypeRegistry(sb.build());
+        Polyline p1 = (Polyline)polylineAsPOJO();
+        byte [] tbin = TBin.bytes(p1, reg, "Polyline");
+        assertEquals(tbin, TBin.bytes(p1)); //the same typedefs as derived from the class
+        assertEquals(TBin.fromBytes(tbin, Polyline.class), p1);
+
+        //a recursive reference is encoded generically
+        Struct list = new Struct().with("name", "a").with("next", new Struct().with("name", "b"));
+        assertTrue(equivalent(TBin.fromBytes(TBin.bytes(list, reg, "Node")), list));
+        assertNull(TBin.bytes(new Struct().with("next", list), reg, "Node")); //missing required name
+    }
+
+    @Test
+    public void testSchemaRegistry() throws IOException {
+        SchemaBuilder sb = new SchemaBuilder("tests");
+        sb.structType("Point").field("x", "Int32", false, "").field("y", "Int32", false, "");
+        sb.structType("Polyline").arrayField("points", "Point", false, "");
+        sb.structType("Segment").field("a", "Point", false, "").field("b", "Point", true, "");
+        Schema schema = sb.build();
+        TypeRegistry reg = new TypeRegistry(schema);
+        long fp = reg.info("Polyline").fingerprint();
+
+        //comments do not change the fingerprint, definitions do
+        SchemaBuilder sb2 = new SchemaBuilder("other");
+        sb2.structType("Point").field("x", "Int32", false, "the x").field("y", "Int32", false, "");
+        sb2.structType("Polyline").arrayField("points", "Point", false, "");
+        assertEquals(new TypeRegistry(sb2.build()).info("Polyline").fingerprint(), fp);
+        assertNotEquals(reg.info("Point").fingerprint(), reg.info("Segment").fingerprint());
+        assertEquals(reg.info("Int32").canonicalForm(), "Int32");
+
+        //the reader finds the type in the directory the writer registered it in
+        File dir = Files.createTempDirectory("schemas").toFile();
+        TBinSchemaRegistry writer = new TBinSchemaRegistry(dir.toPath());
+        writer.register(schema);
+        Polyline p1 = (Polyline)polylineAsPOJO();
+        byte [] tbin = TBin.bytes(p1, writer, fp);
+        assertTrue(tbin.length < TBin.bytes(p1).length);
+        TBinSchemaRegistry reader = new TBinSchemaRegistry(dir.toPath());
+        assertEquals(TBin.fromBytes(tbin, reader, Polyline.class), p1);
+        assertEquals(reader.lookup(fp).info().name(), "Polyline");
+
+        //the nested typedefs implied by the reference are tagged as the writer tags them
+        Struct seg = new Struct().with("a", new Struct().with("x", 1).with("y", 2)).with("b", new Struct().with("x", 3).with("y", 4));
+        byte [] segData = TBin.bytes(seg, writer, reg.info("Segment").fingerprint());
+        assertTrue(equivalent(TBin.fromBytes(segData, reader, Object.class), seg));
+
+        assertNull(TBin.fromBytes(tbin, new TBinSchemaRegistry(), Polyline.class)); //unknown fingerprint
+
+        //the reference tag shares its value with the union tag, and is only read in typedef position
+        assertTrue(tbin[1] >= 0x40); //a new user tag, defined by the typedef that follows
+        assertEquals(tbin[2], (byte)0x16); //DEF_REF_TAG
+        byte [] misplaced = Arrays.copyOfRange(tbin, 1, tbin.length);
+        misplaced[0] = tbin[0]; //the version, then the reference tag in value position
+        assertNull(TBin.fromBytes(misplaced, reader, Object.class));
+    }
+
+    public static class LabeledPoint {
+        public int x;
+        public int y;
+        public String label;
+        public List<Integer> tags;
+    }
+
+    public static class ColoredPoint {
+        public int x;
+        public int y;
+        public String color;
+
+        public ColoredPoint init() {
+            if (color == null) {
+                color = "red";
+            }
+            return this;
+        }
+    }
+
+    @Test
+    public void testSchemaEvolution() throws IOException {
+        LabeledPoint lp = new LabeledPoint();
+        lp.x = 1;
+        lp.y = 2;
+        lp.label = "here";
+        lp.tags = Arrays.asList(3, 4);
+
+        //fields the reader does not have are skipped
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TBinEncoder enc = new TBinEncoder(out);
+        enc.encode(lp);
+        lp.x = 5;
+        enc.encode(lp);
+        TBinDecoder dec = new TBinDecoder(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(dec.decode(Point.class), new Point().x(1).y(2));
+        assertEquals(dec.decode(Point.class), new Point().x(5).y(2));
+        assertEquals(TBin.fromBytes(TBin.bytes(new Struct().with("x", 1).with("extra", "a")), Point.class), new Point().x(1));
+
+        //and the reader's defaults are supplied for fields not written
+        ColoredPoint cp = TBin.fromBytes(TBin.bytes(new Point().x(1).y(2)), ColoredPoint.class);
+        assertEquals(cp.x, 1);
+        assertEquals(cp.y, 2);
+        assertEquals(cp.color, "red");
+    }
+
+    public static class SymbolPair {
+        public Symbol a;
+        public Symbol b;
+        public Object extra;
+    }
+
+    @Test
+    public void testTranscoder() throws IOException {
+        Polyline p1 = (Polyline)polylineAsPOJO();
+        byte [] json = JSON.bytes(p1);
+
+        //generic encoding, both directions
+        byte [] tbin = TBinTranscoder.fromJSON(json);
+        assertTrue(equivalent(TBin.fromBytes(tbin), JSON.fromBytes(json, Struct.class)));
+        assertEquals(JSON.fromBytes(TBinTranscoder.toJSON(tbin), Polyline.class), p1);
+        assertEquals(JSON.fromBytes(TBinTranscoder.toJSON(TBin.bytes(p1)), Polyline.class), p1);
+
+        //typed encoding, as TBinEncoder writes it
+        byte [] typed = TBinTranscoder.fromJSON(json, Polyline.class);
+        assertEquals(typed, TBin.bytes(p1));
+        assertEquals(TBin.fromBytes(typed, Polyline.class), p1);
+        assertTrue(typed.length < tbin.length);
+
+        //fields out of order, unknown fields, and RDL types as strings
+        byte [] reordered = "{\"extra\":[1,{\"a\":2}],\"points\":[{\"y\":11,\"x\":1},{\"x\":2,\"y\":22}]}".getBytes("UTF-8");
+        Polyline p2 = TBin.fromBytes(TBinTranscoder.fromJSON(reordered, Polyline.class), Polyline.class);
+        assertEquals(p2, JSON.fromBytes(reordered, Polyline.class));
+
+        //reordered fields that write symbols, which the reader numbers in stream order
+        byte [] syms = "{\"extra\":{\"k\":\"v\"},\"b\":\"xx\",\"a\":\"yy\"}".getBytes("UTF-8");
+        SymbolPair sp = TBin.fromBytes(TBinTranscoder.fromJSON(syms, SymbolPair.class), SymbolPair.class);
+        assertEquals(sp.a, Symbol.intern("yy"));
+        assertEquals(sp.b, Symbol.intern("xx"));
+        assertEquals(((Struct) sp.extra).get("k"), "v");
+        Struct s = new Struct().with("when", Timestamp.fromMillis(1445000000123L)).with("sym", Symbol.intern("red"))
+            .with("data", new byte [] {1, 2, 3});
+        Struct s2 = JSON.fromBytes(TBinTranscoder.toJSON(TBin.bytes(s)), Struct.class);
+        assertEquals(s2.get("when"), "2015-10-16T12:53:20.123Z");
+        assertEquals(s2.get("sym"), "red");
+        assertEquals(s2.get("data"), "AQID");
+    }
+
     byte [] benchmarkJSONEncode(Object data, int iterations, Class<?> type) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
         mapper.disable(SerializationFeature.WRITE_NULL_MAP_VALUES);